@@ -0,0 +1,422 @@
+package com.sjl.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.sjl.camera.util.LegacyCameraRegistry;
+
+import java.io.IOException;
+
+/**
+ * Camera1控制器
+ * <p>打开、预览、拍照、释放都在专用的相机线程中按状态机执行，不阻塞UI线程；
+ * 回调在主线程中执行
+ */
+@SuppressWarnings("deprecation")
+public class Camera1Controller {
+    private static final String TAG = "Camera1Controller";
+
+    /**
+     * 相机状态
+     */
+    public enum State {
+        IDLE,
+        OPENING,
+        OPENED,
+        PREVIEWING,
+        CAPTURING,
+        RELEASING
+    }
+
+    /**
+     * 相机回调，在主线程中执行
+     */
+    public interface Callback {
+        /**
+         * 相机已打开
+         *
+         * @param cameraId 摄像头id
+         */
+        void onOpened(int cameraId);
+
+        /**
+         * 打开相机或拍照失败
+         *
+         * @param message
+         */
+        void onError(String message);
+
+        /**
+         * 拍照完成
+         *
+         * @param data     JPEG数据
+         * @param cameraId 摄像头id
+         */
+        void onPictureTaken(byte[] data, int cameraId);
+    }
+
+    /**
+     * 预览帧分析器，在分析线程中执行
+     */
+    public interface FrameAnalyzer {
+        /**
+         * 分析一帧，返回后缓冲区会还给相机复用，不能在方法外持有
+         *
+         * @param nv21   NV21格式的预览帧
+         * @param width  预览宽
+         * @param height 预览高
+         */
+        void analyze(byte[] nv21, int width, int height);
+    }
+
+    //预览帧缓冲区个数：相机写一个，分析一个，再留一个余量
+    private static final int FRAME_BUFFER_COUNT = 3;
+
+    private final HandlerThread cameraThread;
+    private final Handler cameraHandler;
+    private final Handler mainHandler;
+    private final Callback callback;
+    private volatile State state = State.IDLE;
+    //调用过quit()，相机线程已结束或即将结束
+    private volatile boolean quit;
+
+    //以下字段只在相机线程中访问
+    private Camera camera;
+    private int cameraId = -1;
+    private SurfaceHolder surfaceHolder;
+    private FrameAnalyzer frameAnalyzer;
+    private HandlerThread analysisThread;
+    private Handler analysisHandler;
+    private byte[][] frameBuffers;
+    private int frameWidth;
+    private int frameHeight;
+    //正在分析的缓冲区，分析完成前不能交给相机
+    private byte[] analyzingBuffer;
+    private volatile int droppedFrames;
+
+    public Camera1Controller(Callback callback) {
+        this.callback = callback;
+        mainHandler = new Handler(Looper.getMainLooper());
+        cameraThread = new HandlerThread("Camera1");
+        cameraThread.start();
+        //相机在此线程打开，Camera的回调也会发到此线程
+        cameraHandler = new Handler(cameraThread.getLooper());
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 打开指定朝向的摄像头，已打开其他摄像头时先释放
+     *
+     * @param facing Camera.CameraInfo.CAMERA_FACING_*
+     */
+    public void open(final int facing) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                int id = LegacyCameraRegistry.getCameraId(facing);
+                if (id < 0) {
+                    postError("没有找到摄像头");
+                    return;
+                }
+                if (camera != null && cameraId == id) {
+                    return;
+                }
+                releaseInternal();
+                state = State.OPENING;
+                try {
+                    camera = Camera.open(id);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "open camera " + id + " failed", e);
+                    state = State.IDLE;
+                    postError("打开相机失败");
+                    return;
+                }
+                cameraId = id;
+                state = State.OPENED;
+                final int openedId = id;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOpened(openedId);
+                    }
+                });
+                startPreviewInternal();
+            }
+        });
+    }
+
+    /**
+     * 设置预览Surface，相机已打开时(重新)开始预览
+     *
+     * @param holder
+     */
+    public void setSurface(final SurfaceHolder holder) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                surfaceHolder = holder;
+                startPreviewInternal();
+            }
+        });
+    }
+
+    /**
+     * 设置预览帧分析器，为null时关闭分析
+     * <p>预览帧通过固定的缓冲区环传递，不会每帧分配内存；分析器忙时新帧直接还给相机
+     *
+     * @param analyzer
+     */
+    public void setFrameAnalyzer(final FrameAnalyzer analyzer) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                frameAnalyzer = analyzer;
+                if (state == State.PREVIEWING) {
+                    setupFrameCallback();
+                }
+            }
+        });
+    }
+
+    /**
+     * 分析器忙而跳过的帧数
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * 自动对焦
+     */
+    public void autoFocus() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.PREVIEWING) {
+                    return;
+                }
+                camera.autoFocus(new Camera.AutoFocusCallback() {
+                    @Override
+                    public void onAutoFocus(boolean success, Camera camera) {
+                        Log.i(TAG, "自动对焦：" + success);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 拍照，只有预览中才会执行，否则回调{@link Callback#onError(String)}
+     */
+    public void takePicture() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.PREVIEWING) {
+                    //打开、切换相机中或预览还没开始，调用方需要知道这次没有拍照
+                    postError("相机未就绪");
+                    return;
+                }
+                state = State.CAPTURING;
+                try {
+                    camera.takePicture(new Camera.ShutterCallback() {
+                        @Override
+                        public void onShutter() {
+                            //按下快门
+                        }
+                    }, null, new Camera.PictureCallback() {
+                        @Override
+                        public void onPictureTaken(final byte[] data, Camera camera) {
+                            //拍照后预览会停止
+                            state = State.OPENED;
+                            final int id = cameraId;
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    callback.onPictureTaken(data, id);
+                                }
+                            });
+                            startPreviewInternal();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "takePicture failed", e);
+                    state = State.PREVIEWING;
+                    postError("拍照失败");
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止预览并释放相机
+     */
+    public void release() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                releaseInternal();
+            }
+        });
+    }
+
+    /**
+     * 释放相机并结束相机线程，之后的调用都被忽略
+     */
+    public void quit() {
+        if (quit) {
+            return;
+        }
+        //分析线程在相机线程中创建和结束，这里只排队释放，已排队的任务在线程结束前执行完
+        release();
+        quit = true;
+        cameraThread.quitSafely();
+    }
+
+    /**
+     * 把任务交给相机线程，quit()之后丢弃，不再发往已结束的线程
+     *
+     * @param task
+     */
+    private void post(Runnable task) {
+        if (quit || !cameraHandler.post(task)) {
+            Log.w(TAG, "camera thread has quit, ignore task");
+        }
+    }
+
+    private void startPreviewInternal() {
+        if (camera == null || surfaceHolder == null || state == State.CAPTURING) {
+            return;
+        }
+        try {
+            camera.setDisplayOrientation(90);
+            camera.setPreviewDisplay(surfaceHolder);
+            setupFrameCallback();
+            camera.startPreview();
+            state = State.PREVIEWING;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "startPreview failed", e);
+        }
+    }
+
+    private void releaseInternal() {
+        //已交给分析线程的帧处理完后照常归还，下次预览时再创建
+        if (analysisThread != null) {
+            analysisThread.quitSafely();
+            analysisThread = null;
+            analysisHandler = null;
+        }
+        if (camera == null) {
+            return;
+        }
+        state = State.RELEASING;
+        camera.setPreviewCallbackWithBuffer(null);
+        camera.stopPreview();
+        camera.release();
+        camera = null;
+        cameraId = -1;
+        state = State.IDLE;
+    }
+
+    /**
+     * 按当前预览尺寸准备缓冲区环并注册带缓冲区的预览回调
+     */
+    private void setupFrameCallback() {
+        if (frameAnalyzer == null) {
+            camera.setPreviewCallbackWithBuffer(null);
+            return;
+        }
+        if (analysisThread == null) {
+            analysisThread = new HandlerThread("FrameAnalysis");
+            analysisThread.start();
+            analysisHandler = new Handler(analysisThread.getLooper());
+        }
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size size = parameters.getPreviewSize();
+        int bufferSize = size.width * size.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        if (frameBuffers == null || frameBuffers[0].length != bufferSize) {
+            frameBuffers = new byte[FRAME_BUFFER_COUNT][bufferSize];
+        }
+        frameWidth = size.width;
+        frameHeight = size.height;
+        //先清空相机中排队的旧缓冲区，避免同一缓冲区重复入队
+        camera.setPreviewCallbackWithBuffer(null);
+        camera.setPreviewCallbackWithBuffer(previewCallback);
+        for (byte[] buffer : frameBuffers) {
+            if (buffer != analyzingBuffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }
+    }
+
+    //预览帧回调，在相机线程中执行
+    private final Camera.PreviewCallback previewCallback = new Camera.PreviewCallback() {
+        @Override
+        public void onPreviewFrame(final byte[] data, Camera camera) {
+            final FrameAnalyzer analyzer = frameAnalyzer;
+            if (data == null) {
+                return;
+            }
+            if (analyzer == null || analyzingBuffer != null) {
+                droppedFrames++;
+                camera.addCallbackBuffer(data);
+                return;
+            }
+            analyzingBuffer = data;
+            final int width = frameWidth;
+            final int height = frameHeight;
+            analysisHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        analyzer.analyze(data, width, height);
+                    } finally {
+                        post(new Runnable() {
+                            @Override
+                            public void run() {
+                                returnFrameBuffer(data);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * 分析完成后把缓冲区还给当前相机，缓冲区已被新的环替换时丢弃
+     *
+     * @param buffer
+     */
+    private void returnFrameBuffer(byte[] buffer) {
+        analyzingBuffer = null;
+        if (camera == null || frameBuffers == null) {
+            return;
+        }
+        for (byte[] frameBuffer : frameBuffers) {
+            if (frameBuffer == buffer) {
+                camera.addCallbackBuffer(buffer);
+                return;
+            }
+        }
+    }
+
+    private void postError(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(message);
+            }
+        });
+    }
+}
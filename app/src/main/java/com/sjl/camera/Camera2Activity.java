@@ -6,9 +6,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.ImageFormat;
-import android.graphics.Matrix;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
@@ -17,9 +15,6 @@ import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.CaptureResult;
-import android.hardware.camera2.TotalCaptureResult;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
@@ -28,38 +23,81 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.Size;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.Surface;
 import android.view.View;
+import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.Toast;
 
-import com.sjl.camera.util.BitmapUtil;
+import com.sjl.camera.util.CameraRegistry;
+import com.sjl.camera.util.CaptureStats;
+import com.sjl.camera.util.DecodeCache;
+import com.sjl.camera.util.ImageSaveJob;
 import com.sjl.camera.util.PermisstionUtil;
+import com.sjl.camera.util.PreviewPublisher;
+import com.sjl.camera.util.SaveScheduler;
+import com.sjl.camera.util.TierGenerator;
+import com.sjl.camera.util.SizeSelector;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 @SuppressLint("NewApi")
 public class Camera2Activity extends Activity {
     private static final String TAG = "Camera2Activity";
     private static final String FILEPATH = Environment.getExternalStorageDirectory() + "/MyCamera/";
+    //图片头信息缓存文件
+    private static final String DECODE_CACHE_FILE = "image_headers";
+    /**
+     * ImageReader缓存图像数的Intent参数，默认{@link #DEFAULT_IMAGE_READER_DEPTH}
+     */
+    public static final String EXTRA_IMAGE_READER_DEPTH = "image_reader_depth";
+    /**
+     * 连拍目标帧率的Intent参数，默认{@link #DEFAULT_BURST_FPS}
+     */
+    public static final String EXTRA_BURST_FPS = "burst_fps";
+    //ImageReader缓存的图像数，连拍时保存慢于拍摄也不会立刻丢帧
+    private static final int DEFAULT_IMAGE_READER_DEPTH = 8;
+    private static final int DEFAULT_BURST_FPS = 10;
+    //预览帧率，连拍按它把拍照请求插在预览请求之间
+    private static final int PREVIEW_FPS = (int) (1000000000L / SizeSelector.FRAME_DURATION_30FPS);
     private Context context;
+    private TierGenerator tierGenerator;
+    private PreviewPublisher previewPublisher;
+    private ImageView ivPreview;
     private SurfaceView surfaceView;
     private SurfaceHolder surfaceHolder;
-    private int currentCameraId = CameraCharacteristics.LENS_FACING_FRONT;
+    private int currentFacing = CameraCharacteristics.LENS_FACING_BACK;
 
     private CameraManager cameraManager;
+    private CameraRegistry cameraRegistry;
+    private CameraRegistry.CameraInfo currentCamera;
     private HandlerThread handlerThread;
     private Handler handler;
+    //图像读取单独一个线程，保存排队时不会阻塞相机回调
+    private HandlerThread imageThread;
+    private Handler imageHandler;
     private Size previewSize;
+    private Size pictureSize;
     private CameraDevice cameraDevice;
     private ImageReader imageReader;
     private CameraCaptureSession cameraCaptureSession;
     private CaptureRequest.Builder previewBuilder;
     private CaptureRequest.Builder captureBuilder;
+    private CaptureRequest.Builder burstBuilder;
+    private Button btnBurst;
+    private int imageReaderDepth;
+    private int burstFps;
+    private volatile boolean bursting;
+    private final CaptureStats captureStats = new CaptureStats();
+    private int shotIndex;
 
     //打开相机回调
     private CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
@@ -115,30 +153,26 @@ public class Camera2Activity extends Activity {
     //拍完照回调
     private CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
         @Override
-        public void onCaptureProgressed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureResult partialResult) {
-            super.onCaptureProgressed(session, request, partialResult);
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            super.onCaptureFailed(session, request, failure);
+            //单帧失败不影响预览和后续拍摄，只计入丢帧
+            Log.i(TAG, "onCaptureFailed reason=" + failure.getReason());
+            captureStats.onDropped();
         }
 
         @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            super.onCaptureCompleted(session, request, result);
-            try {
-                //自动对焦
-                captureBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
-                //重新打开预览
-                session.setRepeatingRequest(previewBuilder.build(), null, handler);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
-            }
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull Surface target, long frameNumber) {
+            super.onCaptureBufferLost(session, request, target, frameNumber);
+            //ImageReader没有空闲缓冲区
+            captureStats.onDropped();
         }
+    };
 
+    //拍照后的预览，在主线程中执行
+    private PreviewPublisher.Callback previewCallback = new PreviewPublisher.Callback() {
         @Override
-        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
-            super.onCaptureFailed(session, request, failure);
-            cameraCaptureSession.close();
-            cameraCaptureSession = null;
-            cameraDevice.close();
-            cameraDevice = null;
+        public void onPreview(Bitmap bitmap, boolean refined) {
+            ivPreview.setImageBitmap(bitmap);
         }
     };
 
@@ -150,8 +184,23 @@ public class Camera2Activity extends Activity {
         initView();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        closeCamera();
+        previewPublisher.release();
+        DecodeCache.getInstance().saveHeaders();
+    }
+
     private void initView() {
         context = this;
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        //保存时同时生成屏幕图和缩略图
+        tierGenerator = TierGenerator.createDefault(Math.max(metrics.widthPixels, metrics.heightPixels));
+        DecodeCache.getInstance().setHeaderFile(new File(getCacheDir(), DECODE_CACHE_FILE));
+        ivPreview = (ImageView) findViewById(R.id.ivPreview);
+        //拍照后先显示低分辨率预览，保存完成后换成缩略图
+        previewPublisher = new PreviewPublisher(previewCallback, TierGenerator.THUMB_SIZE);
         surfaceView = (SurfaceView) findViewById(R.id.surfaceView);
         surfaceHolder = surfaceView.getHolder();
         surfaceHolder.addCallback(new SurfaceHolder.Callback() {
@@ -184,15 +233,59 @@ public class Camera2Activity extends Activity {
                 switchCamera();
             }
         });
+        btnBurst = (Button) findViewById(R.id.btnBurst);
+        btnBurst.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (bursting) {
+                    stopBurst();
+                } else {
+                    startBurst();
+                }
+            }
+        });
         initData();
     }
 
     private void initData() {
         cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        //已在MainActivity中预加载，首次查询时等待枚举完成
+        cameraRegistry = CameraRegistry.getInstance(context);
+        //ImageReader至少要有一张给预览回调、一张给保存
+        imageReaderDepth = Math.max(2, getIntent().getIntExtra(EXTRA_IMAGE_READER_DEPTH, DEFAULT_IMAGE_READER_DEPTH));
+        burstFps = Math.max(1, Math.min(PREVIEW_FPS, getIntent().getIntExtra(EXTRA_BURST_FPS, DEFAULT_BURST_FPS)));
+    }
+
+    /**
+     * 启动相机线程和图像读取线程，关闭相机时退出
+     */
+    private void startThreads() {
+        if (handlerThread != null) {
+            return;
+        }
         //Camera2全程异步
         handlerThread = new HandlerThread("Camera2");
         handlerThread.start();
         handler = new Handler(handlerThread.getLooper());
+        imageThread = new HandlerThread("Camera2Image");
+        imageThread.start();
+        imageHandler = new Handler(imageThread.getLooper());
+    }
+
+    /**
+     * 处理完已排队的回调后退出线程
+     */
+    private void quitThreads() {
+        if (handlerThread != null) {
+            handlerThread.quitSafely();
+            handlerThread = null;
+            handler = null;
+        }
+        if (imageThread != null) {
+            imageThread.quitSafely();
+            imageThread = null;
+            imageHandler = null;
+        }
     }
 
 
@@ -207,14 +300,16 @@ public class Camera2Activity extends Activity {
                     return;
                 }
                 try {
-                    //获取属性CameraDevice属性描述
-                    CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(String.valueOf(currentCameraId));
-                    //获取摄像头支持的配置属性
-                    StreamConfigurationMap map = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                    previewSize = getMaxSize(map.getOutputSizes(SurfaceHolder.class));
+                    //从缓存中取当前朝向对应的摄像头
+                    currentCamera = cameraRegistry.findByFacing(currentFacing);
+                    if (currentCamera == null) {
+                        return;
+                    }
+                    chooseSizes(currentCamera);
+                    startThreads();
                     initImageReader();
                     //第一个参数指定哪个摄像头，第二个参数打开摄像头的状态回调，第三个参数是运行在哪个线程(null是当前线程)
-                    cameraManager.openCamera(String.valueOf(currentCameraId), stateCallback, handler);
+                    cameraManager.openCamera(currentCamera.id, stateCallback, handler);
                 } catch (CameraAccessException e) {
                     e.printStackTrace();
                 }
@@ -227,25 +322,59 @@ public class Camera2Activity extends Activity {
         });
     }
 
+    /**
+     * 分别选择预览尺寸和拍照尺寸
+     * <p>拍照取最大的JPEG尺寸，预览按屏幕大小、拍照宽高比和30fps选择
+     *
+     * @param camera
+     */
+    private void chooseSizes(CameraRegistry.CameraInfo camera) {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        SizeSelector.Option still = SizeSelector.chooseStillSize(camera.jpegSizes);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(camera.previewSizes, metrics.widthPixels, metrics.heightPixels, still);
+        pictureSize = new Size(still.width, still.height);
+        previewSize = new Size(preview.width, preview.height);
+        Log.i(TAG, "previewSize=" + previewSize + ", pictureSize=" + pictureSize);
+        //预览Surface的缓冲区按选中的预览尺寸分配
+        surfaceHolder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+    }
+
     /**
      * 初始化拍照处理器
      */
     private void initImageReader() {
-        imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.JPEG, 1);
+        imageReader = ImageReader.newInstance(pictureSize.getWidth(), pictureSize.getHeight(), ImageFormat.JPEG, imageReaderDepth);
         //监听ImageReader时间，有图像数据可用时回调，参数就是帧数据
         imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
             @Override
             public void onImageAvailable(ImageReader reader) {
-                Image image = reader.acquireLatestImage();
-                //将帧数据转换成字节数组
-                ByteBuffer byteBuffer = image.getPlanes()[0].getBuffer();
-                byte[] data = new byte[byteBuffer.remaining()];
-                byteBuffer.get(data);
-                //保存照片
-                savePicture(data);
-                image.close();
+                //按顺序取出所有排队的图像，不只取最新一张
+                Image image;
+                while ((image = acquireNextImage(reader)) != null) {
+                    if (captureStats.onShot() && bursting) {
+                        updateBurstStats();
+                    }
+                    //图像交给保存任务，写完文件后再关闭
+                    savePicture(image);
+                }
             }
-        }, handler);
+        }, imageHandler);
+    }
+
+    /**
+     * 取下一张图像
+     *
+     * @param reader
+     * @return 没有图像时返回null
+     */
+    private Image acquireNextImage(ImageReader reader) {
+        try {
+            return reader.acquireNextImage();
+        } catch (IllegalStateException e) {
+            //已取出的图像达到maxImages
+            Log.w(TAG, "acquireNextImage: " + e.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -269,13 +398,15 @@ public class Camera2Activity extends Activity {
      * 拍照
      */
     private void takePhoto() {
+        if (cameraCaptureSession == null) {
+            return;
+        }
         try {
             captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
             captureBuilder.addTarget(imageReader.getSurface());
             //自动对焦
             captureBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            cameraCaptureSession.stopRepeating();
-            //拍照
+            //拍照，预览不停止
             cameraCaptureSession.capture(captureBuilder.build(), captureCallback, handler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
@@ -283,39 +414,91 @@ public class Camera2Activity extends Activity {
     }
 
     /**
-     * 切换摄像头
+     * 开始连拍
+     * <p>重复一组请求：一个同时输出预览和拍照的请求，后面跟若干个只输出预览的请求，
+     * 按预览帧率把拍照间隔控制在目标帧率，拍摄间隔不会重建预览
      */
-    private void switchCamera() {
+    private void startBurst() {
+        if (cameraCaptureSession == null) {
+            return;
+        }
         try {
-            for (String cameraId : cameraManager.getCameraIdList()) {
-                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                Size maxSize = getMaxSize(map.getOutputSizes(SurfaceHolder.class));
-                if (currentCameraId == CameraCharacteristics.LENS_FACING_BACK && characteristics.get(CameraCharacteristics.LENS_FACING) == CameraCharacteristics.LENS_FACING_FRONT) {
-                    //前置转后置
-                    previewSize = maxSize;
-                    currentCameraId = CameraCharacteristics.LENS_FACING_FRONT;
-                    cameraDevice.close();
-                    openCamera();
-                    break;
-                } else if (currentCameraId == CameraCharacteristics.LENS_FACING_FRONT && characteristics.get(CameraCharacteristics.LENS_FACING) == CameraCharacteristics.LENS_FACING_BACK) {
-                    //后置转前置
-                    previewSize = maxSize;
-                    currentCameraId = CameraCharacteristics.LENS_FACING_BACK;
-                    cameraDevice.close();
-                    openCamera();
-                    break;
-                }
+            burstBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            burstBuilder.addTarget(surfaceHolder.getSurface());
+            burstBuilder.addTarget(imageReader.getSurface());
+            burstBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            CaptureRequest still = burstBuilder.build();
+            CaptureRequest preview = previewBuilder.build();
+            List<CaptureRequest> burst = new ArrayList<CaptureRequest>();
+            burst.add(still);
+            for (int i = PREVIEW_FPS / burstFps; i > 1; i--) {
+                burst.add(preview);
             }
+            captureStats.reset();
+            cameraCaptureSession.setRepeatingBurst(burst, captureCallback, handler);
+            bursting = true;
+            btnBurst.setText("停止连拍");
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 停止连拍，恢复普通预览
+     */
+    private void stopBurst() {
+        bursting = false;
+        btnBurst.setText("连拍");
+        Log.i(TAG, "burst: " + captureStats + ", average " + captureStats.getAverageShotsPerSecond() + " fps");
+        Toast.makeText(context, String.format("连拍%d张，平均%.1f张/秒，丢帧%d", captureStats.getTotalShots(),
+                captureStats.getAverageShotsPerSecond(), captureStats.getDroppedFrames()), Toast.LENGTH_SHORT).show();
+        if (cameraCaptureSession == null) {
+            return;
+        }
+        try {
+            cameraCaptureSession.setRepeatingRequest(previewBuilder.build(), null, handler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * 刷新连拍统计
+     */
+    private void updateBurstStats() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (bursting) {
+                    btnBurst.setText(String.format("停止连拍 %.1f张/秒 丢帧%d", captureStats.getShotsPerSecond(), captureStats.getDroppedFrames()));
+                }
+            }
+        });
+    }
+
+    /**
+     * 切换摄像头
+     */
+    private void switchCamera() {
+        int facing = currentFacing == CameraCharacteristics.LENS_FACING_BACK
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        if (cameraRegistry.findByFacing(facing) == null) {
+            Toast.makeText(context, "没有可切换的摄像头", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        currentFacing = facing;
+        closeCamera();
+        openCamera();
+    }
+
     /**
      * 关闭相机
      */
     private void closeCamera() {
+        if (bursting) {
+            bursting = false;
+            btnBurst.setText("连拍");
+        }
         //关闭捕捉会话
         if (cameraCaptureSession != null) {
             cameraCaptureSession.close();
@@ -331,61 +514,79 @@ public class Camera2Activity extends Activity {
             imageReader.close();
             imageReader = null;
         }
+        quitThreads();
     }
 
-    /**
-     * 获取最大预览尺寸
-     *
-     * @param outputSizes
-     * @return
-     */
-    private Size getMaxSize(Size[] outputSizes) {
-        Size sizeMax = null;
-        if (outputSizes != null) {
-            sizeMax = outputSizes[0];
-            for (Size size : outputSizes) {
-                if (size.getWidth() * size.getHeight() > sizeMax.getWidth() * sizeMax.getHeight()) {
-                    sizeMax = size;
-                }
+    //保存结果回调，在保存线程中执行
+    private SaveScheduler.OnSaveListener onSaveListener = new SaveScheduler.OnSaveListener() {
+        @Override
+        public void onSaved(SaveScheduler.SaveJob job) {
+            //连拍帧要等组提交才出现在目标路径上
+            if (!bursting && !(job instanceof ImageSaveJob && ((ImageSaveJob) job).isBurst())) {
+                //用缩略图刷新预览；直接保存的Image没有堆内存副本，这是它的第一张预览
+                previewPublisher.publishSaved(job.getPath());
+                showToast("照片保存成功");
             }
         }
-        return sizeMax;
+
+        @Override
+        public void onFailed(SaveScheduler.SaveJob job, Exception e) {
+            showToast("照片保存失败");
+        }
+
+        @Override
+        public void onDropped(SaveScheduler.SaveJob job) {
+            captureStats.onDropped();
+            showToast("照片已丢弃");
+        }
+
+        private void showToast(final String text) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(context, text, Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    };
+
+    /**
+     * 照片的旋转角度
+     */
+    private int getPictureDegrees() {
+        return currentCamera.sensorOrientation;
     }
 
     /**
-     * 保存图像
+     * 新照片的保存路径
+     */
+    private String nextPicturePath() {
+        return FILEPATH + System.currentTimeMillis() + "_" + (shotIndex++) + ".jpg";
+    }
+
+    /**
+     * 直接保存相机图像，图像由保存任务关闭
      *
-     * @param data
+     * @param image
      */
-    private void savePicture(final byte[] data) {
+    private void savePicture(final Image image) {
         PermisstionUtil.requestPermissions(context, PermisstionUtil.STORAGE, 101, "正在获取读写权限", new PermisstionUtil.OnPermissionResult() {
             @Override
             public void granted(int requestCode) {
-                Toast.makeText(context, "正在保存照片。。。", Toast.LENGTH_LONG).show();
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            Matrix matrix = new Matrix();
-                            matrix.setRotate(currentCameraId == CameraCharacteristics.LENS_FACING_FRONT ? 90 : 270);
-                            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
-                            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                            BitmapUtil.save(bitmap, FILEPATH + System.currentTimeMillis() + ".jpg");
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    Toast.makeText(context, "照片保存成功", Toast.LENGTH_SHORT).show();
-                                }
-                            });
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }).start();
+                if (!bursting) {
+                    Toast.makeText(context, "正在保存照片。。。", Toast.LENGTH_LONG).show();
+                }
+                //直接写入相机JPEG，方向记录在EXIF中，写之前从平面解码预览；队列满时阻塞快门。
+                //连拍时不发布预览、不生成档位，也不等落盘，保存线程马上处理下一帧
+                SaveScheduler.getDefault().submit(bursting
+                        ? ImageSaveJob.burst(image, getPictureDegrees(), nextPicturePath())
+                        : new ImageSaveJob(image, getPictureDegrees(), nextPicturePath(), tierGenerator,
+                        previewPublisher), onSaveListener);
             }
 
             @Override
             public void denied(int requestCode) {
+                image.close();
                 Toast.makeText(context, "读写权限被禁止", Toast.LENGTH_SHORT).show();
             }
         });
@@ -3,31 +3,95 @@ package com.sjl.camera;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.hardware.Camera;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.annotation.NonNull;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
+import android.widget.ImageView;
 import android.widget.Toast;
 
 import com.sjl.camera.util.BitmapUtil;
+import com.sjl.camera.util.DecodeCache;
+import com.sjl.camera.util.JpegSaveJob;
+import com.sjl.camera.util.JpegTransform;
+import com.sjl.camera.util.LegacyCameraRegistry;
+import com.sjl.camera.util.LumaMeter;
 import com.sjl.camera.util.PermisstionUtil;
+import com.sjl.camera.util.PreviewPublisher;
+import com.sjl.camera.util.SaveScheduler;
+import com.sjl.camera.util.TierGenerator;
 
+import java.io.File;
 import java.io.IOException;
 
 public class CameraActivity extends Activity {
     private static final String TAG = "CameraActivity";
     private static final String FILEPATH = Environment.getExternalStorageDirectory() + "/MyCamera/";
+    //图片头信息缓存文件
+    private static final String DECODE_CACHE_FILE = "image_headers";
     private Context context;
+    private TierGenerator tierGenerator;
+    private PreviewPublisher previewPublisher;
+    private ImageView ivPreview;
+    private View btnTakePhoto;
     private SurfaceView surfaceView;
     private SurfaceHolder surfaceHolder;
-    private Camera camera;
-    private int currentCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
+    private Camera1Controller cameraController;
+    private int currentFacing = Camera.CameraInfo.CAMERA_FACING_BACK;
+
+    //相机回调，在主线程中执行
+    private Camera1Controller.Callback cameraCallback = new Camera1Controller.Callback() {
+        @Override
+        public void onOpened(int cameraId) {
+            Log.i(TAG, "onOpened " + cameraId);
+        }
+
+        @Override
+        public void onError(String message) {
+            Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+            updateShutter();
+        }
+
+        @Override
+        public void onPictureTaken(byte[] data, int cameraId) {
+            savePicture(data, cameraId);
+        }
+    };
+
+    //预览亮度分析，在分析线程中执行，光线变暗时提示
+    private Camera1Controller.FrameAnalyzer lowLightAnalyzer = new Camera1Controller.FrameAnalyzer() {
+        private final LumaMeter lumaMeter = new LumaMeter();
+
+        @Override
+        public void analyze(byte[] nv21, int width, int height) {
+            if (!lumaMeter.update(nv21, width, height) || !lumaMeter.isDark()) {
+                return;
+            }
+            Log.i(TAG, "low light, luma " + lumaMeter.getAverage() + ", dropped frames "
+                    + cameraController.getDroppedFrames());
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isFinishing()) {
+                        Toast.makeText(context, "光线较暗，拍照时请保持手机稳定", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            });
+        }
+    };
+
+    //拍照后的预览，在主线程中执行
+    private PreviewPublisher.Callback previewCallback = new PreviewPublisher.Callback() {
+        @Override
+        public void onPreview(Bitmap bitmap, boolean refined) {
+            ivPreview.setImageBitmap(bitmap);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -37,41 +101,54 @@ public class CameraActivity extends Activity {
         initView();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cameraController.quit();
+        previewPublisher.release();
+        DecodeCache.getInstance().saveHeaders();
+    }
+
     private void initView() {
         context = this;
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        //保存时同时生成屏幕图和缩略图
+        tierGenerator = TierGenerator.createDefault(Math.max(metrics.widthPixels, metrics.heightPixels));
+        DecodeCache.getInstance().setHeaderFile(new File(getCacheDir(), DECODE_CACHE_FILE));
+        ivPreview = (ImageView) findViewById(R.id.ivPreview);
+        //拍照后先显示低分辨率预览，保存完成后换成缩略图
+        previewPublisher = new PreviewPublisher(previewCallback, TierGenerator.THUMB_SIZE);
+        //打开、预览、释放都在相机线程中执行
+        cameraController = new Camera1Controller(cameraCallback);
+        cameraController.setFrameAnalyzer(lowLightAnalyzer);
         surfaceView = (SurfaceView) findViewById(R.id.surfaceView);
         surfaceHolder = surfaceView.getHolder();
         surfaceHolder.addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
+                cameraController.setSurface(holder);
                 openCamera();
             }
 
             @Override
             public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-                startPreview(camera, holder);
+                cameraController.setSurface(holder);
             }
 
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
-                stopPreview();
+                cameraController.setSurface(null);
+                cameraController.release();
             }
         });
         surfaceView.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                if(camera==null){
-                    return;
-                }
-                camera.autoFocus(new Camera.AutoFocusCallback() {
-                    @Override
-                    public void onAutoFocus(boolean success, Camera camera) {
-                        Log.i(TAG, "自动对焦：" + success);
-                    }
-                });
+                cameraController.autoFocus();
             }
         });
-        findViewById(R.id.btnTakePhoto).setOnClickListener(new View.OnClickListener() {
+        btnTakePhoto = findViewById(R.id.btnTakePhoto);
+        btnTakePhoto.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
                 takePhoto();
@@ -93,10 +170,7 @@ public class CameraActivity extends Activity {
         PermisstionUtil.requestPermissions(context, PermisstionUtil.CAMERA, 100, "正在请求拍照权限", new PermisstionUtil.OnPermissionResult() {
             @Override
             public void granted(int requestCode) {
-                if (camera == null) {
-                    camera = Camera.open(currentCameraId);
-                }
-                startPreview(camera, surfaceHolder);
+                cameraController.open(currentFacing);
             }
 
             @Override
@@ -105,116 +179,106 @@ public class CameraActivity extends Activity {
             }
         });
     }
-    /**
-     * 打开预览
-     */
-    private void startPreview(Camera camera, SurfaceHolder surfaceHolder) {
-        if (camera == null) {
-            return;
-        }
-        try {
-            camera.setDisplayOrientation(90);
-            camera.setPreviewDisplay(surfaceHolder);
-            camera.startPreview();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
 
     /**
-     * 停止预览释放相机
+     * 拍照
      */
-    private void stopPreview() {
-        if (camera != null) {
-            camera.setPreviewCallback(null);
-            camera.stopPreview();
-            camera.release();
-            camera = null;
-        }
+    private void takePhoto() {
+        //照片提交到保存队列前不能再拍，保证提交时一定有空位
+        btnTakePhoto.setEnabled(false);
+        cameraController.takePicture();
     }
 
     /**
-     * 拍照
+     * 保存队列有空位时才允许拍照，主线程提交保存任务时不会阻塞
      */
-    private void takePhoto() {
-        camera.takePicture(new Camera.ShutterCallback() {
-            @Override
-            public void onShutter() {
-                //按下快门
-            }
-        }, new Camera.PictureCallback() {
-            @Override
-            public void onPictureTaken(byte[] data, Camera camera) {
-
-            }
-        }, new Camera.PictureCallback() {
-            @Override
-            public void onPictureTaken(byte[] data, Camera camera) {
-                savePicture(data);
-                startPreview(camera, surfaceHolder);
-            }
-        });
+    private void updateShutter() {
+        btnTakePhoto.setEnabled(SaveScheduler.getDefault().hasFreeSlot());
     }
 
     /**
      * 切换摄像头
      */
     private void switchCamera() {
-        int count = Camera.getNumberOfCameras();
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
-        for (int i = 0; i < count; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
-            if (currentCameraId == Camera.CameraInfo.CAMERA_FACING_BACK && cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                //后置变前置
-                stopPreview();
-                currentCameraId = Camera.CameraInfo.CAMERA_FACING_FRONT;
-                openCamera();
-                break;
-            } else if (currentCameraId == Camera.CameraInfo.CAMERA_FACING_FRONT && cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
-                //前置变后置
-                stopPreview();
-                currentCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
-                openCamera();
-                break;
-            }
-        }
+        currentFacing = currentFacing == Camera.CameraInfo.CAMERA_FACING_BACK
+                ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        //在相机线程中释放当前摄像头再打开另一个
+        openCamera();
     }
 
+    //保存结果回调，在保存线程中执行
+    private SaveScheduler.OnSaveListener onSaveListener = new SaveScheduler.OnSaveListener() {
+        @Override
+        public void onSaved(SaveScheduler.SaveJob job) {
+            previewPublisher.publishSaved(job.getPath());
+            showToast("照片保存成功");
+        }
+
+        @Override
+        public void onFailed(SaveScheduler.SaveJob job, Exception e) {
+            showToast("照片保存失败");
+        }
+
+        @Override
+        public void onDropped(SaveScheduler.SaveJob job) {
+            showToast("照片已丢弃");
+        }
+
+        private void showToast(final String text) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(context, text, Toast.LENGTH_SHORT).show();
+                    //回调前名额已释放
+                    updateShutter();
+                }
+            });
+        }
+    };
+
     /**
      * 保存图像
      *
      * @param data
+     * @param cameraId 拍照的摄像头id
      */
-    private void savePicture(final byte[] data) {
+    private void savePicture(final byte[] data, final int cameraId) {
         PermisstionUtil.requestPermissions(context, PermisstionUtil.STORAGE, 101, "正在获取读写权限", new PermisstionUtil.OnPermissionResult() {
             @Override
             public void granted(int requestCode) {
                 Toast.makeText(context, "正在保存照片。。。", Toast.LENGTH_LONG).show();
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            Matrix matrix = new Matrix();
-                            matrix.setRotate(currentCameraId==Camera.CameraInfo.CAMERA_FACING_BACK?90:270);
-                            Bitmap bitmap = BitmapFactory.decodeByteArray(data,0,data.length);
-                            bitmap = Bitmap.createBitmap(bitmap,0,0,bitmap.getWidth(),bitmap.getHeight(),matrix,true);
-                            BitmapUtil.save(bitmap, FILEPATH + System.currentTimeMillis() + ".jpg");
-                            runOnUiThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    Toast.makeText(context, "照片保存成功", Toast.LENGTH_SHORT).show();
-                                }
-                            });
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                final int degrees = LegacyCameraRegistry.getOrientation(cameraId);
+                String path = FILEPATH + System.currentTimeMillis() + ".jpg";
+                SaveScheduler.SaveJob job;
+                if (!JpegTransform.isBaseline(data)) {
+                    //不能在DCT系数域旋转，直接写入相机JPEG，方向记录在EXIF中；预览由相机JPEG采样解码
+                    previewPublisher.publish(data, degrees);
+                    job = new JpegSaveJob(data, degrees, path, tierGenerator);
+                } else {
+                    job = new SaveScheduler.SaveJob(path) {
+                        @Override
+                        protected void save() throws IOException {
+                            //在DCT系数域无损旋转，以渐进式JPEG边编码边写入，先发布DC预览
+                            BitmapUtil.saveJpegProgressive(data, degrees, false, getPath(),
+                                    previewPublisher.asProgressListener());
+                            try {
+                                tierGenerator.generate(getPath(), 0);
+                            } catch (IOException e) {
+                                //原图已保存，档位缺失时按原图加载
+                                e.printStackTrace();
+                            }
                         }
-                    }
-                }).start();
+                    };
+                }
+                //在主线程中提交，快门只在有空位时可用，所以这里不会阻塞
+                SaveScheduler.getDefault().submit(job, onSaveListener);
+                updateShutter();
             }
 
             @Override
             public void denied(int requestCode) {
                 Toast.makeText(context, "读写权限被禁止", Toast.LENGTH_SHORT).show();
+                updateShutter();
             }
         });
     }
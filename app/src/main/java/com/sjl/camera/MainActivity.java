@@ -3,9 +3,13 @@ package com.sjl.camera;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.View;
 
+import com.sjl.camera.util.CameraRegistry;
+import com.sjl.camera.util.LegacyCameraRegistry;
+
 public class MainActivity extends Activity {
     private Context context;
 
@@ -15,6 +19,8 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
 
         initView();
+        //启动时在后台枚举摄像头，进入拍照界面时直接读缓存
+        preloadCameras();
     }
 
     private void initView() {
@@ -32,4 +38,16 @@ public class MainActivity extends Activity {
             }
         });
     }
+
+    private void preloadCameras() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LegacyCameraRegistry.load();
+            }
+        }, "LegacyCameraRegistry").start();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            CameraRegistry.getInstance(context).preload();
+        }
+    }
 }
@@ -0,0 +1,212 @@
+package com.sjl.camera.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap复用池
+ * <p>按占用字节数分桶，总字节数超出预算时按最近最少使用淘汰。
+ * 取出的Bitmap用作BitmapFactory.Options.inBitmap，避免解码时重新分配像素内存
+ */
+public class BitmapPool {
+    /**
+     * 4.4以上复用的Bitmap最多可以比需要的大几倍，避免小图占用大块内存
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private static BitmapPool instance;
+
+    private final long maxBytes;
+    private long currentBytes;
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    //按放入顺序排列，最早的先淘汰
+    private final LinkedHashSet<Bitmap> lru = new LinkedHashSet<Bitmap>();
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    /**
+     * @param maxBytes 池中Bitmap的总字节数上限
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 进程共享的复用池，预算为最大堆内存的1/8
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return instance;
+    }
+
+    /**
+     * 取一个可以容纳指定尺寸的Bitmap
+     * <p>4.4以上只要求字节数足够，4.4以下要求宽高和格式完全一致
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有可复用的返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int required = width * height * bytesPerPixel(config);
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = buckets.ceilingEntry(required);
+        while (entry != null && entry.getKey() <= (long) required * MAX_SIZE_MULTIPLE) {
+            Iterator<Bitmap> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (canReuse(bitmap, width, height, config)) {
+                    iterator.remove();
+                    if (entry.getValue().isEmpty()) {
+                        buckets.remove(entry.getKey());
+                    }
+                    lru.remove(bitmap);
+                    currentBytes -= entry.getKey();
+                    hits++;
+                    return bitmap;
+                }
+            }
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+                break;
+            }
+            entry = buckets.higherEntry(entry.getKey());
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * 取一个尺寸完全一致的可变Bitmap，没有可复用的时新建
+     * <p>复用的Bitmap内容已清空
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != config) {
+            //4.4以下只会取到完全一致的
+            bitmap.reconfigure(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * 放回不再使用的Bitmap，放回后调用方不能再使用它
+     *
+     * @param bitmap 可变且未回收的Bitmap，不满足时直接回收
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || lru.contains(bitmap)) {
+            return;
+        }
+        int size = getByteCount(bitmap);
+        if (!bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            buckets.put(size, bucket);
+        }
+        bucket.offerLast(bitmap);
+        lru.add(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * 清空并回收池中所有Bitmap
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    public synchronized int getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[" + currentBytes + "/" + maxBytes + " bytes, hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private void trimToSize(long size) {
+        Iterator<Bitmap> iterator = lru.iterator();
+        while (currentBytes > size && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            int bytes = getByteCount(bitmap);
+            ArrayDeque<Bitmap> bucket = buckets.get(bytes);
+            if (bucket != null) {
+                bucket.remove(bitmap);
+                if (bucket.isEmpty()) {
+                    buckets.remove(bytes);
+                }
+            }
+            currentBytes -= bytes;
+            evictions++;
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean canReuse(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return true;
+        }
+        return bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -4,31 +4,29 @@ import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.os.Build;
 import android.text.TextUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public class BitmapUtil {
+    /**
+     * 计算2的幂采样率，保证采样后的宽和高都大于等于目标的宽和高
+     * <p>解码器会把非2的幂的采样率向下取整，这里直接给出实际生效的值
+     *
+     * @param options   已包含outWidth/outHeight
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return
+     */
     public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        // 源图片的高度和宽度
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-        if (height > reqHeight || width > reqWidth) {
-            // 计算出实际宽高和目标宽高的比率
-            final int heightRatio = Math.round((float) height / (float) reqHeight);
-            final int widthRatio = Math.round((float) width / (float) reqWidth);
-            // 选择宽和高中最小的比率作为inSampleSize的值，这样可以保证最终图片的宽和高
-            // 一定都会大于等于目标的宽和高。
-            inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
-        }
-        return inSampleSize;
+        return DecodePlanner.powerOfTwoSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
     }
 
     public static Bitmap decodeSampledBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
@@ -40,25 +38,211 @@ public class BitmapUtil {
         options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
         // 使用获取到的inSampleSize值再次解析图片
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeResource(res, resId, options);
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeResource(res, resId, options);
+        } catch (IllegalArgumentException e) {
+            clearInBitmap(options, e);
+            return BitmapFactory.decodeResource(res, resId, options);
+        }
     }
 
     public static Bitmap decodeSampledBitmapFromFilePath(String filePath, int reqWidth, int reqHeight) {
-        // 第一次解析将inJustDecodeBounds设置为true，来获取图片大小
+        // 图片大小从头信息缓存中取，同一文件不再重复解析
+        ImageHeaderParser.Header header = DecodeCache.getInstance().getHeader(filePath);
+        if (header == null) {
+            return null;
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = header.width;
+        options.outHeight = header.height;
+        DecodePlanner.Plan plan = DecodePlanner.plan(options.outWidth, options.outHeight, reqWidth, reqHeight,
+                DecodePlanner.getDefaultMaxBytes());
+        if (plan.tiled) {
+            //采样后仍然过大(如全景图)，分块解码并精确缩放到目标尺寸
+            try {
+                return DecodePlanner.decodeTiled(filePath, plan);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        // 使用计算好的inSampleSize值再次解析图片
+        options.inSampleSize = plan.sampleSize;
+        options.inJustDecodeBounds = false;
+        setInBitmap(options);
+        return decodeFile(filePath, options);
+    }
+
+    /**
+     * 解码字节数组，像素内存优先从{@link BitmapPool}复用
+     *
+     * @param data
+     * @return
+     */
+    public static Bitmap decodeByteArray(byte[] data) {
+        return decodeByteArray(data, 1);
+    }
+
+    /**
+     * 按采样率解码字节数组，像素内存优先从{@link BitmapPool}复用
+     *
+     * @param data
+     * @param inSampleSize 采样率
+     * @return
+     */
+    public static Bitmap decodeByteArray(byte[] data, int inSampleSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        readBounds(data, options);
+        options.inSampleSize = inSampleSize;
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            clearInBitmap(options, e);
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * 按采样率解码直接内存中的JPEG，不复制到堆内存，像素内存优先从{@link BitmapPool}复用
+     *
+     * @param data         从position到limit的图片数据，不改变其position
+     * @param inSampleSize 采样率
+     * @return
+     */
+    public static Bitmap decodeByteBuffer(ByteBuffer data, int inSampleSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(data.duplicate());
+        if (header != null) {
+            options.outWidth = header.width;
+            options.outHeight = header.height;
+            options.outMimeType = header.mimeType;
+        }
+        options.inSampleSize = inSampleSize;
+        setInBitmap(options);
+        try {
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(data.duplicate()), null, options);
+        } catch (IllegalArgumentException e) {
+            clearInBitmap(options, e);
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(data.duplicate()), null, options);
+        }
+    }
+
+    /**
+     * 读取ByteBuffer的输入流
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * 按采样率解码文件，像素内存优先从{@link BitmapPool}复用
+     *
+     * @param filePath
+     * @param inSampleSize 采样率
+     * @return
+     */
+    public static Bitmap decodeFile(String filePath, int inSampleSize) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
+        ImageHeaderParser.Header header = DecodeCache.getInstance().getHeader(filePath);
+        if (header != null) {
+            options.outWidth = header.width;
+            options.outHeight = header.height;
+        }
+        options.inSampleSize = inSampleSize;
+        setInBitmap(options);
+        return decodeFile(filePath, options);
+    }
+
+    /**
+     * 读取图片宽高到options.outWidth/outHeight，先解析文件头，无法识别的格式才交给BitmapFactory
+     *
+     * @param data
+     * @param options
+     */
+    static void readBounds(byte[] data, BitmapFactory.Options options) {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(data));
+        if (header != null) {
+            options.outWidth = header.width;
+            options.outHeight = header.height;
+            options.outMimeType = header.mimeType;
+            return;
+        }
         options.inJustDecodeBounds = true;
-//	    InputStream is = new FileInputStream(filePath);
-//	    System.out.println("is=" + is);
-        BitmapFactory.decodeFile(filePath, options);
-        // 调用上面定义的方法计算inSampleSize值
-        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-        // 使用获取到的inSampleSize值再次解析图片
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
         options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(filePath, options);
+    }
+
+    /**
+     * 按已解析的图片大小和inSampleSize从{@link BitmapPool}取可复用的Bitmap
+     *
+     * @param options 已包含outWidth/outHeight
+     */
+    private static void setInBitmap(BitmapFactory.Options options) {
+        options.inMutable = true;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        //4.4以下inBitmap只支持inSampleSize为1且尺寸完全一致
+        if (options.outWidth <= 0 || options.outHeight <= 0
+                || (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1)) {
+            return;
+        }
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = options.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        options.inBitmap = BitmapPool.getInstance().get(width, height, config);
+    }
+
+    /**
+     * inBitmap无法复用时放回池中，之后重新分配内存解码
+     */
+    private static void clearInBitmap(BitmapFactory.Options options, IllegalArgumentException e) {
+        if (options.inBitmap == null) {
+            throw e;
+        }
+        BitmapPool.getInstance().put(options.inBitmap);
+        options.inBitmap = null;
+    }
+
+    private static Bitmap decodeFile(String filePath, BitmapFactory.Options options) {
+        try {
+            return BitmapFactory.decodeFile(filePath, options);
+        } catch (IllegalArgumentException e) {
+            clearInBitmap(options, e);
+            return BitmapFactory.decodeFile(filePath, options);
+        }
     }
 
     /**
      * 旋转图片
+     * <p>需要把JPEG数据转正时用{@link #rotateJpeg(byte[], int, boolean)}，不解码像素也不损失画质
      *
      * @param bitmap            Bitmap
      * @param orientationDegree 旋转角度
@@ -72,8 +256,58 @@ public class BitmapUtil {
                 bitmap.getHeight(), matrix, true);
     }
 
+    /**
+     * 无损旋转JPEG
+     * <p>在DCT系数域旋转和镜像，内存只需要系数和输出数据，不需要两张完整的Bitmap。
+     * 不是基线JPEG时退回解码旋转后重新编码
+     *
+     * @param jpeg    JPEG数据
+     * @param degrees 顺时针旋转角度
+     * @param mirror  旋转后是否水平镜像
+     * @return 旋转后的JPEG，不需要变换时返回原数组
+     * @throws IOException
+     */
+    public static byte[] rotateJpeg(byte[] jpeg, int degrees, boolean mirror) throws IOException {
+        JpegTransform.Op op = JpegTransform.forRotation(degrees, mirror);
+        if (op == JpegTransform.Op.NONE) {
+            return jpeg;
+        }
+        try {
+            return JpegTransform.transform(jpeg, op);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Bitmap source = decodeByteArray(jpeg);
+        if (source == null) {
+            throw new IOException("decode failed");
+        }
+        Matrix matrix = new Matrix();
+        matrix.setRotate(degrees);
+        if (mirror) {
+            matrix.postScale(-1, 1);
+        }
+        Bitmap rotated = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        ByteBufferOutputStream output = ByteBufferOutputStream.obtain(jpeg.length);
+        try {
+            ByteBuffer result = new ImageEncoder(ImageEncoder.Format.JPEG, ImageEncoder.DEFAULT_JPEG_QUALITY).encode(rotated, output);
+            if (result == null) {
+                throw new IOException("encode failed");
+            }
+            byte[] data = new byte[result.remaining()];
+            result.get(data);
+            return data;
+        } finally {
+            output.recycle();
+            BitmapPool.getInstance().put(source);
+            if (rotated != source) {
+                BitmapPool.getInstance().put(rotated);
+            }
+        }
+    }
+
     /**
      * 保存bitmap图片
+     * <p>按文件扩展名选择编码格式，直接写入文件
      *
      * @param bitmap
      * @param outFile
@@ -82,10 +316,23 @@ public class BitmapUtil {
      */
     public static boolean save(Bitmap bitmap, String outFile)
             throws IOException {
+        return save(bitmap, outFile, ImageEncoder.forFile(outFile));
+    }
+
+    /**
+     * 按指定编码器保存bitmap图片
+     *
+     * @param bitmap
+     * @param outFile
+     * @param encoder 编码器
+     * @return
+     * @throws IOException
+     */
+    public static boolean save(Bitmap bitmap, String outFile, ImageEncoder encoder)
+            throws IOException {
         if (TextUtils.isEmpty(outFile) || bitmap == null)
             return false;
-        byte[] data = bitmap2byte(bitmap);
-        return save(data, outFile);
+        return encoder.encode(bitmap, outFile);
     }
 
     /**
@@ -98,20 +345,102 @@ public class BitmapUtil {
      */
     public static boolean save(byte[] bitmapBytes, String outFile)
             throws IOException {
-        FileOutputStream output = null;
-        FileChannel channel = null;
-        try {
-            new File(outFile).delete();
-            FileUtil.createFile(outFile);
-            output = new FileOutputStream(outFile);
-            channel = output.getChannel();
-            ByteBuffer buffer = ByteBuffer.wrap(bitmapBytes);
-            channel.write(buffer);
-            return true;
-        } finally {
-            IOUtil.close(channel);
-            IOUtil.close(output);
+        return FileUtil.writeFileAtomic(new File(outFile), bitmapBytes);
+    }
+
+    /**
+     * 直接保存相机输出的JPEG，不解码像素
+     * <p>旋转角度只写入EXIF方向标签
+     *
+     * @param jpeg    JPEG字节
+     * @param degrees 顺时针旋转角度
+     * @param outFile
+     * @return
+     * @throws IOException
+     */
+    public static boolean saveJpeg(byte[] jpeg, int degrees, String outFile)
+            throws IOException {
+        return saveJpeg(ByteBuffer.wrap(jpeg), degrees, outFile);
+    }
+
+    /**
+     * 直接保存相机输出的JPEG，不解码像素
+     * <p>旋转角度只写入EXIF方向标签，文件头与原数据一次聚集写入
+     *
+     * @param jpeg    JPEG数据，从position写到limit，不改变其position
+     * @param degrees 顺时针旋转角度
+     * @param outFile
+     * @return
+     * @throws IOException
+     */
+    public static boolean saveJpeg(ByteBuffer jpeg, int degrees, String outFile)
+            throws IOException {
+        return saveJpeg(jpeg, degrees, outFile, false, null);
+    }
+
+    /**
+     * 直接保存相机输出的JPEG，可以选择异步组提交
+     *
+     * @param jpeg     JPEG数据，从position写到limit，不改变其position
+     * @param degrees  顺时针旋转角度
+     * @param outFile
+     * @param async    为true时写完临时文件即返回，文件在组提交后才出现在outFile，见{@link DurableWriter#writeAsync}
+     * @param callback 异步提交结果，可以为null
+     * @return
+     * @throws IOException
+     */
+    public static boolean saveJpeg(ByteBuffer jpeg, int degrees, String outFile, boolean async,
+                                   DurableWriter.CommitCallback callback) throws IOException {
+        if (TextUtils.isEmpty(outFile) || jpeg == null)
+            return false;
+        ExifUtil.Splice splice = ExifUtil.orientationSplice(jpeg, ExifUtil.degreesToOrientation(degrees));
+        ByteBuffer body = jpeg.duplicate();
+        body.position(jpeg.position() + splice.skip);
+        final ByteBuffer[] buffers = {ByteBuffer.wrap(splice.header), body};
+        DurableWriter.WriteTask task = new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                FileChannel channel = out.getChannel();
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                return true;
+            }
+        };
+        if (async) {
+            return DurableWriter.getInstance().writeAsync(new File(outFile), task, callback);
+        }
+        return DurableWriter.getInstance().write(new File(outFile), task);
+    }
+
+    /**
+     * 无损旋转相机JPEG并以渐进式JPEG边编码边写入文件
+     * <p>写入第一个字节之前先通过listener发布DC扫描组成的1/8预览。
+     * 不是基线JPEG时退回{@link #rotateJpeg}后整体写入，不发布预览
+     *
+     * @param jpeg     JPEG数据
+     * @param degrees  顺时针旋转角度
+     * @param mirror   旋转后是否水平镜像
+     * @param outFile
+     * @param listener 进度回调，在当前线程中执行，可以为null
+     * @return
+     * @throws IOException
+     */
+    public static boolean saveJpegProgressive(final byte[] jpeg, final int degrees, final boolean mirror,
+                                              String outFile, final JpegTransform.ProgressListener listener)
+            throws IOException {
+        if (TextUtils.isEmpty(outFile) || jpeg == null)
+            return false;
+        if (!JpegTransform.isBaseline(jpeg)) {
+            return save(rotateJpeg(jpeg, degrees, mirror), outFile);
         }
+        return DurableWriter.getInstance().write(new File(outFile), new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                JpegTransform.transformProgressive(jpeg, JpegTransform.forRotation(degrees, mirror), out, listener);
+                return true;
+            }
+        });
     }
 
     /**
@@ -135,52 +464,75 @@ public class BitmapUtil {
     }
 
     /**
-     * 获取压缩图片
+     * 获取压缩后的JPEG数据
      *
      * @param srcPath
      * @param width
      * @param height
      * @return
      */
-    private Bitmap compressImage(String srcPath, float width, float height) {
-        BitmapFactory.Options options = new BitmapFactory.Options();
+    private byte[] compressImage(String srcPath, float width, float height) {
         //只获取图片信息
-        options.inJustDecodeBounds = true;
-        Bitmap bitmap = BitmapFactory.decodeFile(srcPath, options);
-
-        options.inJustDecodeBounds = false;
-        int scaleWidth = (int) (options.outWidth / width);
-        int scaleHeight = (int) (options.outHeight / height);
-        //获取较大的压缩比
-        int scale = scaleWidth > scaleHeight ? scaleWidth : scaleHeight;
-        scale = scale <= 0 ? 1 : scale;
+        ImageHeaderParser.Header header = DecodeCache.getInstance().getHeader(srcPath);
+        if (header == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = header.width;
+        options.outHeight = header.height;
+        //获取较大的压缩比，按浮点计算，取不超过该比例的2的幂
+        float ratio = Math.max(options.outWidth / width, options.outHeight / height);
+        int scale = 1;
+        while (scale * 2 <= ratio) {
+            scale *= 2;
+        }
         options.inSampleSize = scale;
-        bitmap = BitmapFactory.decodeFile(srcPath, options);
-        return compressImage(bitmap);//大小压缩完后进行质量压缩
+        setInBitmap(options);
+        Bitmap bitmap = decodeFile(srcPath, options);
+        if (bitmap == null) {
+            return null;
+        }
+        //大小压缩完后进行质量压缩
+        byte[] data = compressToSize(bitmap, 100 * 1024);
+        BitmapPool.getInstance().put(bitmap);
+        return data;
     }
 
     /**
-     * 质量压缩图片
+     * 质量压缩图片，返回不超过100K的Bitmap
+     * <p>只需要压缩后的数据时用{@link #compressToSize(Bitmap, int)}，避免再解码一次
      *
      * @param bitmap
      * @return
      */
     public static Bitmap compressImage(Bitmap bitmap) {
-        //图片质量
-        int options = 100;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        //质量压缩方法，这里100表示不压缩，把压缩后的数据存放到baos中
-        bitmap.compress(Bitmap.CompressFormat.JPEG, options, baos);
-        while (baos.toByteArray().length / 1024 > 100) {//如果图片大于100k，进行压缩
-            //清空baos
-            baos.reset();
-            options -= 10;
-            bitmap.compress(Bitmap.CompressFormat.JPEG, options, baos);
-        }
-        //压缩后的数据存放在bais中
-        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
-        //生成图片
-        Bitmap resultBmp = BitmapFactory.decodeStream(bais, null, null);
-        return resultBmp;
+        byte[] data = compressToSize(bitmap, 100 * 1024);
+        if (data == null) {
+            return null;
+        }
+        return decodeByteArray(data);
+    }
+
+    /**
+     * 按大小质量压缩为JPEG
+     * <p>二分查找质量，最多编码{@link ImageEncoder#MAX_SIZE_PASSES}次
+     *
+     * @param bitmap
+     * @param maxBytes 字节预算
+     * @return JPEG数据，最低质量仍超出预算时返回最低质量的结果，编码失败返回null
+     */
+    public static byte[] compressToSize(Bitmap bitmap, int maxBytes) {
+        ByteBufferOutputStream output = ByteBufferOutputStream.obtain(maxBytes);
+        try {
+            ByteBuffer result = ImageEncoder.encodeToSize(bitmap, ImageEncoder.Format.JPEG, maxBytes, output);
+            if (result == null) {
+                return null;
+            }
+            byte[] data = new byte[result.remaining()];
+            result.get(data);
+            return data;
+        } finally {
+            output.recycle();
+        }
     }
 }
@@ -0,0 +1,88 @@
+package com.sjl.camera.util;
+
+/**
+ * 流复制用的字节缓冲池
+ * <p>每个线程保留一个缓冲，按设备内存和数据长度选择大小，只增不减。
+ * 同一线程嵌套使用时第二个调用方拿到新分配的缓冲，不会互相覆盖
+ */
+public final class BufferPool {
+    /**
+     * 最小缓冲，小于它时系统调用次数已经不是瓶颈
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    /**
+     * 设备允许的最大缓冲，由最大堆内存决定
+     */
+    public static final int MAX_BUFFER_SIZE = maxBufferSize(Runtime.getRuntime().maxMemory());
+
+    private static class Holder {
+        byte[] buffer;
+        boolean inUse;
+    }
+
+    private static final ThreadLocal<Holder> HOLDER = new ThreadLocal<Holder>() {
+        @Override
+        protected Holder initialValue() {
+            return new Holder();
+        }
+    };
+
+    private BufferPool() {
+    }
+
+    /**
+     * 取当前线程的缓冲，用完必须调用{@link #release(byte[])}
+     *
+     * @param length 将要复制的字节数，未知时传-1
+     * @return 长度不小于{@link #bufferSize(long)}的缓冲，内容未清空
+     */
+    public static byte[] obtain(long length) {
+        int size = bufferSize(length);
+        Holder holder = HOLDER.get();
+        if (holder.inUse) {
+            return new byte[size];
+        }
+        if (holder.buffer == null || holder.buffer.length < size) {
+            holder.buffer = new byte[size];
+        }
+        holder.inUse = true;
+        return holder.buffer;
+    }
+
+    /**
+     * 归还{@link #obtain(long)}取得的缓冲
+     *
+     * @param buffer
+     */
+    public static void release(byte[] buffer) {
+        Holder holder = HOLDER.get();
+        if (holder.buffer == buffer) {
+            holder.inUse = false;
+        }
+    }
+
+    /**
+     * 按数据长度选择缓冲大小：不超过数据长度向上取的2的幂，限制在[{@link #MIN_BUFFER_SIZE}, {@link #MAX_BUFFER_SIZE}]
+     *
+     * @param length 数据长度，未知时传-1，返回最大缓冲
+     * @return
+     */
+    public static int bufferSize(long length) {
+        if (length < 0 || length >= MAX_BUFFER_SIZE) {
+            return MAX_BUFFER_SIZE;
+        }
+        if (length <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        return Integer.highestOneBit((int) length - 1) << 1;
+    }
+
+    static int maxBufferSize(long maxMemory) {
+        if (maxMemory >= 256L * 1024 * 1024) {
+            return 128 * 1024;
+        } else if (maxMemory >= 96L * 1024 * 1024) {
+            return 64 * 1024;
+        }
+        return 16 * 1024;
+    }
+}
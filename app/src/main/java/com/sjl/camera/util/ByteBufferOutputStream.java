@@ -0,0 +1,123 @@
+package com.sjl.camera.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 写入直接内存ByteBuffer的输出流
+ * <p>可通过{@link #obtain(int)}/{@link #recycle()}复用，避免每次编码都分配大块堆内存。
+ * 池中缓冲的总容量有上限，偶尔扩容得很大的输出流回收时直接丢弃，不会一直占着直接内存
+ */
+public class ByteBufferOutputStream extends OutputStream {
+    private static final int MAX_POOL_SIZE = 4;
+    /**
+     * 池中缓冲的总容量上限
+     */
+    private static final long MAX_POOL_BYTES = 16 * 1024 * 1024;
+    private static long pooledBytes;
+    private static final ArrayDeque<ByteBufferOutputStream> POOL = new ArrayDeque<ByteBufferOutputStream>(MAX_POOL_SIZE);
+
+    private ByteBuffer buffer;
+
+    public ByteBufferOutputStream(int capacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(capacity, 64));
+    }
+
+    /**
+     * 从池中取一个输出流，容量不够时扩容
+     *
+     * @param minCapacity 预计写入的字节数
+     * @return 已清空的输出流
+     */
+    public static ByteBufferOutputStream obtain(int minCapacity) {
+        ByteBufferOutputStream stream;
+        synchronized (POOL) {
+            stream = POOL.poll();
+            if (stream != null) {
+                pooledBytes -= stream.buffer.capacity();
+            }
+        }
+        if (stream == null) {
+            return new ByteBufferOutputStream(minCapacity);
+        }
+        stream.reset();
+        stream.ensureCapacity(minCapacity);
+        return stream;
+    }
+
+    /**
+     * 放回池中，之后不能再使用；池已满或放不下这块缓冲时丢弃
+     */
+    public void recycle() {
+        int capacity = buffer.capacity();
+        synchronized (POOL) {
+            if (POOL.size() < MAX_POOL_SIZE && pooledBytes + capacity <= MAX_POOL_BYTES) {
+                POOL.offer(this);
+                pooledBytes += capacity;
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(buffer.position() + 1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(buffer.position() + len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * 清空已写入的数据，保留已分配的内存
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * 已写入的字节数
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * 已写入数据的只读视图，[0, size)
+     */
+    public ByteBuffer getBuffer() {
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * 把已写入的数据全部写到通道
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        view.flip();
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= buffer.capacity()) {
+            return;
+        }
+        int capacity = Math.max(buffer.capacity() << 1, minCapacity);
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
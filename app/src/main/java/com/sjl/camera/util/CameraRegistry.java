@@ -0,0 +1,181 @@
+package com.sjl.camera.util;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+import android.view.SurfaceHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Camera2摄像头能力缓存
+ * <p>进程内只枚举一次摄像头，缓存朝向、传感器方向、输出尺寸和帧间隔，
+ * 打开和切换摄像头时不再重复跨进程查询CameraCharacteristics
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CameraRegistry {
+    private static final String TAG = "CameraRegistry";
+    private static CameraRegistry instance;
+
+    /**
+     * 单个摄像头的能力
+     */
+    public static class CameraInfo {
+        /**
+         * 摄像头id，用于CameraManager.openCamera
+         */
+        public final String id;
+        /**
+         * CameraCharacteristics.LENS_FACING_*
+         */
+        public final int facing;
+        /**
+         * 传感器顺时针方向角度
+         */
+        public final int sensorOrientation;
+        /**
+         * JPEG输出尺寸及最小帧间隔
+         */
+        public final List<SizeSelector.Option> jpegSizes;
+        /**
+         * 预览(SurfaceHolder)输出尺寸及最小帧间隔
+         */
+        public final List<SizeSelector.Option> previewSizes;
+
+        CameraInfo(String id, int facing, int sensorOrientation,
+                   List<SizeSelector.Option> jpegSizes, List<SizeSelector.Option> previewSizes) {
+            this.id = id;
+            this.facing = facing;
+            this.sensorOrientation = sensorOrientation;
+            this.jpegSizes = Collections.unmodifiableList(jpegSizes);
+            this.previewSizes = Collections.unmodifiableList(previewSizes);
+        }
+    }
+
+    private final CameraManager cameraManager;
+    private List<CameraInfo> cameras;
+    //后台枚举已开始，避免重复启动线程
+    private boolean preloading;
+
+    private CameraRegistry(Context context) {
+        cameraManager = (CameraManager) context.getApplicationContext().getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    public static synchronized CameraRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new CameraRegistry(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 在后台线程中枚举摄像头，之后的查询直接读缓存；已缓存或正在枚举时直接返回
+     */
+    public synchronized void preload() {
+        if (cameras != null || preloading) {
+            return;
+        }
+        preloading = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                getCameras();
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * 所有摄像头，首次调用时枚举；后台枚举未完成时等待其完成
+     *
+     * @return 摄像头列表，枚举失败时为空列表，不缓存，下次调用重新枚举
+     */
+    public synchronized List<CameraInfo> getCameras() {
+        if (cameras == null) {
+            List<CameraInfo> list = load();
+            preloading = false;
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            cameras = list;
+        }
+        return cameras;
+    }
+
+    /**
+     * 按id查找摄像头
+     *
+     * @param id
+     * @return 没有时返回null
+     */
+    public CameraInfo getCamera(String id) {
+        for (CameraInfo info : getCameras()) {
+            if (info.id.equals(id)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按朝向查找摄像头，有多个时取第一个
+     *
+     * @param facing CameraCharacteristics.LENS_FACING_*
+     * @return 没有时返回null
+     */
+    public CameraInfo findByFacing(int facing) {
+        for (CameraInfo info : getCameras()) {
+            if (info.facing == facing) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 枚举失败时返回null
+     */
+    private List<CameraInfo> load() {
+        List<CameraInfo> list = new ArrayList<CameraInfo>();
+        try {
+            for (String id : cameraManager.getCameraIdList()) {
+                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(id);
+                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                if (map == null || facing == null) {
+                    continue;
+                }
+                List<SizeSelector.Option> jpegSizes = new ArrayList<SizeSelector.Option>();
+                Size[] sizes = map.getOutputSizes(ImageFormat.JPEG);
+                if (sizes != null) {
+                    for (Size size : sizes) {
+                        jpegSizes.add(new SizeSelector.Option(size.getWidth(), size.getHeight(), map.getOutputMinFrameDuration(ImageFormat.JPEG, size)));
+                    }
+                }
+                List<SizeSelector.Option> previewSizes = new ArrayList<SizeSelector.Option>();
+                sizes = map.getOutputSizes(SurfaceHolder.class);
+                if (sizes != null) {
+                    for (Size size : sizes) {
+                        previewSizes.add(new SizeSelector.Option(size.getWidth(), size.getHeight(), map.getOutputMinFrameDuration(SurfaceHolder.class, size)));
+                    }
+                }
+                list.add(new CameraInfo(id, facing, orientation == null ? 0 : orientation, jpegSizes, previewSizes));
+            }
+        } catch (CameraAccessException e) {
+            //相机服务暂时不可用或被禁用，只列出部分摄像头时也不缓存
+            e.printStackTrace();
+            return null;
+        }
+        Log.i(TAG, "cameras=" + list.size());
+        return Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,86 @@
+package com.sjl.camera.util;
+
+/**
+ * 连拍统计
+ * <p>统计每秒拍摄张数和丢帧数，线程安全
+ */
+public class CaptureStats {
+    private static final long WINDOW_NANOS = 1000000000L;
+
+    private long startNanos;
+    private long windowStartNanos;
+    private int windowShots;
+    private int totalShots;
+    private int droppedFrames;
+    private float shotsPerSecond;
+
+    public CaptureStats() {
+        reset();
+    }
+
+    /**
+     * 清空统计，开始新一轮连拍时调用
+     */
+    public synchronized void reset() {
+        startNanos = System.nanoTime();
+        windowStartNanos = startNanos;
+        windowShots = 0;
+        totalShots = 0;
+        droppedFrames = 0;
+        shotsPerSecond = 0;
+    }
+
+    /**
+     * 记录收到一张照片
+     *
+     * @return 统计窗口结束(约每秒一次)时返回true，可用来刷新界面
+     */
+    public synchronized boolean onShot() {
+        totalShots++;
+        windowShots++;
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= WINDOW_NANOS) {
+            shotsPerSecond = windowShots * (float) WINDOW_NANOS / elapsed;
+            windowShots = 0;
+            windowStartNanos = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录丢失一帧
+     */
+    public synchronized void onDropped() {
+        droppedFrames++;
+    }
+
+    /**
+     * 最近一个统计窗口的每秒拍摄张数
+     */
+    public synchronized float getShotsPerSecond() {
+        return shotsPerSecond;
+    }
+
+    /**
+     * 从开始到现在的平均每秒拍摄张数
+     */
+    public synchronized float getAverageShotsPerSecond() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0 : totalShots * (float) WINDOW_NANOS / elapsed;
+    }
+
+    public synchronized int getTotalShots() {
+        return totalShots;
+    }
+
+    public synchronized int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%.1f fps, %d shots, %d dropped", shotsPerSecond, totalShots, droppedFrames);
+    }
+}
@@ -0,0 +1,256 @@
+package com.sjl.camera.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 解码缓存
+ * <p>两级：按字节数淘汰的内存Bitmap缓存，以及可持久化的图片头信息缓存(宽高、EXIF方向、MIME类型、拍摄时间)。
+ * 缓存键包含文件长度和修改时间，文件被覆盖后自动失效
+ */
+public class DecodeCache {
+    /**
+     * 头信息缓存的最大条目数
+     */
+    private static final int MAX_HEADERS = 2048;
+    private static final int HEADER_FILE_VERSION = 2;
+
+    private static DecodeCache instance;
+
+    private static class HeaderEntry {
+        final long length;
+        final long lastModified;
+        final ImageHeaderParser.Header header;
+
+        HeaderEntry(long length, long lastModified, ImageHeaderParser.Header header) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.header = header;
+        }
+    }
+
+    private final LruCache<String, Bitmap> bitmaps;
+    //按访问顺序排列，超出条目数时淘汰最久未用的
+    private final LinkedHashMap<String, HeaderEntry> headers = new LinkedHashMap<String, HeaderEntry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HeaderEntry> eldest) {
+            return size() > MAX_HEADERS;
+        }
+    };
+    private File headerFile;
+    private boolean headersLoaded;
+    private boolean headersDirty;
+    private int headerHits;
+    private int headerMisses;
+
+    /**
+     * @param maxBitmapBytes 内存Bitmap缓存的字节数上限
+     */
+    public DecodeCache(long maxBitmapBytes) {
+        bitmaps = new LruCache<String, Bitmap>((int) Math.min(Integer.MAX_VALUE, maxBitmapBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * 进程共享的缓存，Bitmap预算为最大堆内存的1/8
+     */
+    public static synchronized DecodeCache getInstance() {
+        if (instance == null) {
+            instance = new DecodeCache(Runtime.getRuntime().maxMemory() / 8);
+        }
+        return instance;
+    }
+
+    /**
+     * 设置头信息的持久化文件，第一次查询时加载
+     *
+     * @param file 一般位于应用的缓存目录
+     */
+    public synchronized void setHeaderFile(File file) {
+        if (file != null && file.equals(headerFile)) {
+            return;
+        }
+        headerFile = file;
+        headersLoaded = false;
+    }
+
+    /**
+     * 按目标尺寸解码文件，结果在内存中缓存
+     * <p>返回的Bitmap由缓存共享，调用方不能修改，也不能放回{@link BitmapPool}
+     *
+     * @param filePath  文件路径
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return 解码失败返回null
+     */
+    public Bitmap getBitmap(String filePath, int reqWidth, int reqHeight) {
+        File file = new File(filePath);
+        String key = filePath + '|' + file.length() + '|' + file.lastModified() + '|' + reqWidth + 'x' + reqHeight;
+        Bitmap bitmap = bitmaps.get(key);
+        if (bitmap != null && !bitmap.isRecycled()) {
+            return bitmap;
+        }
+        bitmap = BitmapUtil.decodeSampledBitmapFromFilePath(filePath, reqWidth, reqHeight);
+        if (bitmap != null) {
+            bitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 查询图片头信息，缓存未命中或文件已变化时重新读取
+     *
+     * @param filePath 文件路径
+     * @return 文件不存在或无法识别时返回null
+     */
+    public ImageHeaderParser.Header getHeader(String filePath) {
+        File file = new File(filePath);
+        long length = file.length();
+        long lastModified = file.lastModified();
+        if (length <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            loadHeaders();
+            HeaderEntry entry = headers.get(filePath);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                headerHits++;
+                return entry.header;
+            }
+            headerMisses++;
+        }
+        ImageHeaderParser.Header header = readHeader(filePath);
+        if (header == null) {
+            return null;
+        }
+        synchronized (this) {
+            headers.put(filePath, new HeaderEntry(length, lastModified, header));
+            headersDirty = true;
+        }
+        return header;
+    }
+
+    /**
+     * 清空内存Bitmap缓存，头信息保留
+     */
+    public void trimMemory() {
+        bitmaps.evictAll();
+    }
+
+    /**
+     * 有变化时把头信息写入持久化文件
+     */
+    public synchronized void saveHeaders() {
+        if (headerFile == null || !headersDirty) {
+            return;
+        }
+        DataOutputStream output = null;
+        try {
+            FileUtil.makeDirs(headerFile.getParentFile());
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(headerFile)));
+            output.writeInt(HEADER_FILE_VERSION);
+            output.writeInt(headers.size());
+            for (Map.Entry<String, HeaderEntry> item : headers.entrySet()) {
+                HeaderEntry entry = item.getValue();
+                output.writeUTF(item.getKey());
+                output.writeLong(entry.length);
+                output.writeLong(entry.lastModified);
+                output.writeInt(entry.header.width);
+                output.writeInt(entry.header.height);
+                output.writeByte(entry.header.orientation);
+                output.writeUTF(entry.header.mimeType == null ? "" : entry.header.mimeType);
+                output.writeLong(entry.header.dateTaken);
+            }
+            headersDirty = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtil.close(output);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DecodeCache{bitmaps=" + bitmaps.size() + "B/" + bitmaps.maxSize() + "B, bitmapHits=" + bitmaps.hitCount()
+                + ", bitmapMisses=" + bitmaps.missCount() + ", headers=" + headers.size() + ", headerHits=" + headerHits
+                + ", headerMisses=" + headerMisses + '}';
+    }
+
+    private void loadHeaders() {
+        if (headersLoaded) {
+            return;
+        }
+        headersLoaded = true;
+        if (headerFile == null || !headerFile.isFile()) {
+            return;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(headerFile)));
+            if (input.readInt() != HEADER_FILE_VERSION) {
+                return;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long length = input.readLong();
+                long lastModified = input.readLong();
+                int width = input.readInt();
+                int height = input.readInt();
+                int orientation = input.readByte();
+                String mimeType = input.readUTF();
+                long dateTaken = input.readLong();
+                //内存中已有的更新
+                if (!headers.containsKey(path)) {
+                    headers.put(path, new HeaderEntry(length, lastModified,
+                            new ImageHeaderParser.Header(width, height, orientation,
+                                    mimeType.length() == 0 ? null : mimeType, dateTaken)));
+                }
+            }
+        } catch (IOException e) {
+            //文件损坏时丢弃，之后重新生成
+            e.printStackTrace();
+        } finally {
+            IOUtil.close(input);
+        }
+    }
+
+    /**
+     * 用{@link ImageHeaderParser}读取，其他格式退回BitmapFactory只读取宽高
+     */
+    static ImageHeaderParser.Header readHeader(String filePath) {
+        try {
+            ImageHeaderParser.Header header = ImageHeaderParser.parse(filePath);
+            if (header != null && header.width > 0 && header.height > 0) {
+                return header;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        return new ImageHeaderParser.Header(options.outWidth, options.outHeight, ExifUtil.ORIENTATION_NORMAL,
+                options.outMimeType, -1);
+    }
+}
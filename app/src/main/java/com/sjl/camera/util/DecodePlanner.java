@@ -0,0 +1,250 @@
+package com.sjl.camera.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.io.IOException;
+
+/**
+ * 解码规划
+ * <p>先选最优的2的幂采样率，再精确缩放到目标尺寸。
+ * 采样后仍然过大的图片(如全景图)按块用{@link BitmapRegionDecoder}并行解码，
+ * 内存只与目标尺寸和块大小有关，与原图大小无关
+ */
+public class DecodePlanner {
+    /**
+     * 超过该像素数的原图直接分块解码
+     */
+    public static final long LARGE_IMAGE_PIXELS = 40000000L;
+    /**
+     * 分块时每块在目标图中的边长
+     */
+    public static final int TILE_SIZE = 512;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * 解码方案
+     */
+    public static class Plan {
+        public final int srcWidth;
+        public final int srcHeight;
+        /**
+         * 2的幂采样率
+         */
+        public final int sampleSize;
+        public final int targetWidth;
+        public final int targetHeight;
+        /**
+         * 是否分块解码
+         */
+        public final boolean tiled;
+
+        Plan(int srcWidth, int srcHeight, int sampleSize, int targetWidth, int targetHeight, boolean tiled) {
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.sampleSize = sampleSize;
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+            this.tiled = tiled;
+        }
+
+        /**
+         * 整图采样解码后的像素数
+         */
+        public long getSampledPixels() {
+            long width = (srcWidth + sampleSize - 1) / sampleSize;
+            long height = (srcHeight + sampleSize - 1) / sampleSize;
+            return width * height;
+        }
+
+        @Override
+        public String toString() {
+            return srcWidth + "x" + srcHeight + " /" + sampleSize + " -> " + targetWidth + "x" + targetHeight
+                    + (tiled ? " tiled" : "");
+        }
+    }
+
+    private DecodePlanner() {
+    }
+
+    /**
+     * 采样后宽高仍都不小于目标宽高的最大2的幂采样率
+     *
+     * @param width     原图宽
+     * @param height    原图高
+     * @param reqWidth  目标宽
+     * @param reqHeight 目标高
+     * @return
+     */
+    public static int powerOfTwoSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 计算解码方案
+     * <p>目标尺寸保持宽高比，宽高都不小于请求的宽高，不放大
+     *
+     * @param srcWidth  原图宽
+     * @param srcHeight 原图高
+     * @param reqWidth  请求宽
+     * @param reqHeight 请求高
+     * @param maxBytes  整图解码允许的最大内存，超过时分块解码
+     * @return
+     */
+    public static Plan plan(int srcWidth, int srcHeight, int reqWidth, int reqHeight, long maxBytes) {
+        if (srcWidth <= 0 || srcHeight <= 0)
+            throw new IllegalArgumentException("invalid source size " + srcWidth + "x" + srcHeight);
+        double scale = Math.max((double) reqWidth / srcWidth, (double) reqHeight / srcHeight);
+        if (scale <= 0 || scale > 1) {
+            scale = 1;
+        }
+        int targetWidth = Math.max(1, Math.min(srcWidth, (int) Math.round(srcWidth * scale)));
+        int targetHeight = Math.max(1, Math.min(srcHeight, (int) Math.round(srcHeight * scale)));
+        int sampleSize = powerOfTwoSampleSize(srcWidth, srcHeight, targetWidth, targetHeight);
+        Plan plan = new Plan(srcWidth, srcHeight, sampleSize, targetWidth, targetHeight, false);
+        boolean tiled = (long) srcWidth * srcHeight >= LARGE_IMAGE_PIXELS
+                || plan.getSampledPixels() * BYTES_PER_PIXEL > maxBytes;
+        if (!tiled) {
+            return plan;
+        }
+        return new Plan(srcWidth, srcHeight, sampleSize, targetWidth, targetHeight, true);
+    }
+
+    /**
+     * 默认内存上限：最大堆内存的1/8
+     */
+    public static long getDefaultMaxBytes() {
+        return Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * 按方案把文件解码成精确的目标尺寸
+     *
+     * @param filePath  文件路径
+     * @param reqWidth  请求宽
+     * @param reqHeight 请求高
+     * @return 解码失败返回null
+     * @throws IOException 分块解码时无法打开文件
+     */
+    public static Bitmap decodeFile(String filePath, int reqWidth, int reqHeight) throws IOException {
+        ImageHeaderParser.Header header = DecodeCache.getInstance().getHeader(filePath);
+        if (header == null) {
+            return null;
+        }
+        Plan plan = plan(header.width, header.height, reqWidth, reqHeight, getDefaultMaxBytes());
+        return decodeFile(filePath, plan);
+    }
+
+    /**
+     * 按方案把文件解码成精确的目标尺寸
+     *
+     * @param filePath 文件路径
+     * @param plan     解码方案
+     * @return 解码失败返回null
+     * @throws IOException 分块解码时无法打开文件
+     */
+    public static Bitmap decodeFile(String filePath, Plan plan) throws IOException {
+        if (plan.tiled) {
+            return decodeTiled(filePath, plan);
+        }
+        Bitmap sampled = BitmapUtil.decodeFile(filePath, plan.sampleSize);
+        if (sampled == null) {
+            return null;
+        }
+        if (sampled.getWidth() == plan.targetWidth && sampled.getHeight() == plan.targetHeight) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, plan.targetWidth, plan.targetHeight, true);
+        BitmapPool.getInstance().put(sampled);
+        return scaled;
+    }
+
+    /**
+     * 分块并行解码，每个线程使用自己的BitmapRegionDecoder并行解码块，
+     * 绘制到目标图时按目标图加锁，Canvas不保证多个线程同时写同一个Bitmap是安全的
+     *
+     * @param filePath 文件路径
+     * @param plan     解码方案
+     * @return
+     * @throws IOException
+     */
+    public static Bitmap decodeTiled(final String filePath, final Plan plan) throws IOException {
+        final Bitmap target = BitmapPool.getInstance().obtain(plan.targetWidth, plan.targetHeight, Bitmap.Config.ARGB_8888);
+        final int columns = (plan.targetWidth + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (plan.targetHeight + TILE_SIZE - 1) / TILE_SIZE;
+        try {
+            ParallelUtil.forEachBand(columns * rows, 1, new ParallelUtil.BandTask() {
+                @Override
+                public void run(int start, int end) {
+                    BitmapRegionDecoder decoder;
+                    try {
+                        decoder = BitmapRegionDecoder.newInstance(filePath, false);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    try {
+                        Canvas canvas = new Canvas(target);
+                        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+                        for (int i = start; i < end; i++) {
+                            drawTile(decoder, plan, target, canvas, paint, i % columns, i / columns);
+                        }
+                    } finally {
+                        decoder.recycle();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            BitmapPool.getInstance().put(target);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        return target;
+    }
+
+    private static void drawTile(BitmapRegionDecoder decoder, Plan plan, Bitmap target, Canvas canvas, Paint paint,
+                                 int column, int row) {
+        double scaleX = (double) plan.targetWidth / plan.srcWidth;
+        double scaleY = (double) plan.targetHeight / plan.srcHeight;
+        Rect dst = new Rect(column * TILE_SIZE, row * TILE_SIZE,
+                Math.min(plan.targetWidth, (column + 1) * TILE_SIZE), Math.min(plan.targetHeight, (row + 1) * TILE_SIZE));
+        //源区域四周多解码几个像素，缩放滤波时块边缘不留接缝
+        int margin = plan.sampleSize * 2;
+        Rect src = new Rect(
+                Math.max(0, (int) Math.floor(dst.left / scaleX) - margin),
+                Math.max(0, (int) Math.floor(dst.top / scaleY) - margin),
+                Math.min(plan.srcWidth, (int) Math.ceil(dst.right / scaleX) + margin),
+                Math.min(plan.srcHeight, (int) Math.ceil(dst.bottom / scaleY) + margin));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = plan.sampleSize;
+        Bitmap tile = decoder.decodeRegion(src, options);
+        if (tile == null) {
+            return;
+        }
+        //块像素 -> 原图坐标 -> 目标图坐标
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) src.width() / tile.getWidth(), (float) src.height() / tile.getHeight());
+        matrix.postTranslate(src.left, src.top);
+        matrix.postScale((float) scaleX, (float) scaleY);
+        synchronized (target) {
+            canvas.save();
+            canvas.clipRect(dst);
+            canvas.drawBitmap(tile, matrix, paint);
+            canvas.restore();
+        }
+        tile.recycle();
+    }
+}
@@ -0,0 +1,418 @@
+package com.sjl.camera.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 原子写文件
+ * <p>先写同目录下的临时文件，落盘后再改名为目标文件，进程崩溃、断电或写入出错时目标路径上
+ * 要么是完整的新文件，要么是原来的文件。落盘(fsync)的时机由{@link Durability}决定。
+ * Java无法对目录fsync，改名本身依赖文件系统日志保证
+ */
+public class DurableWriter {
+    /**
+     * 落盘策略
+     */
+    public enum Durability {
+        /**
+         * 不主动落盘，由系统回写，吞吐量最高；断电时改名可能先于数据落盘
+         */
+        NONE,
+        /**
+         * 组提交：写完的临时文件交给提交线程，在提交窗口内攒成一批，依次落盘后再逐个改名。
+         * 连拍时保存线程不等待落盘，见{@link #writeAsync}
+         */
+        BATCHED,
+        /**
+         * 每个文件由写入线程单独落盘后改名
+         */
+        ALWAYS
+    }
+
+    /**
+     * 写入回调
+     */
+    public interface WriteTask {
+        /**
+         * 把内容写入临时文件
+         *
+         * @param out 临时文件的输出流，不要关闭
+         * @return 写入失败返回false，临时文件被删除
+         * @throws IOException
+         */
+        boolean write(FileOutputStream out) throws IOException;
+    }
+
+    /**
+     * 异步写入的提交结果
+     */
+    public interface CommitCallback {
+        /**
+         * 文件已落盘并出现在目标路径上
+         */
+        void onCommitted(File target);
+
+        /**
+         * 落盘或改名失败，目标文件保持原样
+         */
+        void onFailed(File target, IOException e);
+    }
+
+    private static final String TAG = "DurableWriter";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /**
+     * 默认提交窗口，一批中第一个文件最多等待的时间
+     */
+    public static final long DEFAULT_BATCH_WINDOW_MS = 50;
+    /**
+     * 默认每批最多的文件数，攒够后不等窗口结束
+     */
+    public static final int DEFAULT_MAX_BATCH = 16;
+
+    private static DurableWriter instance;
+
+    /**
+     * 等待组提交的文件
+     */
+    private static class PendingWrite {
+        final File temp;
+        final File target;
+        final FileOutputStream out;
+        final CommitCallback callback;
+        //阻塞调用方在等待这个文件提交
+        final boolean blocking;
+        final long queuedAt = System.nanoTime();
+        IOException error;
+        boolean done;
+
+        PendingWrite(File temp, File target, FileOutputStream out, CommitCallback callback, boolean blocking) {
+            this.temp = temp;
+            this.target = target;
+            this.out = out;
+            this.callback = callback;
+            this.blocking = blocking;
+        }
+    }
+
+    private volatile Durability durability = Durability.BATCHED;
+    private long batchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+    private int maxBatch = DEFAULT_MAX_BATCH;
+    private final List<PendingWrite> pending = new ArrayList<PendingWrite>();
+    //正在写临时文件、之后会加入组提交的线程数
+    private int writing;
+    private boolean committing;
+    private Thread committer;
+    private int syncs;
+    private int batches;
+
+    /**
+     * 进程共享的实例，默认{@link Durability#BATCHED}
+     */
+    public static synchronized DurableWriter getInstance() {
+        if (instance == null) {
+            instance = new DurableWriter();
+        }
+        return instance;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * 设置组提交窗口
+     *
+     * @param windowMs 一批中第一个文件最多等待的毫秒数，为0时不等待
+     * @param maxBatch 每批最多的文件数
+     */
+    public synchronized void setBatchWindow(long windowMs, int maxBatch) {
+        this.batchWindowMs = Math.max(0, windowMs);
+        this.maxBatch = Math.max(1, maxBatch);
+        notifyAll();
+    }
+
+    /**
+     * 原子地写入文件，返回时文件已按落盘策略落盘并出现在目标路径上
+     *
+     * @param target 目标文件
+     * @param task   写入回调
+     * @return 回调返回false时返回false，目标文件保持原样
+     * @throws IOException 写入、落盘或改名失败，目标文件保持原样
+     */
+    public boolean write(File target, WriteTask task) throws IOException {
+        return write(target, durability, task);
+    }
+
+    /**
+     * 按指定落盘策略原子地写入文件，用于可以重新生成、不需要落盘的文件
+     *
+     * @param target     目标文件
+     * @param durability 这次写入的落盘策略
+     * @param task       写入回调
+     * @return 回调返回false时返回false，目标文件保持原样
+     * @throws IOException 写入、落盘或改名失败，目标文件保持原样
+     */
+    public boolean write(File target, Durability durability, WriteTask task) throws IOException {
+        return write(target, durability, task, null, true);
+    }
+
+    /**
+     * 写入临时文件后立即返回，由提交线程在窗口内与其他文件一起落盘、改名
+     * <p>返回后文件要等提交完成才出现在目标路径上，不能马上读取。
+     * 落盘策略不是{@link Durability#BATCHED}时在当前线程中提交，返回前回调
+     *
+     * @param target   目标文件
+     * @param task     写入回调
+     * @param callback 提交结果，在提交线程中回调，可以为null
+     * @return 回调返回false时返回false，目标文件保持原样
+     * @throws IOException 写入临时文件失败；同步提交时也包括落盘或改名失败
+     */
+    public boolean writeAsync(File target, WriteTask task, CommitCallback callback) throws IOException {
+        return write(target, durability, task, callback, false);
+    }
+
+    /**
+     * 等待已交给提交线程的文件全部提交，不要在主线程中调用
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (!pending.isEmpty() || committing) {
+            wait();
+        }
+    }
+
+    /**
+     * 落盘次数，每个文件各落盘一次
+     */
+    public synchronized int getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * 组提交的批数
+     */
+    public synchronized int getBatchCount() {
+        return batches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DurableWriter{durability=" + durability + ", pending=" + pending.size() + ", syncs=" + syncs
+                + ", batches=" + batches + '}';
+    }
+
+    private boolean write(File target, Durability mode, WriteTask task, CommitCallback callback, boolean blocking)
+            throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!FileUtil.makeDirs(parent))
+            throw new IOException("can not create directory: " + parent);
+        //以.开头，不会被媒体扫描；名字唯一，同一目标的并发写入各用各的临时文件
+        File temp = File.createTempFile("." + target.getName() + ".", TEMP_SUFFIX, parent);
+        boolean batched = mode == Durability.BATCHED;
+        if (batched) {
+            synchronized (this) {
+                writing++;
+            }
+        }
+        FileOutputStream out = null;
+        PendingWrite write = null;
+        boolean finished = false;
+        try {
+            out = new FileOutputStream(temp);
+            if (!task.write(out)) {
+                return false;
+            }
+            out.flush();
+            if (batched) {
+                //之后临时文件和输出流归提交线程处理
+                write = new PendingWrite(temp, target, out, callback, blocking);
+                enqueue(write);
+            } else {
+                if (mode == Durability.ALWAYS) {
+                    out.getFD().sync();
+                    synchronized (this) {
+                        syncs++;
+                    }
+                }
+                out.close();
+                rename(temp, target);
+                finished = true;
+            }
+        } finally {
+            if (write == null) {
+                if (batched) {
+                    synchronized (this) {
+                        writing--;
+                        notifyAll();
+                    }
+                }
+                IOUtil.close(out);
+                if (!finished) {
+                    temp.delete();
+                }
+            }
+        }
+        if (write == null) {
+            if (callback != null) {
+                callback.onCommitted(target);
+            }
+        } else if (blocking) {
+            awaitCommit(write);
+        }
+        return true;
+    }
+
+    private synchronized void enqueue(PendingWrite write) {
+        writing--;
+        pending.add(write);
+        if (committer == null) {
+            committer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runCommitter();
+                }
+            }, TAG);
+            committer.setDaemon(true);
+            committer.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * 等待提交线程提交这个文件
+     */
+    private void awaitCommit(PendingWrite write) throws IOException {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (!write.done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    //文件已在队列中，必须等提交结束才能确定结果
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (write.error != null) {
+            throw write.error;
+        }
+    }
+
+    private void runCommitter() {
+        while (true) {
+            List<PendingWrite> batch;
+            try {
+                batch = takeBatch();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            int synced = commit(batch);
+            synchronized (this) {
+                for (PendingWrite item : batch) {
+                    item.done = true;
+                }
+                committing = false;
+                batches++;
+                syncs += synced;
+                notifyAll();
+            }
+            for (PendingWrite item : batch) {
+                if (item.callback == null) {
+                    continue;
+                }
+                try {
+                    if (item.error == null) {
+                        item.callback.onCommitted(item.target);
+                    } else {
+                        item.callback.onFailed(item.target, item.error);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 等到攒够一批、窗口结束，或者只剩阻塞调用方在等而没有其他线程在写
+     */
+    private synchronized List<PendingWrite> takeBatch() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        long deadline = pending.get(0).queuedAt + batchWindowMs * 1000000L;
+        while (pending.size() < maxBatch && !(writing == 0 && hasBlockingWrite())) {
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        //超出一批的留到下一批
+        List<PendingWrite> head = pending.subList(0, Math.min(maxBatch, pending.size()));
+        List<PendingWrite> batch = new ArrayList<PendingWrite>(head);
+        head.clear();
+        committing = true;
+        return batch;
+    }
+
+    private boolean hasBlockingWrite() {
+        for (PendingWrite item : pending) {
+            if (item.blocking) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 先连续落盘整批，后面的文件可以搭上前面触发的日志提交，全部落盘后再逐个改名；失败的删除临时文件
+     *
+     * @return 落盘成功的文件数
+     */
+    private static int commit(List<PendingWrite> batch) {
+        int synced = 0;
+        for (PendingWrite item : batch) {
+            try {
+                item.out.getFD().sync();
+                synced++;
+            } catch (IOException e) {
+                item.error = e;
+            }
+        }
+        for (PendingWrite item : batch) {
+            try {
+                if (item.error == null) {
+                    item.out.close();
+                    rename(item.temp, item.target);
+                }
+            } catch (IOException e) {
+                item.error = e;
+            } finally {
+                if (item.error != null) {
+                    IOUtil.close(item.out);
+                    item.temp.delete();
+                }
+            }
+        }
+        return synced;
+    }
+
+    private static void rename(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            //部分文件系统不能覆盖已存在的文件
+            target.delete();
+            if (!temp.renameTo(target))
+                throw new IOException("rename failed: " + temp + " -> " + target);
+        }
+    }
+}
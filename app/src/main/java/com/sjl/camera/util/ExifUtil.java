@@ -0,0 +1,296 @@
+package com.sjl.camera.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * EXIF工具类
+ * <p>纯Java实现，只处理JPEG的APP1(Exif)段，不解码像素
+ */
+public class ExifUtil {
+    /**
+     * EXIF方向值
+     */
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    static final int MARKER_SOI = 0xD8;
+    static final int MARKER_EOI = 0xD9;
+    static final int MARKER_SOS = 0xDA;
+    static final int MARKER_APP1 = 0xE1;
+
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TYPE_SHORT = 3;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private ExifUtil() {
+    }
+
+    /**
+     * 拼接方案：输出文件 = header + 原始数据[skip, limit)
+     */
+    public static class Splice {
+        public final byte[] header;
+        public final int skip;
+
+        Splice(byte[] header, int skip) {
+            this.header = header;
+            this.skip = skip;
+        }
+    }
+
+    /**
+     * 旋转角度转EXIF方向值
+     *
+     * @param degrees 顺时针旋转角度
+     * @return EXIF方向值
+     */
+    public static int degreesToOrientation(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return ORIENTATION_ROTATE_90;
+            case 180:
+                return ORIENTATION_ROTATE_180;
+            case 270:
+                return ORIENTATION_ROTATE_270;
+            default:
+                return ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * EXIF方向值转旋转角度
+     *
+     * @param orientation EXIF方向值
+     * @return 顺时针旋转角度
+     */
+    public static int orientationToDegrees(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSPOSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 读取JPEG中的EXIF方向值
+     *
+     * @param jpeg JPEG数据，从position开始
+     * @return 方向值，没有时返回{@link #ORIENTATION_NORMAL}
+     */
+    public static int getOrientation(ByteBuffer jpeg) {
+        int pos = findOrientation(jpeg);
+        if (pos < 0) {
+            return ORIENTATION_NORMAL;
+        }
+        return tiffShort(jpeg, findTiff(jpeg), pos);
+    }
+
+    /**
+     * 计算写入EXIF方向所需的拼接方案
+     * <p>原数据已有方向标签时只改写该条目，类型不是SHORT的也改写为SHORT，否则在SOI之后插入一个最小的APP1段
+     *
+     * @param jpeg        JPEG数据，从position开始
+     * @param orientation EXIF方向值
+     * @return 拼接方案，skip为相对position的偏移
+     */
+    public static Splice orientationSplice(ByteBuffer jpeg, int orientation) {
+        int start = jpeg.position();
+        if (jpeg.remaining() < 4 || u8(jpeg, start) != 0xFF || u8(jpeg, start + 1) != MARKER_SOI) {
+            throw new IllegalArgumentException("not a jpeg");
+        }
+        int tiff = findTiff(jpeg);
+        int entry = findOrientationEntry(jpeg, tiff);
+        if (entry >= 0) {
+            //复制到方向条目为止的文件头，改写类型、个数和值；1个SHORT放得下值字段，不需要改动其他偏移
+            byte[] header = new byte[entry + 12 - start];
+            ByteBuffer src = jpeg.duplicate();
+            src.get(header);
+            ByteOrder order = isLittleEndian(jpeg, tiff) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            ByteBuffer.wrap(header, entry + 2 - start, 10).order(order)
+                    .putShort((short) TYPE_SHORT).putInt(1).putShort((short) orientation).putShort((short) 0);
+            return new Splice(header, header.length);
+        }
+        byte[] app1 = buildApp1(orientation);
+        byte[] header = new byte[2 + app1.length];
+        header[0] = (byte) 0xFF;
+        header[1] = (byte) MARKER_SOI;
+        System.arraycopy(app1, 0, header, 2, app1.length);
+        return new Splice(header, 2);
+    }
+
+    /**
+     * 构建只包含方向标签的APP1段
+     *
+     * @param orientation EXIF方向值
+     * @return 含标记和长度的APP1段
+     */
+    static byte[] buildApp1(int orientation) {
+        //Exif头(6) + TIFF头(8) + 条目数(2) + 1个条目(12) + 下一个IFD偏移(4)
+        int length = 2 + EXIF_HEADER.length + 8 + 2 + 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + length).order(ByteOrder.BIG_ENDIAN);
+        buffer.put((byte) 0xFF).put((byte) MARKER_APP1).putShort((short) length);
+        buffer.put(EXIF_HEADER);
+        //TIFF头，大端，IFD0紧随其后
+        buffer.put((byte) 'M').put((byte) 'M').putShort((short) 0x002A).putInt(8);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) TAG_ORIENTATION).putShort((short) TYPE_SHORT).putInt(1);
+        buffer.putShort((short) orientation).putShort((short) 0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    /**
+     * 查找APP1(Exif)段中TIFF头的绝对位置
+     *
+     * @param jpeg JPEG数据，从position开始
+     * @return TIFF头位置，没有时返回-1
+     */
+    static int findTiff(ByteBuffer jpeg) {
+        int pos = jpeg.position() + 2;
+        int limit = jpeg.limit();
+        while (pos + 4 <= limit) {
+            if (u8(jpeg, pos) != 0xFF) {
+                return -1;
+            }
+            int marker = u8(jpeg, pos + 1);
+            if (marker == 0xFF) {
+                //填充字节
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return -1;
+            }
+            int length = u16(jpeg, pos + 2);
+            if (length < 2 || pos + 2 + length > limit) {
+                //段长度越界，数据被截断或损坏
+                return -1;
+            }
+            if (marker == MARKER_APP1 && length >= 2 + EXIF_HEADER.length + 8 && isExif(jpeg, pos + 4)) {
+                return pos + 4 + EXIF_HEADER.length;
+            }
+            pos += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找IFD0中方向标签值的绝对位置
+     *
+     * @param jpeg JPEG数据，从position开始
+     * @return 方向值位置，没有时返回-1
+     */
+    static int findOrientation(ByteBuffer jpeg) {
+        int tiff = findTiff(jpeg);
+        int entry = findOrientationEntry(jpeg, tiff);
+        if (entry < 0 || tiffShort(jpeg, tiff, entry + 2) != TYPE_SHORT) {
+            return -1;
+        }
+        return entry + 8;
+    }
+
+    /**
+     * 查找IFD0中方向标签条目的绝对位置，不检查类型
+     *
+     * @param jpeg JPEG数据
+     * @param tiff TIFF头位置，没有时为-1
+     * @return 条目位置，没有时返回-1
+     */
+    private static int findOrientationEntry(ByteBuffer jpeg, int tiff) {
+        if (tiff < 0) {
+            return -1;
+        }
+        return findIfdEntry(jpeg, tiff, readIfdOffset(jpeg, tiff), TAG_ORIENTATION);
+    }
+
+    /**
+     * TIFF头中IFD0的偏移
+     */
+    static int readIfdOffset(ByteBuffer jpeg, int tiff) {
+        return tiffInt(jpeg, tiff, tiff + 4);
+    }
+
+    /**
+     * 在IFD中查找指定标签的条目
+     *
+     * @param jpeg      数据
+     * @param tiff      TIFF头绝对位置
+     * @param ifdOffset IFD相对TIFF头的偏移
+     * @param tag       标签
+     * @return 条目绝对位置，没有时返回-1
+     */
+    static int findIfdEntry(ByteBuffer jpeg, int tiff, int ifdOffset, int tag) {
+        int ifd = tiff + ifdOffset;
+        if (ifdOffset < 8 || ifdOffset > jpeg.limit() - tiff - 2) {
+            return -1;
+        }
+        int count = tiffShort(jpeg, tiff, ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > jpeg.limit()) {
+                return -1;
+            }
+            if (tiffShort(jpeg, tiff, entry) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按TIFF字节序读取无符号短整型
+     */
+    static int tiffShort(ByteBuffer jpeg, int tiff, int pos) {
+        if (isLittleEndian(jpeg, tiff)) {
+            return u8(jpeg, pos) | (u8(jpeg, pos + 1) << 8);
+        }
+        return u16(jpeg, pos);
+    }
+
+    /**
+     * 按TIFF字节序读取整型
+     */
+    static int tiffInt(ByteBuffer jpeg, int tiff, int pos) {
+        if (isLittleEndian(jpeg, tiff)) {
+            return tiffShort(jpeg, tiff, pos) | (tiffShort(jpeg, tiff, pos + 2) << 16);
+        }
+        return (u16(jpeg, pos) << 16) | u16(jpeg, pos + 2);
+    }
+
+    private static boolean isLittleEndian(ByteBuffer jpeg, int tiff) {
+        return u8(jpeg, tiff) == 'I';
+    }
+
+    private static boolean isExif(ByteBuffer jpeg, int pos) {
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (jpeg.get(pos + i) != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int u8(ByteBuffer buffer, int pos) {
+        return buffer.get(pos) & 0xFF;
+    }
+
+    static int u16(ByteBuffer buffer, int pos) {
+        return (u8(buffer, pos) << 8) | u8(buffer, pos + 1);
+    }
+}
@@ -0,0 +1,307 @@
+package com.sjl.camera.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件复制
+ * <p>单个文件按块循环transferTo，每块结束后回调进度并检查取消；大文件可以按块内存映射后写出。
+ * 目录复制在固定大小的线程池中同时复制多个文件，进度按总字节数汇总。
+ * 一个实例同一时间只执行一次复制
+ */
+public class FileCopier {
+    /**
+     * 复制方式
+     */
+    public enum Mode {
+        /**
+         * 超过{@link #MAP_THRESHOLD}的文件用MAPPED，其余用TRANSFER
+         */
+        AUTO,
+        /**
+         * FileChannel.transferTo，由内核直接复制
+         */
+        TRANSFER,
+        /**
+         * 按块把源文件映射到内存后写出
+         */
+        MAPPED
+    }
+
+    /**
+     * 进度回调，在复制线程中执行；目录复制时可能在多个线程中同时回调
+     */
+    public interface ProgressListener {
+        /**
+         * @param copiedBytes    已复制字节数
+         * @param totalBytes     总字节数
+         * @param bytesPerSecond 从开始到现在的平均速度
+         */
+        void onProgress(long copiedBytes, long totalBytes, long bytesPerSecond);
+    }
+
+    /**
+     * AUTO模式下使用内存映射的文件大小
+     */
+    public static final long MAP_THRESHOLD = 64 * 1024 * 1024;
+    /**
+     * 每次transferTo/映射的块大小，也是进度回调和检查取消的粒度
+     */
+    private static final long CHUNK_SIZE = 8 * 1024 * 1024;
+    /**
+     * transferTo不支持时退回普通读写的缓冲大小
+     */
+    private static final int FALLBACK_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_THREADS = 3;
+
+    private Mode mode = Mode.AUTO;
+    private ProgressListener listener;
+    private volatile boolean cancelled;
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private long totalBytes;
+    private long startTime;
+    private long elapsedMillis;
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 取消正在进行的复制，复制线程在当前块结束后抛出{@link InterruptedIOException}，未完成的目标文件被删除
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 最近一次复制的字节数
+     */
+    public long getCopiedBytes() {
+        return copiedBytes.get();
+    }
+
+    /**
+     * 最近一次复制的平均速度，复制中为到目前为止的速度
+     */
+    public long getBytesPerSecond() {
+        long elapsed = startTime == 0 ? elapsedMillis : System.currentTimeMillis() - startTime;
+        return bytesPerSecond(copiedBytes.get(), elapsed);
+    }
+
+    /**
+     * 复制单个文件，目标文件已存在时覆盖
+     *
+     * @param in  源文件
+     * @param out 目标文件
+     * @throws IOException 复制失败，或被取消时抛出{@link InterruptedIOException}
+     */
+    public void copy(File in, File out) throws IOException {
+        start(in.length());
+        try {
+            copyFile(in, out);
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * 复制目录，包括子目录
+     *
+     * @param srcDir 源目录
+     * @param dstDir 目标目录，不存在时创建
+     * @throws IOException
+     */
+    public void copyDirectory(File srcDir, File dstDir) throws IOException {
+        copyDirectory(srcDir, dstDir, DEFAULT_THREADS);
+    }
+
+    /**
+     * 在固定大小的线程池中复制目录，包括子目录，第一个失败的文件会取消其余文件
+     *
+     * @param srcDir  源目录
+     * @param dstDir  目标目录，不存在时创建
+     * @param threads 同时复制的文件数
+     * @throws IOException
+     */
+    public void copyDirectory(File srcDir, File dstDir, int threads) throws IOException {
+        if (!srcDir.isDirectory())
+            throw new IOException("not a directory: " + srcDir);
+        List<File[]> pairs = new ArrayList<File[]>();
+        long total = collect(srcDir, dstDir, pairs);
+        start(total);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(pairs.size());
+            for (final File[] pair : pairs) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        copyFile(pair[0], pair[1]);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    cancelled = true;
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (InterruptedException e) {
+                    cancelled = true;
+                    throw new InterruptedIOException("copy interrupted");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            finish();
+        }
+    }
+
+    /**
+     * 列出需要复制的文件并创建目标目录
+     *
+     * @return 总字节数
+     */
+    private static long collect(File srcDir, File dstDir, List<File[]> pairs) throws IOException {
+        if (!FileUtil.makeDirs(dstDir))
+            throw new IOException("can not create directory: " + dstDir);
+        File[] files = srcDir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long total = 0;
+        for (File file : files) {
+            File target = new File(dstDir, file.getName());
+            if (file.isDirectory()) {
+                total += collect(file, target, pairs);
+            } else {
+                pairs.add(new File[]{file, target});
+                total += file.length();
+            }
+        }
+        return total;
+    }
+
+    private void start(long total) {
+        cancelled = false;
+        copiedBytes.set(0);
+        totalBytes = total;
+        startTime = System.currentTimeMillis();
+    }
+
+    private void finish() {
+        elapsedMillis = System.currentTimeMillis() - startTime;
+        startTime = 0;
+    }
+
+    private void copyFile(File in, File out) throws IOException {
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        FileChannel inChannel = null;
+        FileChannel outChannel = null;
+        boolean completed = false;
+        try {
+            input = new FileInputStream(in);
+            output = new FileOutputStream(out);
+            inChannel = input.getChannel();
+            outChannel = output.getChannel();
+            long size = inChannel.size();
+            boolean mapped = mode == Mode.MAPPED || (mode == Mode.AUTO && size >= MAP_THRESHOLD);
+            long position = 0;
+            while (position < size) {
+                checkCancelled();
+                long count = Math.min(CHUNK_SIZE, size - position);
+                long copied = mapped ? copyMapped(inChannel, outChannel, position, count)
+                        : inChannel.transferTo(position, count, outChannel);
+                if (copied <= 0) {
+                    //部分文件系统的transferTo不复制任何数据
+                    copied = copyBuffered(inChannel, outChannel, position, count);
+                    if (copied <= 0)
+                        throw new IOException("unexpected end of file: " + in);
+                }
+                position += copied;
+                onCopied(copied);
+            }
+            completed = true;
+        } finally {
+            IOUtil.close(inChannel);
+            IOUtil.close(outChannel);
+            IOUtil.close(input);
+            IOUtil.close(output);
+            if (!completed) {
+                out.delete();
+            }
+        }
+    }
+
+    private static long copyMapped(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, position, count);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return count;
+    }
+
+    private static long copyBuffered(FileChannel in, FileChannel out, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(count, FALLBACK_BUFFER_SIZE));
+        long copied = 0;
+        while (copied < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+            int read = in.read(buffer, position + copied);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            copied += read;
+        }
+        return copied;
+    }
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled || Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("copy cancelled");
+    }
+
+    private void onCopied(long bytes) {
+        long copied = copiedBytes.addAndGet(bytes);
+        ProgressListener listener = this.listener;
+        if (listener != null) {
+            listener.onProgress(copied, totalBytes, bytesPerSecond(copied, System.currentTimeMillis() - startTime));
+        }
+    }
+
+    private static long bytesPerSecond(long bytes, long millis) {
+        return millis <= 0 ? bytes * 1000 : bytes * 1000 / millis;
+    }
+}
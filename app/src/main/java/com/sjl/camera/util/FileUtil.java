@@ -7,23 +7,19 @@ import android.os.Environment;
 import android.support.v4.content.FileProvider;
 import android.text.TextUtils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * <h3>File工具类</h3>
@@ -88,31 +84,19 @@ public class FileUtil {
         if (TextUtils.isEmpty(charsetName))
             charsetName = "utf-8";
         File file = new File(filePath);
-        StringBuilder fileContent = new StringBuilder("");
         if (!file.isFile())
             return null;
-        BufferedReader reader = null;
-        try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(
-                    file), charsetName);
-            reader = new BufferedReader(is);
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (!fileContent.toString().equals("")) {
+        final StringBuilder fileContent = new StringBuilder((int) Math.min(file.length(), Integer.MAX_VALUE - 8));
+        forEachLine(file, charsetName, new LineReader.Callback() {
+            @Override
+            public void onLine(String line) {
+                if (fileContent.length() > 0) {
                     fileContent.append("\r\n");
                 }
                 fileContent.append(line);
             }
-            return fileContent.toString();
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        });
+        return fileContent.toString();
     }
 
     /**
@@ -141,29 +125,33 @@ public class FileUtil {
         if (TextUtils.isEmpty(charsetName))
             charsetName = "utf-8";
         File file = new File(filePath);
-        List<String> fileContent = new ArrayList<String>();
+        final List<String> fileContent = new ArrayList<String>();
         if (!file.isFile()) {
             return null;
         }
-        BufferedReader reader = null;
-        try {
-            InputStreamReader is = new InputStreamReader(new FileInputStream(
-                    file), charsetName);
-            reader = new BufferedReader(is);
-            String line;
-            while ((line = reader.readLine()) != null) {
+        forEachLine(file, charsetName, new LineReader.Callback() {
+            @Override
+            public void onLine(String line) {
                 fileContent.add(line);
             }
-            return fileContent;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        });
+        return fileContent;
+    }
+
+    /**
+     * 逐行读取文本文件，不把整个文件留在内存中，适合较大的日志和清单文件
+     * <p>需要内存映射或分段并行读取时直接使用{@link LineReader}
+     *
+     * @param file        文本文件
+     * @param charsetName 字符编码，为空时使用utf-8
+     * @param callback    行回调
+     * @throws IOException
+     */
+    public static void forEachLine(File file, String charsetName, LineReader.Callback callback)
+            throws IOException {
+        if (TextUtils.isEmpty(charsetName))
+            charsetName = "utf-8";
+        LineReader.forEachLine(file, Charset.forName(charsetName), false, callback);
     }
 
     /**
@@ -232,6 +220,39 @@ public class FileUtil {
         }
     }
 
+    /**
+     * 原子地写入整个文件：先写同目录的临时文件，落盘后改名替换，落盘策略为{@link DurableWriter}的默认策略
+     * <p>writeFile系列方法仍然直接覆盖写入，需要防止断电留下半个文件时才用这个方法
+     *
+     * @param file 目标文件
+     * @param data 文件内容
+     * @return 写入成功返回true
+     * @throws IOException 写入失败时目标文件保持原样
+     */
+    public static boolean writeFileAtomic(File file, byte[] data) throws IOException {
+        return writeFileAtomic(file, data, DurableWriter.getInstance().getDurability());
+    }
+
+    /**
+     * 按指定落盘策略原子地写入整个文件
+     *
+     * @param file       目标文件
+     * @param data       文件内容
+     * @param durability 落盘策略，可以重新生成的文件用{@link DurableWriter.Durability#NONE}
+     * @return 写入成功返回true
+     * @throws IOException 写入失败时目标文件保持原样
+     */
+    public static boolean writeFileAtomic(File file, final byte[] data, DurableWriter.Durability durability)
+            throws IOException {
+        return DurableWriter.getInstance().write(file, durability, new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                out.write(data);
+                return true;
+            }
+        });
+    }
+
     /**
      * 向文件中写入数据<br>
      * 默认在文件开始处重新写入数据
@@ -298,11 +319,7 @@ public class FileUtil {
         try {
             createFile(file.getAbsolutePath());
             out = new FileOutputStream(file, append);
-            byte data[] = new byte[1024];
-            int length;
-            while ((length = stream.read(data)) != -1) {
-                out.write(data, 0, length);
-            }
+            IOUtil.copy(stream, out, -1);
             out.flush();
             return true;
         } finally {
@@ -327,9 +344,10 @@ public class FileUtil {
      */
     public static boolean copyFile(String sourceFilePath, String destFilePath)
             throws IOException {
-        InputStream inputStream;
-        inputStream = new FileInputStream(sourceFilePath);
-        return writeFile(destFilePath, inputStream);
+        File out = new File(destFilePath);
+        makeDirs(out.getParentFile());
+        new FileCopier().copy(new File(sourceFilePath), out);
+        return true;
     }
 
     /**
@@ -345,28 +363,14 @@ public class FileUtil {
 
     /**
      * 采用nio快速拷贝文件
+     * <p>需要进度、取消或目录复制时直接使用{@link FileCopier}
      *
      * @param in
      * @param out
      * @throws IOException
      */
-    @SuppressWarnings("resource")
     public static void copyFileNio(File in, File out) throws IOException {
-        FileChannel inChannel = new FileInputStream(in).getChannel();
-        FileChannel outChannel = new FileOutputStream(out).getChannel();
-        try {
-            inChannel.transferTo(0, inChannel.size(), outChannel);
-            int maxCount = (64 * 1024 * 1024) - (32 * 1024);
-            long size = inChannel.size();
-            long position = 0;
-            while (position < size) {
-                position += inChannel
-                        .transferTo(position, maxCount, outChannel);
-            }
-        } finally {
-            IOUtil.close(inChannel);
-            IOUtil.close(outChannel);
-        }
+        new FileCopier().copy(in, out);
     }
 
     /**
@@ -720,36 +724,24 @@ public class FileUtil {
     public static boolean zipFile(String sourceFile, String destFile) throws IOException {
         if (!isFileExist(sourceFile))
             return false;
-        File zip = new File(destFile);
-        if (zip.exists())
-            zip.delete();
+        new ZipArchiver().zip(Collections.singletonList(new File(sourceFile)), new File(destFile));
+        return true;
+    }
 
-        FileInputStream fis = null;
-        FileOutputStream outputStream = null;
-        ZipOutputStream zipOut = null;
-        try {
-            File srcFile = new File(sourceFile);
-            fis = new FileInputStream(srcFile);
-            outputStream = new FileOutputStream(zip);
-            zipOut = new ZipOutputStream(outputStream);
-
-            ZipEntry ze = new ZipEntry(srcFile.getName());
-            ze.setSize(srcFile.length());
-            ze.setTime(srcFile.lastModified());
-            zipOut.putNextEntry(ze);
-
-            byte data[] = new byte[1024];
-            int length;
-            while ((length = fis.read(data)) != -1) {
-                zipOut.write(data, 0, length);
-            }
-            zipOut.flush();
-            return true;
-        } finally {
-            IOUtil.close(zipOut);
-            IOUtil.close(outputStream);
-            IOUtil.close(fis);
-        }
+    /**
+     * 压缩目录，多个文件并行压缩，jpg/png等已压缩的格式直接存储
+     * <p>需要进度或取消时直接使用{@link ZipArchiver}
+     *
+     * @param sourceDir 源目录路径(绝对路径)
+     * @param destFile  目标文件路径(绝对路径)
+     * @return 压缩成功返回true
+     * @throws IOException
+     */
+    public static boolean zipDirectory(String sourceDir, String destFile) throws IOException {
+        if (!isFolderExist(sourceDir))
+            return false;
+        new ZipArchiver().zipDirectory(new File(sourceDir), new File(destFile));
+        return true;
     }
 
     public static boolean copyAssetsFile(Context context, String sourceFile, String destFile) throws IOException {
@@ -758,12 +750,8 @@ public class FileUtil {
         try {
             outputStream = new FileOutputStream(destFile);
             inputStream = context.getAssets().open(sourceFile);
-            byte[] buffer = new byte[1024];
-            int length = inputStream.read(buffer);
-            while (length > 0) {
-                outputStream.write(buffer, 0, length);
-                length = inputStream.read(buffer);
-            }
+            //AssetInputStream的available()为剩余长度
+            IOUtil.copy(inputStream, outputStream, inputStream.available());
             return true;
         } finally {
             if (outputStream != null) {
@@ -1,13 +1,13 @@
 package com.sjl.camera.util;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.channels.Channel;
+import java.util.Arrays;
 
 /**
  * IO工具类
@@ -34,42 +34,78 @@ public class IOUtil {
      */
     public static String streamToString(InputStream in, String encoding)
             throws IOException {
-        byte[] buffer = new byte[1024];
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int len;
-        String result = null;
+        return new String(streamToByteArray(in), encoding);
+    }
+
+    /**
+     * 将输入流转成字节数组
+     * @param in
+     * @return
+     * @throws IOException 
+     */
+    public static byte[] streamToByteArray(InputStream in) throws IOException {
+        return streamToByteArray(in, -1);
+    }
+
+    /**
+     * 将输入流转成字节数组
+     * <p>已知长度时直接读入该长度的数组，不经过ByteArrayOutputStream再复制一次；
+     * 未知时以available()为初始容量，不够时成倍扩容
+     * @param in
+     * @param length 流的长度，未知时传-1
+     * @return
+     * @throws IOException
+     */
+    public static byte[] streamToByteArray(InputStream in, long length) throws IOException {
         try {
-            while ((len = in.read(buffer)) != -1) {
-                baos.write(buffer, 0, len);
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("stream too large: " + length);
+            int capacity = length >= 0 ? (int) length : Math.max(in.available(), BufferPool.MIN_BUFFER_SIZE);
+            byte[] result = new byte[capacity];
+            int count = 0;
+            while (true) {
+                if (count == result.length) {
+                    //长度准确时这里读到-1，不再扩容
+                    int next = in.read();
+                    if (next == -1) {
+                        break;
+                    }
+                    result = Arrays.copyOf(result, Math.max(result.length << 1, BufferPool.MIN_BUFFER_SIZE));
+                    result[count++] = (byte) next;
+                }
+                int len = in.read(result, count, result.length - count);
+                if (len == -1) {
+                    break;
+                }
+                count += len;
             }
-            result = new String(baos.toByteArray(), encoding);
+            return count == result.length ? result : Arrays.copyOf(result, count);
         } finally {
             close(in);
-            close(baos);
         }
-        return result;
     }
 
     /**
-     * 将输入流转成字节数组
+     * 将输入流复制到输出流，使用{@link BufferPool}中的缓冲，两个流都不关闭
      * @param in
-     * @return
-     * @throws IOException 
+     * @param out
+     * @param length 预计复制的字节数，用于选择缓冲大小，未知时传-1
+     * @return 复制的字节数
+     * @throws IOException
      */
-    public static byte[] streamToByteArray(InputStream in) throws IOException {
-        byte[] buffer = new byte[1024];
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int len;
-        byte[] result = null;
+    public static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = BufferPool.obtain(length);
         try {
+            long total = 0;
+            int len;
             while ((len = in.read(buffer)) != -1) {
-                baos.write(buffer, 0, len);
+                out.write(buffer, 0, len);
+                total += len;
             }
-            result = baos.toByteArray();
+            return total;
         } finally {
-            close(in);
+            BufferPool.release(buffer);
         }
-        return result;
     }
 
     /**
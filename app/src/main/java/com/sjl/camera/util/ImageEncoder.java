@@ -0,0 +1,222 @@
+package com.sjl.camera.util;
+
+import android.graphics.Bitmap;
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 图片编码器
+ * <p>可选择格式和质量，直接写入文件通道或直接内存，不生成中间byte[]
+ */
+public class ImageEncoder {
+    /**
+     * 编码格式
+     */
+    public enum Format {
+        JPEG(Bitmap.CompressFormat.JPEG, "jpg"),
+        WEBP(Bitmap.CompressFormat.WEBP, "webp"),
+        PNG(Bitmap.CompressFormat.PNG, "png");
+
+        final Bitmap.CompressFormat compressFormat;
+        final String extension;
+
+        Format(Bitmap.CompressFormat compressFormat, String extension) {
+            this.compressFormat = compressFormat;
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    public static final int DEFAULT_JPEG_QUALITY = 95;
+    public static final int DEFAULT_WEBP_QUALITY = 90;
+    /**
+     * 按大小编码时最多的编码次数，含最后一次回退到最佳质量的编码
+     */
+    public static final int MAX_SIZE_PASSES = 8;
+
+    private final Format format;
+    private final int quality;
+
+    /**
+     * @param format  编码格式
+     * @param quality 质量0-100，PNG忽略该值
+     */
+    public ImageEncoder(Format format, int quality) {
+        if (format == null)
+            throw new NullPointerException("format is null");
+        if (quality < 0 || quality > 100)
+            throw new IllegalArgumentException("quality must be 0..100");
+        this.format = format;
+        this.quality = quality;
+    }
+
+    /**
+     * 按文件扩展名选择编码器，未知扩展名按JPEG处理
+     *
+     * @param filePath 文件路径
+     * @return
+     */
+    public static ImageEncoder forFile(String filePath) {
+        String extension = FileUtil.getFileExtension(filePath);
+        if ("png".equalsIgnoreCase(extension)) {
+            return new ImageEncoder(Format.PNG, 100);
+        } else if ("webp".equalsIgnoreCase(extension)) {
+            return new ImageEncoder(Format.WEBP, DEFAULT_WEBP_QUALITY);
+        }
+        return new ImageEncoder(Format.JPEG, DEFAULT_JPEG_QUALITY);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * 编码到输出流
+     *
+     * @param bitmap
+     * @param output
+     * @return 编码成功返回true
+     */
+    public boolean encode(Bitmap bitmap, OutputStream output) {
+        return bitmap.compress(format.compressFormat, quality, output);
+    }
+
+    /**
+     * 编码并写入文件通道
+     * <p>compress按小块写出，先编码到池中的直接内存，再一次写入通道
+     *
+     * @param bitmap
+     * @param channel
+     * @return 编码成功返回true
+     * @throws IOException
+     */
+    public boolean encode(Bitmap bitmap, FileChannel channel) throws IOException {
+        //压缩后一般不到原始像素的1/8，不够时扩容
+        ByteBufferOutputStream output = ByteBufferOutputStream.obtain(bitmap.getByteCount() / 8);
+        try {
+            if (encode(bitmap, output) == null) {
+                return false;
+            }
+            output.writeTo(channel);
+            return true;
+        } finally {
+            output.recycle();
+        }
+    }
+
+    /**
+     * 编码到直接内存
+     *
+     * @param bitmap
+     * @param output 可复用的输出流，编码前会清空
+     * @return 编码结果视图，失败返回null
+     */
+    public ByteBuffer encode(Bitmap bitmap, ByteBufferOutputStream output) {
+        output.reset();
+        return encode(bitmap, (OutputStream) output) ? output.getBuffer() : null;
+    }
+
+    /**
+     * 编码并保存到文件
+     *
+     * @param bitmap
+     * @param outFile
+     * @return 保存成功返回true
+     * @throws IOException
+     */
+    public boolean encode(Bitmap bitmap, String outFile) throws IOException {
+        return encode(bitmap, outFile, DurableWriter.getInstance().getDurability());
+    }
+
+    /**
+     * 按指定落盘策略编码并保存到文件
+     *
+     * @param bitmap
+     * @param outFile
+     * @param durability 落盘策略，可以重新生成的文件用{@link DurableWriter.Durability#NONE}
+     * @return 保存成功返回true
+     * @throws IOException
+     */
+    public boolean encode(final Bitmap bitmap, String outFile, DurableWriter.Durability durability) throws IOException {
+        if (TextUtils.isEmpty(outFile) || bitmap == null)
+            return false;
+        return DurableWriter.getInstance().write(new File(outFile), durability, new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                return encode(bitmap, out.getChannel());
+            }
+        });
+    }
+
+    /**
+     * 按字节预算编码，二分查找不超过预算的最高质量
+     * <p>最多编码{@link #MAX_SIZE_PASSES}次，所有编码共用同一个输出流
+     *
+     * @param bitmap
+     * @param format     编码格式，PNG只编码一次
+     * @param maxBytes   字节预算
+     * @param minQuality 最低质量
+     * @param maxQuality 最高质量
+     * @param output     可复用的输出流
+     * @return 编码结果视图，最低质量仍超出预算时返回最低质量的结果，失败返回null
+     */
+    public static ByteBuffer encodeToSize(Bitmap bitmap, Format format, int maxBytes, int minQuality, int maxQuality,
+                                          ByteBufferOutputStream output) {
+        if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality)
+            throw new IllegalArgumentException("quality range must be within 0..100");
+        if (!encodePass(bitmap, format, maxQuality, output))
+            return null;
+        if (output.size() <= maxBytes || format == Format.PNG)
+            return output.getBuffer();
+        int passes = 1;
+        int lastQuality = maxQuality;
+        int bestQuality = -1;
+        int low = minQuality;
+        int high = maxQuality - 1;
+        //留一次给最后回退到最佳质量
+        while (low <= high && passes < MAX_SIZE_PASSES - 1) {
+            int mid = (low + high) >>> 1;
+            if (!encodePass(bitmap, format, mid, output))
+                return null;
+            passes++;
+            lastQuality = mid;
+            if (output.size() <= maxBytes) {
+                bestQuality = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int quality = bestQuality >= 0 ? bestQuality : minQuality;
+        if (quality != lastQuality && !encodePass(bitmap, format, quality, output))
+            return null;
+        return output.getBuffer();
+    }
+
+    /**
+     * 按字节预算编码，质量范围0-100
+     *
+     * @see #encodeToSize(Bitmap, Format, int, int, int, ByteBufferOutputStream)
+     */
+    public static ByteBuffer encodeToSize(Bitmap bitmap, Format format, int maxBytes, ByteBufferOutputStream output) {
+        return encodeToSize(bitmap, format, maxBytes, 0, 100, output);
+    }
+
+    private static boolean encodePass(Bitmap bitmap, Format format, int quality, ByteBufferOutputStream output) {
+        output.reset();
+        return bitmap.compress(format.compressFormat, quality, output);
+    }
+}
@@ -0,0 +1,387 @@
+package com.sjl.camera.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 图片头解析
+ * <p>纯Java实现，支持JPEG、PNG、WebP。用FileChannel按位置只读取需要的几个段，
+ * JPEG沿段长度跳到帧头，不读取中间的缩略图和像素数据，代替BitmapFactory的inJustDecodeBounds
+ */
+public class ImageHeaderParser {
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_WEBP = "image/webp";
+
+    /**
+     * EXIF段最多读取的字节数，超出部分的标签忽略
+     */
+    private static final int MAX_EXIF_BYTES = 64 * 1024;
+    private static final int TAG_DATE_TIME = 0x0132;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TYPE_ASCII = 2;
+    private static final int DATE_LENGTH = 19;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * 图片头信息
+     */
+    public static class Header {
+        public final int width;
+        public final int height;
+        /**
+         * EXIF方向值，没有时为{@link ExifUtil#ORIENTATION_NORMAL}
+         */
+        public final int orientation;
+        public final String mimeType;
+        /**
+         * 拍摄时间(EXIF DateTimeOriginal，按本地时区)，没有时为-1
+         */
+        public final long dateTaken;
+
+        public Header(int width, int height, int orientation, String mimeType, long dateTaken) {
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.mimeType = mimeType;
+            this.dateTaken = dateTaken;
+        }
+
+        @Override
+        public String toString() {
+            return mimeType + " " + width + "x" + height + " orientation=" + orientation + " dateTaken=" + dateTaken;
+        }
+    }
+
+    /**
+     * 按位置读取数据
+     */
+    private interface Input {
+        /**
+         * @return 从position开始最多length字节，到达末尾时更短
+         */
+        ByteBuffer read(long position, int length) throws IOException;
+    }
+
+    private ImageHeaderParser() {
+    }
+
+    /**
+     * 解析文件头
+     *
+     * @param filePath 文件路径
+     * @return 无法识别的格式返回null
+     * @throws IOException
+     */
+    public static Header parse(String filePath) throws IOException {
+        FileInputStream input = null;
+        FileChannel channel = null;
+        try {
+            input = new FileInputStream(filePath);
+            channel = input.getChannel();
+            return parse(channelInput(channel));
+        } finally {
+            IOUtil.close(channel);
+            IOUtil.close(input);
+        }
+    }
+
+    /**
+     * 解析内存中的图片数据
+     *
+     * @param data 从position到limit，不改变其position
+     * @return 无法识别的格式返回null
+     */
+    public static Header parse(ByteBuffer data) {
+        try {
+            return parse(bufferInput(data));
+        } catch (IOException e) {
+            //内存数据不会产生IO错误，只有格式错误
+            return null;
+        }
+    }
+
+    /**
+     * 在IO线程池中并行解析目录下的所有文件(不含子目录)
+     *
+     * @param dir 目录
+     * @return 按文件名排序的路径 -> 头信息，无法识别的文件不包含在内
+     */
+    public static Map<String, Header> scanDirectory(File dir) {
+        final File[] files = dir.listFiles();
+        Map<String, Header> result = new LinkedHashMap<String, Header>();
+        if (files == null || files.length == 0) {
+            return result;
+        }
+        Arrays.sort(files);
+        final Header[] headers = new Header[files.length];
+        ParallelUtil.forEachBlockingBand(files.length, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start; i < end; i++) {
+                    if (!files[i].isFile()) {
+                        continue;
+                    }
+                    try {
+                        headers[i] = parse(files[i].getAbsolutePath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < files.length; i++) {
+            if (headers[i] != null) {
+                result.put(files[i].getAbsolutePath(), headers[i]);
+            }
+        }
+        return result;
+    }
+
+    private static Header parse(Input input) throws IOException {
+        ByteBuffer head = input.read(0, 30);
+        if (head.remaining() >= 4 && u8(head, 0) == 0xFF && u8(head, 1) == ExifUtil.MARKER_SOI) {
+            return parseJpeg(input);
+        }
+        if (head.remaining() >= 24 && startsWith(head, 0, PNG_SIGNATURE) && startsWith(head, 12, "IHDR")) {
+            return new Header(head.getInt(16), head.getInt(20), ExifUtil.ORIENTATION_NORMAL, MIME_PNG, -1);
+        }
+        if (head.remaining() >= 30 && startsWith(head, 0, "RIFF") && startsWith(head, 8, "WEBP")) {
+            return parseWebp(input, head);
+        }
+        return null;
+    }
+
+    /**
+     * 沿段长度跳到SOFn，途中解析APP1(Exif)
+     */
+    private static Header parseJpeg(Input input) throws IOException {
+        long pos = 2;
+        int orientation = ExifUtil.ORIENTATION_NORMAL;
+        long dateTaken = -1;
+        while (true) {
+            ByteBuffer marker = input.read(pos, 9);
+            if (marker.remaining() < 4 || u8(marker, 0) != 0xFF) {
+                return null;
+            }
+            int code = u8(marker, 1);
+            if (code == 0xFF) {
+                //填充字节
+                pos++;
+                continue;
+            }
+            if (code == ExifUtil.MARKER_SOS || code == ExifUtil.MARKER_EOI) {
+                return null;
+            }
+            int length = ExifUtil.u16(marker, 2);
+            if (isStartOfFrame(code)) {
+                if (marker.remaining() < 9) {
+                    return null;
+                }
+                return new Header(ExifUtil.u16(marker, 7), ExifUtil.u16(marker, 5), orientation, MIME_JPEG, dateTaken);
+            }
+            if (code == ExifUtil.MARKER_APP1 && length > 2 + 6 + 8) {
+                ByteBuffer app1 = input.read(pos + 4, Math.min(length - 2, MAX_EXIF_BYTES));
+                if (startsWith(app1, 0, "Exif\0\0")) {
+                    int[] exif = parseTiff(app1, 6);
+                    orientation = exif[0];
+                    dateTaken = exif[1] == 0 ? -1 : parseDate(app1, exif[1]);
+                }
+            }
+            pos += 2 + length;
+        }
+    }
+
+    private static boolean isStartOfFrame(int code) {
+        return code >= 0xC0 && code <= 0xCF && code != 0xC4 && code != 0xC8 && code != 0xCC;
+    }
+
+    /**
+     * 简单格式(VP8/VP8L)的尺寸在第一个块中；扩展格式(VP8X)的尺寸在VP8X块中，EXIF在后面的块中
+     */
+    private static Header parseWebp(Input input, ByteBuffer head) throws IOException {
+        head.order(ByteOrder.LITTLE_ENDIAN);
+        if (startsWith(head, 12, "VP8 ")) {
+            //关键帧起始码
+            if (u8(head, 23) != 0x9D || u8(head, 24) != 0x01 || u8(head, 25) != 0x2A) {
+                return null;
+            }
+            return new Header(head.getShort(26) & 0x3FFF, head.getShort(28) & 0x3FFF,
+                    ExifUtil.ORIENTATION_NORMAL, MIME_WEBP, -1);
+        }
+        if (startsWith(head, 12, "VP8L")) {
+            if (u8(head, 20) != 0x2F) {
+                return null;
+            }
+            int bits = head.getInt(21);
+            return new Header((bits & 0x3FFF) + 1, ((bits >> 14) & 0x3FFF) + 1,
+                    ExifUtil.ORIENTATION_NORMAL, MIME_WEBP, -1);
+        }
+        if (!startsWith(head, 12, "VP8X")) {
+            return null;
+        }
+        int width = u24(head, 24) + 1;
+        int height = u24(head, 27) + 1;
+        int orientation = ExifUtil.ORIENTATION_NORMAL;
+        long dateTaken = -1;
+        boolean hasExif = (u8(head, 20) & 0x08) != 0;
+        long riffEnd = 8 + (head.getInt(4) & 0xFFFFFFFFL);
+        long pos = 12;
+        while (hasExif && pos + 8 <= riffEnd) {
+            ByteBuffer chunk = input.read(pos, 8);
+            if (chunk.remaining() < 8) {
+                break;
+            }
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (startsWith(chunk, 0, "EXIF")) {
+                ByteBuffer exif = input.read(pos + 8, (int) Math.min(size, MAX_EXIF_BYTES));
+                //部分编码器在TIFF头前保留了JPEG的Exif标识
+                int tiff = startsWith(exif, 0, "Exif\0\0") ? 6 : 0;
+                int[] result = parseTiff(exif, tiff);
+                orientation = result[0];
+                dateTaken = result[1] == 0 ? -1 : parseDate(exif, result[1]);
+                break;
+            }
+            //块按偶数字节对齐
+            pos += 8 + size + (size & 1);
+        }
+        return new Header(width, height, orientation, MIME_WEBP, dateTaken);
+    }
+
+    /**
+     * 读取TIFF中的方向和拍摄时间
+     *
+     * @return {方向值, 拍摄时间字符串的绝对位置(没有时为0)}
+     */
+    private static int[] parseTiff(ByteBuffer data, int tiff) {
+        int[] result = {ExifUtil.ORIENTATION_NORMAL, 0};
+        try {
+            int byteOrder = u8(data, tiff);
+            if (byteOrder != 'I' && byteOrder != 'M') {
+                return result;
+            }
+            int ifd0 = ExifUtil.readIfdOffset(data, tiff);
+            int entry = ExifUtil.findIfdEntry(data, tiff, ifd0, ExifUtil.TAG_ORIENTATION);
+            if (entry >= 0 && ExifUtil.tiffShort(data, tiff, entry + 2) == ExifUtil.TYPE_SHORT) {
+                int orientation = ExifUtil.tiffShort(data, tiff, entry + 8);
+                if (orientation >= ExifUtil.ORIENTATION_NORMAL && orientation <= ExifUtil.ORIENTATION_ROTATE_270) {
+                    result[0] = orientation;
+                }
+            }
+            int exifIfd = ExifUtil.findIfdEntry(data, tiff, ifd0, TAG_EXIF_IFD);
+            if (exifIfd >= 0) {
+                result[1] = findDate(data, tiff, ExifUtil.tiffInt(data, tiff, exifIfd + 8), TAG_DATE_TIME_ORIGINAL);
+            }
+            if (result[1] == 0) {
+                result[1] = findDate(data, tiff, ifd0, TAG_DATE_TIME);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            //EXIF段被截断或偏移错误，保留已解析的部分
+        }
+        return result;
+    }
+
+    /**
+     * @return 日期字符串的绝对位置，没有时返回0
+     */
+    private static int findDate(ByteBuffer data, int tiff, int ifdOffset, int tag) {
+        int entry = ExifUtil.findIfdEntry(data, tiff, ifdOffset, tag);
+        if (entry < 0 || ExifUtil.tiffShort(data, tiff, entry + 2) != TYPE_ASCII
+                || ExifUtil.tiffInt(data, tiff, entry + 4) < DATE_LENGTH) {
+            return 0;
+        }
+        int pos = tiff + ExifUtil.tiffInt(data, tiff, entry + 8);
+        return pos > 0 && pos + DATE_LENGTH <= data.limit() ? pos : 0;
+    }
+
+    /**
+     * 解析"yyyy:MM:dd HH:mm:ss"
+     */
+    private static long parseDate(ByteBuffer data, int pos) {
+        char[] chars = new char[DATE_LENGTH];
+        for (int i = 0; i < DATE_LENGTH; i++) {
+            chars[i] = (char) u8(data, pos + i);
+        }
+        try {
+            return new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).parse(new String(chars)).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static Input channelInput(final FileChannel channel) {
+        return new Input() {
+            @Override
+            public ByteBuffer read(long position, int length) throws IOException {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length));
+                int read;
+                do {
+                    read = channel.read(buffer, position + buffer.position());
+                } while (read > 0 && buffer.hasRemaining());
+                buffer.flip();
+                return buffer;
+            }
+        };
+    }
+
+    private static Input bufferInput(final ByteBuffer data) {
+        return new Input() {
+            @Override
+            public ByteBuffer read(long position, int length) {
+                ByteBuffer buffer = data.duplicate();
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                long start = data.position() + position;
+                if (start >= data.limit()) {
+                    start = data.limit();
+                }
+                buffer.position((int) start);
+                buffer.limit((int) Math.min(data.limit(), start + Math.max(0, length)));
+                return buffer.slice();
+            }
+        };
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int pos, String text) {
+        if (pos + text.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (u8(buffer, pos + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int pos, byte[] bytes) {
+        if (pos + bytes.length > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(ByteBuffer buffer, int pos) {
+        return buffer.get(pos) & 0xFF;
+    }
+
+    private static int u24(ByteBuffer buffer, int pos) {
+        return u8(buffer, pos) | (u8(buffer, pos + 1) << 8) | (u8(buffer, pos + 2) << 16);
+    }
+}
@@ -0,0 +1,140 @@
+package com.sjl.camera.util;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 直接保存ImageReader输出的JPEG图像的任务
+ * <p>平面的直接内存与EXIF文件头一起聚集写入文件，不复制到堆内存，写完后才关闭Image。
+ * 写文件前先从平面采样解码发布低分辨率预览，小尺寸档位从写好的文件采样解码生成。
+ * 连拍帧不生成档位，写完临时文件即结束，由{@link DurableWriter}在提交窗口内与后面的帧一起落盘改名
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class ImageSaveJob extends SaveScheduler.SaveJob {
+    private Image image;
+    private final int degrees;
+    private final TierGenerator tiers;
+    private final PreviewPublisher preview;
+    private final boolean burst;
+
+    /**
+     * @param image   JPEG格式的图像，任务结束后由任务关闭
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径
+     */
+    public ImageSaveJob(Image image, int degrees, String path) {
+        this(image, degrees, path, null);
+    }
+
+    /**
+     * @param image   JPEG格式的图像，任务结束后由任务关闭
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径
+     * @param tiers   同时生成的小尺寸档位，为null时只保存原图
+     */
+    public ImageSaveJob(Image image, int degrees, String path, TierGenerator tiers) {
+        this(image, degrees, path, tiers, null);
+    }
+
+    /**
+     * @param image   JPEG格式的图像，任务结束后由任务关闭
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径
+     * @param tiers   同时生成的小尺寸档位，为null时只保存原图
+     * @param preview 写文件前发布低分辨率预览，为null时不发布
+     */
+    public ImageSaveJob(Image image, int degrees, String path, TierGenerator tiers, PreviewPublisher preview) {
+        super(path);
+        this.image = image;
+        this.degrees = degrees;
+        this.tiers = tiers;
+        this.preview = preview;
+        this.burst = false;
+    }
+
+    /**
+     * 连拍帧
+     *
+     * @param image   JPEG格式的图像，任务结束后由任务关闭
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径，保存完成后要等组提交才出现
+     * @return
+     */
+    public static ImageSaveJob burst(Image image, int degrees, String path) {
+        return new ImageSaveJob(image, degrees, path, true);
+    }
+
+    private ImageSaveJob(Image image, int degrees, String path, boolean burst) {
+        super(path);
+        this.image = image;
+        this.degrees = degrees;
+        this.tiers = null;
+        this.preview = null;
+        this.burst = burst;
+    }
+
+    /**
+     * 是否连拍帧，连拍帧保存完成时文件可能还没出现在目标路径上
+     */
+    public boolean isBurst() {
+        return burst;
+    }
+
+    @Override
+    protected void save() throws IOException {
+        try {
+            ByteBuffer plane = image.getPlanes()[0].getBuffer();
+            if (preview != null) {
+                preview.publish(plane, degrees);
+            }
+            BitmapUtil.saveJpeg(plane, degrees, getPath(), burst, burst ? COMMIT_CALLBACK : null);
+        } finally {
+            discard();
+        }
+        if (tiers != null) {
+            try {
+                //像素未旋转，方向只记录在EXIF中
+                tiers.generate(getPath(), degrees);
+            } catch (IOException e) {
+                //原图已保存，档位缺失时按原图加载
+                e.printStackTrace();
+            }
+        }
+    }
+
+    //连拍帧提交失败时只能记录，保存回调已经结束
+    private static final DurableWriter.CommitCallback COMMIT_CALLBACK = new DurableWriter.CommitCallback() {
+        @Override
+        public void onCommitted(File target) {
+        }
+
+        @Override
+        public void onFailed(File target, IOException e) {
+            e.printStackTrace();
+        }
+    };
+
+    @Override
+    protected SaveScheduler.SaveJob spill(File spillDir) throws IOException {
+        File spillFile = new File(spillDir, FileUtil.getFileName(getPath()));
+        try {
+            BitmapUtil.saveJpeg(image.getPlanes()[0].getBuffer(), degrees, spillFile.getAbsolutePath());
+        } finally {
+            discard();
+        }
+        return JpegSaveJob.moveSpilled(spillFile, getPath(), tiers, degrees);
+    }
+
+    @Override
+    protected void discard() {
+        if (image != null) {
+            image.close();
+            image = null;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.sjl.camera.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 直接保存相机JPEG的任务，方向写入EXIF
+ */
+public class JpegSaveJob extends SaveScheduler.SaveJob {
+    private byte[] data;
+    private final int degrees;
+    private final TierGenerator tiers;
+
+    /**
+     * @param data    相机输出的JPEG
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径
+     */
+    public JpegSaveJob(byte[] data, int degrees, String path) {
+        this(data, degrees, path, null);
+    }
+
+    /**
+     * @param data    相机输出的JPEG
+     * @param degrees 顺时针旋转角度
+     * @param path    目标文件路径
+     * @param tiers   同时生成的小尺寸档位，为null时只保存原图
+     */
+    public JpegSaveJob(byte[] data, int degrees, String path, TierGenerator tiers) {
+        super(path);
+        this.data = data;
+        this.degrees = degrees;
+        this.tiers = tiers;
+    }
+
+    @Override
+    protected void save() throws IOException {
+        BitmapUtil.saveJpeg(data, degrees, getPath());
+        if (tiers != null) {
+            generateTiers(tiers, data, degrees, getPath());
+        }
+        data = null;
+    }
+
+    @Override
+    protected SaveScheduler.SaveJob spill(File spillDir) throws IOException {
+        File spillFile = new File(spillDir, FileUtil.getFileName(getPath()));
+        BitmapUtil.saveJpeg(data, degrees, spillFile.getAbsolutePath());
+        data = null;
+        return moveSpilled(spillFile, getPath(), tiers, degrees);
+    }
+
+    /**
+     * 生成小尺寸档位，失败不影响已保存的原图
+     */
+    static void generateTiers(TierGenerator tiers, byte[] jpeg, int degrees, String path) {
+        try {
+            tiers.generate(jpeg, degrees, path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 把落盘文件移动到目标路径的任务
+     *
+     * @param spillFile 落盘文件
+     * @param path      目标文件路径
+     * @param tiers     移动后从文件生成的小尺寸档位，可为null
+     * @param degrees   顺时针旋转角度
+     * @return
+     */
+    static SaveScheduler.SaveJob moveSpilled(final File spillFile, String path, final TierGenerator tiers, final int degrees) {
+        return new SaveScheduler.SaveJob(path) {
+            @Override
+            protected void save() throws IOException {
+                File target = new File(getPath());
+                FileUtil.makeDirs(target.getParentFile());
+                if (!spillFile.renameTo(target)) {
+                    //跨分区时只能复制
+                    FileUtil.copyFileNio(spillFile, target);
+                    spillFile.delete();
+                }
+                if (tiers != null) {
+                    try {
+                        tiers.generate(getPath(), degrees);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            @Override
+            protected void discard() {
+                spillFile.delete();
+            }
+        };
+    }
+
+    @Override
+    protected void discard() {
+        data = null;
+    }
+}
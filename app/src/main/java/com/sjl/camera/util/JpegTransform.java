@@ -0,0 +1,1308 @@
+package com.sjl.camera.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JPEG无损变换
+ * <p>纯Java实现，只做熵解码得到DCT系数，在系数域完成旋转和镜像后重新熵编码(使用最优哈夫曼表)，
+ * 不解码像素也不重新量化。只支持基线(顺序、哈夫曼)JPEG。
+ * 与jpegtran -trim相同，会被翻转到左边或上边的不完整MCU会被裁掉。
+ * 也可以输出渐进式JPEG：先写DC扫描(1/8分辨率)，再按频段写AC扫描，边编码边写入输出流
+ */
+public class JpegTransform {
+    /**
+     * 变换操作，先按需转置，再在结果上水平/垂直翻转
+     */
+    public enum Op {
+        NONE(false, false, false),
+        FLIP_HORIZONTAL(false, true, false),
+        FLIP_VERTICAL(false, false, true),
+        TRANSPOSE(true, false, false),
+        ROTATE_90(true, true, false),
+        ROTATE_180(false, true, true),
+        ROTATE_270(true, false, true),
+        TRANSVERSE(true, true, true);
+
+        final boolean transpose;
+        final boolean flipX;
+        final boolean flipY;
+
+        Op(boolean transpose, boolean flipX, boolean flipY) {
+            this.transpose = transpose;
+            this.flipX = flipX;
+            this.flipY = flipY;
+        }
+    }
+
+    /**
+     * 渐进式输出进度回调，在编码线程中执行
+     */
+    public interface ProgressListener {
+        /**
+         * DC系数组成的1/8分辨率预览，在写出第一个扫描之前回调
+         *
+         * @param argb   像素，回调返回后不再使用，可以直接持有
+         * @param width
+         * @param height
+         */
+        void onPreview(int[] argb, int width, int height);
+
+        /**
+         * 一个扫描已经写入输出流
+         *
+         * @param index 扫描序号，从1开始
+         * @param count 扫描总数
+         */
+        void onScan(int index, int count);
+    }
+
+    /**
+     * 之字形序号 -> 自然顺序下标
+     */
+    static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static final int MARKER_SOF0 = 0xC0;
+    private static final int MARKER_SOF1 = 0xC1;
+    private static final int MARKER_SOF2 = 0xC2;
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_JPG = 0xC8;
+    private static final int MARKER_DAC = 0xCC;
+    private static final int MARKER_RST0 = 0xD0;
+    private static final int MARKER_RST7 = 0xD7;
+    private static final int MARKER_DQT = 0xDB;
+    private static final int MARKER_DRI = 0xDD;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final int MARKER_COM = 0xFE;
+
+    private JpegTransform() {
+    }
+
+    /**
+     * EXIF方向值对应的纠正操作
+     *
+     * @param orientation EXIF方向值
+     * @return
+     */
+    public static Op forOrientation(int orientation) {
+        switch (orientation) {
+            case ExifUtil.ORIENTATION_FLIP_HORIZONTAL:
+                return Op.FLIP_HORIZONTAL;
+            case ExifUtil.ORIENTATION_ROTATE_180:
+                return Op.ROTATE_180;
+            case ExifUtil.ORIENTATION_FLIP_VERTICAL:
+                return Op.FLIP_VERTICAL;
+            case ExifUtil.ORIENTATION_TRANSPOSE:
+                return Op.TRANSPOSE;
+            case ExifUtil.ORIENTATION_ROTATE_90:
+                return Op.ROTATE_90;
+            case ExifUtil.ORIENTATION_TRANSVERSE:
+                return Op.TRANSVERSE;
+            case ExifUtil.ORIENTATION_ROTATE_270:
+                return Op.ROTATE_270;
+            default:
+                return Op.NONE;
+        }
+    }
+
+    /**
+     * 顺时针旋转后再水平镜像对应的操作
+     *
+     * @param degrees 顺时针旋转角度
+     * @param mirror  是否水平镜像，前置摄像头使用
+     * @return
+     */
+    public static Op forRotation(int degrees, boolean mirror) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return mirror ? Op.TRANSPOSE : Op.ROTATE_90;
+            case 180:
+                return mirror ? Op.FLIP_VERTICAL : Op.ROTATE_180;
+            case 270:
+                return mirror ? Op.TRANSVERSE : Op.ROTATE_270;
+            default:
+                return mirror ? Op.FLIP_HORIZONTAL : Op.NONE;
+        }
+    }
+
+    /**
+     * 按EXIF方向把图像无损转正，方向值重置为1
+     *
+     * @param jpeg
+     * @return 已经是正向时返回原数组
+     * @throws IOException 不是基线JPEG或数据损坏
+     */
+    public static byte[] normalize(byte[] jpeg) throws IOException {
+        Op op = forOrientation(ExifUtil.getOrientation(ByteBuffer.wrap(jpeg)));
+        if (op == Op.NONE) {
+            return jpeg;
+        }
+        return transform(jpeg, op);
+    }
+
+    /**
+     * 无损变换
+     * <p>EXIF中有方向标签时重置为1
+     *
+     * @param jpeg 基线JPEG
+     * @param op   变换操作
+     * @return 新的JPEG数据
+     * @throws IOException 不是基线JPEG或数据损坏
+     */
+    public static byte[] transform(byte[] jpeg, Op op) throws IOException {
+        try {
+            Frame source = Frame.read(jpeg);
+            Frame target = source.transform(op);
+            return target.write(jpeg, source.headerSegments);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated jpeg");
+        }
+    }
+
+    /**
+     * 无损变换并输出渐进式JPEG，边编码边写入输出流
+     * <p>扫描顺序：全部分量的DC、亮度AC 1-5、色度AC 1-63、亮度AC 6-63。
+     * 数据格式错误时在写出任何字节之前抛出异常
+     *
+     * @param jpeg     基线JPEG
+     * @param op       变换操作
+     * @param output   输出流，不会被关闭
+     * @param listener 进度回调，可以为null
+     * @throws IOException 不是基线JPEG、数据损坏或写入失败
+     */
+    public static void transformProgressive(byte[] jpeg, Op op, OutputStream output, ProgressListener listener)
+            throws IOException {
+        Frame source;
+        Frame target;
+        try {
+            source = Frame.read(jpeg);
+            target = source.transform(op);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated jpeg");
+        }
+        target.writeProgressive(jpeg, source.headerSegments, output, listener);
+    }
+
+    /**
+     * 是否为本类支持的基线(顺序、哈夫曼)JPEG，只检查帧头标记
+     *
+     * @param jpeg
+     * @return
+     */
+    public static boolean isBaseline(byte[] jpeg) {
+        if (jpeg == null || jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != ExifUtil.MARKER_SOI) {
+            return false;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                return true;
+            }
+            if (marker >= 0xC2 && marker <= 0xCF && marker != MARKER_DHT && marker != MARKER_JPG
+                    && marker != MARKER_DAC) {
+                return false;
+            }
+            if (marker == ExifUtil.MARKER_SOS || marker == ExifUtil.MARKER_EOI) {
+                return false;
+            }
+            pos += 2 + u16(jpeg, pos + 2);
+        }
+        return false;
+    }
+
+    /**
+     * 哈夫曼解码表
+     */
+    static class HuffTable {
+        private static final int LOOKAHEAD = 9;
+        final int[] lookup = new int[1 << LOOKAHEAD];
+        final int[] maxCode = new int[18];
+        final int[] valPtr = new int[17];
+        final int[] minCode = new int[17];
+        final int[] values;
+
+        HuffTable(int[] counts, int[] values) throws IOException {
+            this.values = values;
+            Arrays.fill(lookup, -1);
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valPtr[length] = k;
+                minCode[length] = code;
+                for (int i = 0; i < counts[length]; i++, k++, code++) {
+                    if (length <= LOOKAHEAD) {
+                        //所有以该码开头的LOOKAHEAD位都解码为同一个符号
+                        int shift = LOOKAHEAD - length;
+                        int base = code << shift;
+                        for (int j = 0; j < 1 << shift; j++) {
+                            lookup[base + j] = (length << 8) | values[k];
+                        }
+                    }
+                }
+                maxCode[length] = counts[length] > 0 ? code - 1 : -1;
+                if (code > 1 << length) {
+                    throw new IOException("bad huffman table");
+                }
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 熵编码数据的位读取器
+     */
+    static class BitReader {
+        final byte[] data;
+        int pos;
+        long bits;
+        int count;
+        boolean marker;
+
+        BitReader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        private void fill() {
+            while (count <= 48) {
+                int b = 0;
+                if (!marker && pos < data.length) {
+                    b = data[pos] & 0xFF;
+                    if (b == 0xFF) {
+                        int next = pos + 1 < data.length ? data[pos + 1] & 0xFF : 0xD9;
+                        if (next == 0) {
+                            pos += 2;
+                        } else {
+                            //遇到标记后补0，pos停在标记上
+                            marker = true;
+                            b = 0;
+                        }
+                    } else {
+                        pos++;
+                    }
+                }
+                bits = (bits << 8) | b;
+                count += 8;
+            }
+        }
+
+        int decode(HuffTable table) throws IOException {
+            fill();
+            int look = (int) (bits >>> (count - HuffTable.LOOKAHEAD)) & ((1 << HuffTable.LOOKAHEAD) - 1);
+            int entry = table.lookup[look];
+            if (entry >= 0) {
+                count -= entry >> 8;
+                return entry & 0xFF;
+            }
+            for (int length = HuffTable.LOOKAHEAD + 1; length <= 16; length++) {
+                int code = (int) (bits >>> (count - length)) & ((1 << length) - 1);
+                if (code <= table.maxCode[length]) {
+                    count -= length;
+                    return table.values[table.valPtr[length] + code - table.minCode[length]];
+                }
+            }
+            throw new IOException("bad huffman code");
+        }
+
+        int receiveExtend(int size) {
+            if (size == 0) {
+                return 0;
+            }
+            fill();
+            int value = (int) (bits >>> (count - size)) & ((1 << size) - 1);
+            count -= size;
+            return value < 1 << (size - 1) ? value - (1 << size) + 1 : value;
+        }
+
+        /**
+         * 丢弃剩余的位并跳过下一个RST标记
+         */
+        void restart() throws IOException {
+            bits = 0;
+            count = 0;
+            marker = false;
+            while (pos + 1 < data.length) {
+                if ((data[pos] & 0xFF) == 0xFF) {
+                    int next = data[pos + 1] & 0xFF;
+                    if (next >= MARKER_RST0 && next <= MARKER_RST7) {
+                        pos += 2;
+                        return;
+                    }
+                    if (next != 0 && next != 0xFF) {
+                        throw new IOException("missing restart marker");
+                    }
+                }
+                pos++;
+            }
+            throw new IOException("missing restart marker");
+        }
+
+        /**
+         * 扫描结束后下一个标记的位置
+         */
+        int markerPosition() {
+            int p = pos;
+            while (p + 1 < data.length) {
+                int next = data[p + 1] & 0xFF;
+                if ((data[p] & 0xFF) == 0xFF && next != 0 && next != 0xFF
+                        && (next < MARKER_RST0 || next > MARKER_RST7)) {
+                    return p;
+                }
+                p++;
+            }
+            return data.length;
+        }
+    }
+
+    /**
+     * 颜色分量
+     */
+    static class Component {
+        int id;
+        int h;
+        int v;
+        int tq;
+        /**
+         * 按MCU补齐后的块数
+         */
+        int blocksWide;
+        int blocksHigh;
+        short[] coefficients;
+        int dcTable;
+        int acTable;
+
+        int offset(int bx, int by) {
+            return (by * blocksWide + bx) * 64;
+        }
+    }
+
+    /**
+     * 整幅图像的DCT系数和量化表
+     */
+    static class Frame {
+        int marker;
+        int width;
+        int height;
+        int maxH;
+        int maxV;
+        Component[] components;
+        /**
+         * 自然顺序的量化表，精度位于下标64
+         */
+        int[][] quantTables = new int[4][];
+        /**
+         * 需要原样复制的APPn/COM段，[起点, 终点)
+         */
+        List<int[]> headerSegments = new ArrayList<int[]>();
+
+        int mcusWide() {
+            return (width + 8 * maxH - 1) / (8 * maxH);
+        }
+
+        int mcusHigh() {
+            return (height + 8 * maxV - 1) / (8 * maxV);
+        }
+
+        /**
+         * 分量实际覆盖的块数(不含补齐)
+         */
+        int componentBlocksWide(Component c) {
+            return ((width * c.h + maxH - 1) / maxH + 7) / 8;
+        }
+
+        int componentBlocksHigh(Component c) {
+            return ((height * c.v + maxV - 1) / maxV + 7) / 8;
+        }
+
+        void allocate() {
+            maxH = 1;
+            maxV = 1;
+            for (Component c : components) {
+                maxH = Math.max(maxH, c.h);
+                maxV = Math.max(maxV, c.v);
+            }
+            for (Component c : components) {
+                c.blocksWide = mcusWide() * c.h;
+                c.blocksHigh = mcusHigh() * c.v;
+                c.coefficients = new short[c.blocksWide * c.blocksHigh * 64];
+            }
+        }
+
+        static Frame read(byte[] data) throws IOException {
+            if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != ExifUtil.MARKER_SOI) {
+                throw new IOException("not a jpeg");
+            }
+            Frame frame = new Frame();
+            HuffTable[] dcTables = new HuffTable[4];
+            HuffTable[] acTables = new HuffTable[4];
+            int restartInterval = 0;
+            boolean scanned = false;
+            int pos = 2;
+            while (true) {
+                if (pos + 1 >= data.length) {
+                    if (scanned) {
+                        //缺少EOI
+                        break;
+                    }
+                    throw new IOException("unexpected end of jpeg");
+                }
+                if ((data[pos] & 0xFF) != 0xFF) {
+                    throw new IOException("marker expected at " + pos);
+                }
+                int marker = data[pos + 1] & 0xFF;
+                if (marker == 0xFF) {
+                    //填充字节
+                    pos++;
+                    continue;
+                }
+                if (marker == ExifUtil.MARKER_EOI) {
+                    break;
+                }
+                int length = u16(data, pos + 2);
+                int start = pos + 4;
+                int end = pos + 2 + length;
+                if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                    frame.readFrameHeader(data, marker, start);
+                } else if (marker >= 0xC2 && marker <= 0xCF && marker != MARKER_DHT && marker != MARKER_JPG
+                        && marker != MARKER_DAC) {
+                    throw new IOException("unsupported jpeg process " + Integer.toHexString(marker));
+                } else if (marker == MARKER_DHT) {
+                    readHuffmanTables(data, start, end, dcTables, acTables);
+                } else if (marker == MARKER_DQT) {
+                    frame.readQuantTables(data, start, end);
+                } else if (marker == MARKER_DRI) {
+                    restartInterval = u16(data, start);
+                } else if (marker == ExifUtil.MARKER_SOS) {
+                    if (frame.components == null) {
+                        throw new IOException("SOS before SOF");
+                    }
+                    pos = frame.readScan(data, start, end, dcTables, acTables, restartInterval);
+                    scanned = true;
+                    continue;
+                } else if ((marker >= MARKER_APP0 && marker <= MARKER_APP15) || marker == MARKER_COM) {
+                    if (!scanned) {
+                        frame.headerSegments.add(new int[]{pos, end});
+                    }
+                }
+                pos = end;
+            }
+            if (frame.components == null) {
+                throw new IOException("no frame");
+            }
+            return frame;
+        }
+
+        private void readFrameHeader(byte[] data, int marker, int pos) throws IOException {
+            if (components != null) {
+                throw new IOException("multiple frames");
+            }
+            if ((data[pos] & 0xFF) != 8) {
+                throw new IOException("unsupported precision " + (data[pos] & 0xFF));
+            }
+            this.marker = marker;
+            height = u16(data, pos + 1);
+            width = u16(data, pos + 3);
+            if (width == 0 || height == 0) {
+                throw new IOException("unsupported frame size " + width + "x" + height);
+            }
+            int count = data[pos + 5] & 0xFF;
+            components = new Component[count];
+            for (int i = 0; i < count; i++) {
+                Component c = new Component();
+                int p = pos + 6 + i * 3;
+                c.id = data[p] & 0xFF;
+                c.h = (data[p + 1] & 0xFF) >> 4;
+                c.v = data[p + 1] & 0x0F;
+                c.tq = data[p + 2] & 0xFF;
+                if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4 || c.tq > 3) {
+                    throw new IOException("bad component " + c.id);
+                }
+                components[i] = c;
+            }
+            allocate();
+        }
+
+        private void readQuantTables(byte[] data, int pos, int end) throws IOException {
+            while (pos < end) {
+                int precision = (data[pos] & 0xFF) >> 4;
+                int id = data[pos] & 0x0F;
+                if (id > 3) {
+                    throw new IOException("bad quant table " + id);
+                }
+                pos++;
+                int[] table = new int[65];
+                for (int k = 0; k < 64; k++) {
+                    if (precision == 0) {
+                        table[ZIGZAG[k]] = data[pos++] & 0xFF;
+                    } else {
+                        table[ZIGZAG[k]] = u16(data, pos);
+                        pos += 2;
+                    }
+                }
+                table[64] = precision;
+                quantTables[id] = table;
+            }
+        }
+
+        private static void readHuffmanTables(byte[] data, int pos, int end, HuffTable[] dcTables,
+                                              HuffTable[] acTables) throws IOException {
+            while (pos < end) {
+                int tableClass = (data[pos] & 0xFF) >> 4;
+                int id = data[pos] & 0x0F;
+                if (id > 3 || tableClass > 1) {
+                    throw new IOException("bad huffman table " + id);
+                }
+                int[] counts = new int[17];
+                int total = 0;
+                for (int i = 1; i <= 16; i++) {
+                    counts[i] = data[pos + i] & 0xFF;
+                    total += counts[i];
+                }
+                pos += 17;
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = data[pos + i] & 0xFF;
+                }
+                pos += total;
+                HuffTable table = new HuffTable(counts, values);
+                if (tableClass == 0) {
+                    dcTables[id] = table;
+                } else {
+                    acTables[id] = table;
+                }
+            }
+        }
+
+        /**
+         * 解码一个扫描的所有系数
+         *
+         * @return 扫描之后下一个标记的位置
+         */
+        private int readScan(byte[] data, int pos, int end, HuffTable[] dcTables, HuffTable[] acTables,
+                             int restartInterval) throws IOException {
+            int count = data[pos] & 0xFF;
+            Component[] scan = new Component[count];
+            HuffTable[] dc = new HuffTable[count];
+            HuffTable[] ac = new HuffTable[count];
+            for (int i = 0; i < count; i++) {
+                int id = data[pos + 1 + i * 2] & 0xFF;
+                int tables = data[pos + 2 + i * 2] & 0xFF;
+                for (Component c : components) {
+                    if (c.id == id) {
+                        scan[i] = c;
+                    }
+                }
+                if (scan[i] == null) {
+                    throw new IOException("unknown component " + id);
+                }
+                dc[i] = dcTables[tables >> 4];
+                ac[i] = acTables[tables & 0x0F];
+                if (dc[i] == null || ac[i] == null) {
+                    throw new IOException("missing huffman table");
+                }
+            }
+            int p = pos + 1 + count * 2;
+            if ((data[p] & 0xFF) != 0 || (data[p + 1] & 0xFF) != 63 || (data[p + 2] & 0xFF) != 0) {
+                throw new IOException("not a sequential scan");
+            }
+            BitReader reader = new BitReader(data, end);
+            int[] predictors = new int[count];
+            int mcus;
+            int mcusWide;
+            if (count == 1) {
+                //单分量扫描按分量自己的块排列，不补齐到MCU
+                mcusWide = componentBlocksWide(scan[0]);
+                mcus = mcusWide * componentBlocksHigh(scan[0]);
+            } else {
+                mcusWide = mcusWide();
+                mcus = mcusWide * mcusHigh();
+            }
+            for (int mcu = 0; mcu < mcus; mcu++) {
+                if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                    reader.restart();
+                    Arrays.fill(predictors, 0);
+                }
+                int mx = mcu % mcusWide;
+                int my = mcu / mcusWide;
+                if (count == 1) {
+                    predictors[0] = readBlock(reader, dc[0], ac[0], scan[0], scan[0].offset(mx, my), predictors[0]);
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    Component c = scan[i];
+                    for (int v = 0; v < c.v; v++) {
+                        for (int h = 0; h < c.h; h++) {
+                            int offset = c.offset(mx * c.h + h, my * c.v + v);
+                            predictors[i] = readBlock(reader, dc[i], ac[i], c, offset, predictors[i]);
+                        }
+                    }
+                }
+            }
+            return reader.markerPosition();
+        }
+
+        private static int readBlock(BitReader reader, HuffTable dc, HuffTable ac, Component c, int offset,
+                                     int predictor) throws IOException {
+            short[] block = c.coefficients;
+            predictor += reader.receiveExtend(reader.decode(dc));
+            block[offset] = (short) predictor;
+            for (int k = 1; k < 64; ) {
+                int rs = reader.decode(ac);
+                int run = rs >> 4;
+                int size = rs & 0x0F;
+                if (size == 0) {
+                    if (run != 15) {
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += run;
+                if (k > 63) {
+                    throw new IOException("bad ac coefficient index");
+                }
+                block[offset + ZIGZAG[k]] = (short) reader.receiveExtend(size);
+                k++;
+            }
+            return predictor;
+        }
+
+        /**
+         * 在系数域变换，生成新的帧
+         */
+        Frame transform(Op op) {
+            //会被翻转到左/上边的方向需要裁掉不完整的MCU
+            boolean trimWidth = op.transpose ? op.flipY : op.flipX;
+            boolean trimHeight = op.transpose ? op.flipX : op.flipY;
+            int srcWidth = width;
+            int srcHeight = height;
+            if (trimWidth && width >= 8 * maxH) {
+                srcWidth = width / (8 * maxH) * (8 * maxH);
+            }
+            if (trimHeight && height >= 8 * maxV) {
+                srcHeight = height / (8 * maxV) * (8 * maxV);
+            }
+            Frame target = new Frame();
+            target.marker = marker;
+            target.width = op.transpose ? srcHeight : srcWidth;
+            target.height = op.transpose ? srcWidth : srcHeight;
+            target.components = new Component[components.length];
+            for (int i = 0; i < components.length; i++) {
+                Component c = components[i];
+                Component t = new Component();
+                t.id = c.id;
+                t.h = op.transpose ? c.v : c.h;
+                t.v = op.transpose ? c.h : c.v;
+                t.tq = c.tq;
+                target.components[i] = t;
+            }
+            target.allocate();
+            for (int i = 0; i < quantTables.length; i++) {
+                int[] table = quantTables[i];
+                if (table != null && op.transpose) {
+                    int[] transposed = new int[65];
+                    for (int k = 0; k < 64; k++) {
+                        transposed[(k & 7) * 8 + (k >> 3)] = table[k];
+                    }
+                    transposed[64] = table[64];
+                    table = transposed;
+                }
+                target.quantTables[i] = table;
+            }
+            for (int i = 0; i < components.length; i++) {
+                Component src = components[i];
+                Component dst = target.components[i];
+                int blocksWide = target.componentBlocksWide(dst);
+                int blocksHigh = target.componentBlocksHigh(dst);
+                for (int y = 0; y < blocksHigh; y++) {
+                    for (int x = 0; x < blocksWide; x++) {
+                        int x0 = op.flipX ? blocksWide - 1 - x : x;
+                        int y0 = op.flipY ? blocksHigh - 1 - y : y;
+                        int srcOffset = op.transpose ? src.offset(y0, x0) : src.offset(x0, y0);
+                        transformBlock(src.coefficients, srcOffset, dst.coefficients, dst.offset(x, y), op);
+                    }
+                }
+            }
+            return target;
+        }
+
+        private static void transformBlock(short[] src, int srcOffset, short[] dst, int dstOffset, Op op) {
+            for (int v = 0; v < 8; v++) {
+                for (int u = 0; u < 8; u++) {
+                    int value = op.transpose ? src[srcOffset + u * 8 + v] : src[srcOffset + v * 8 + u];
+                    //翻转等价于奇数频率取反
+                    if ((op.flipX && (u & 1) != 0) != (op.flipY && (v & 1) != 0)) {
+                        value = -value;
+                    }
+                    dst[dstOffset + v * 8 + u] = (short) value;
+                }
+            }
+        }
+
+        /**
+         * 写出完整的JPEG
+         *
+         * @param source   原始数据，用于复制APPn/COM段
+         * @param segments 需要复制的段
+         */
+        byte[] write(byte[] source, List<int[]> segments) throws IOException {
+            if (components.length > 4) {
+                throw new IOException("too many components " + components.length);
+            }
+            BitWriter out = new BitWriter(source.length + 1024, null);
+            writeHeader(out, source, segments, marker);
+            new ScanEncoder(this, components, 0, 63).write(out);
+            out.writeMarker(ExifUtil.MARKER_EOI);
+            return out.toByteArray();
+        }
+
+        /**
+         * 写出渐进式JPEG，每个扫描结束后写入输出流
+         *
+         * @param source   原始数据，用于复制APPn/COM段
+         * @param segments 需要复制的段
+         * @param output   输出流
+         * @param listener 进度回调，可以为null
+         */
+        void writeProgressive(byte[] source, List<int[]> segments, OutputStream output, ProgressListener listener)
+                throws IOException {
+            if (components.length > 4) {
+                throw new IOException("too many components " + components.length);
+            }
+            if (listener != null && (components.length == 1 || components.length == 3)) {
+                listener.onPreview(dcPreview(), previewWidth(), previewHeight());
+            }
+            List<ScanEncoder> scans = new ArrayList<ScanEncoder>();
+            scans.add(new ScanEncoder(this, components, 0, 0));
+            scans.add(new ScanEncoder(this, new Component[]{components[0]}, 1, 5));
+            for (int i = 1; i < components.length; i++) {
+                scans.add(new ScanEncoder(this, new Component[]{components[i]}, 1, 63));
+            }
+            scans.add(new ScanEncoder(this, new Component[]{components[0]}, 6, 63));
+            BitWriter out = new BitWriter(Math.min(source.length + 1024, BitWriter.DRAIN_SIZE * 2), output);
+            writeHeader(out, source, segments, MARKER_SOF2);
+            for (int i = 0; i < scans.size(); i++) {
+                scans.get(i).write(out);
+                if (i == scans.size() - 1) {
+                    out.writeMarker(ExifUtil.MARKER_EOI);
+                }
+                out.drain();
+                output.flush();
+                if (listener != null) {
+                    listener.onScan(i + 1, scans.size());
+                }
+            }
+        }
+
+        /**
+         * 文件头：SOI、复制的APPn/COM段、量化表和帧头
+         */
+        private void writeHeader(BitWriter out, byte[] source, List<int[]> segments, int sofMarker) {
+            ByteBuffer orientationView = ByteBuffer.wrap(source);
+            int orientationPos = ExifUtil.findOrientation(orientationView);
+            boolean littleEndian = orientationPos >= 0
+                    && ExifUtil.u8(orientationView, ExifUtil.findTiff(orientationView)) == 'I';
+            out.writeMarker(ExifUtil.MARKER_SOI);
+            for (int[] segment : segments) {
+                int start = out.size();
+                out.writeBytes(source, segment[0], segment[1] - segment[0]);
+                if (orientationPos >= segment[0] && orientationPos + 2 <= segment[1]) {
+                    //方向已经写进像素
+                    int p = start + orientationPos - segment[0];
+                    out.set(p, littleEndian ? ExifUtil.ORIENTATION_NORMAL : 0);
+                    out.set(p + 1, littleEndian ? 0 : ExifUtil.ORIENTATION_NORMAL);
+                }
+            }
+            writeQuantTables(out);
+            writeFrameHeader(out, sofMarker);
+        }
+
+        /**
+         * 每个亮度块的DC值还原为块均值，色度按采样比例取对应的块，转为ARGB
+         */
+        private int[] dcPreview() {
+            Component luma = components[0];
+            int width = previewWidth();
+            int height = previewHeight();
+            int[] argb = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int l = dcMean(luma, x * luma.h / maxH, y * luma.v / maxV);
+                    if (components.length == 1) {
+                        argb[y * width + x] = 0xFF000000 | (l << 16) | (l << 8) | l;
+                        continue;
+                    }
+                    int cb = dcMean(components[1], x * components[1].h / maxH, y * components[1].v / maxV) - 128;
+                    int cr = dcMean(components[2], x * components[2].h / maxH, y * components[2].v / maxV) - 128;
+                    //JFIF YCbCr -> RGB，系数放大1024倍
+                    int r = clamp(l + ((1436 * cr) >> 10));
+                    int g = clamp(l - ((352 * cb + 731 * cr) >> 10));
+                    int b = clamp(l + ((1815 * cb) >> 10));
+                    argb[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                }
+            }
+            return argb;
+        }
+
+        private int previewWidth() {
+            return componentBlocksWide(components[0]) * maxH / components[0].h;
+        }
+
+        private int previewHeight() {
+            return componentBlocksHigh(components[0]) * maxV / components[0].v;
+        }
+
+        /**
+         * DC系数反量化后除以8即为块内像素均值(电平偏移前)
+         */
+        private int dcMean(Component c, int bx, int by) {
+            int dc = c.coefficients[c.offset(bx, by)] * quantTables[c.tq][0];
+            return clamp(((dc + (dc >= 0 ? 4 : -4)) / 8) + 128);
+        }
+
+        private void writeQuantTables(BitWriter out) {
+            for (int i = 0; i < quantTables.length; i++) {
+                int[] table = quantTables[i];
+                if (table == null) {
+                    continue;
+                }
+                int precision = table[64];
+                out.writeMarker(MARKER_DQT);
+                out.writeShort(2 + 1 + 64 * (precision + 1));
+                out.writeByte((precision << 4) | i);
+                for (int k = 0; k < 64; k++) {
+                    if (precision == 0) {
+                        out.writeByte(table[ZIGZAG[k]]);
+                    } else {
+                        out.writeShort(table[ZIGZAG[k]]);
+                    }
+                }
+            }
+        }
+
+        private void writeFrameHeader(BitWriter out, int sofMarker) {
+            out.writeMarker(sofMarker);
+            out.writeShort(8 + components.length * 3);
+            out.writeByte(8);
+            out.writeShort(height);
+            out.writeShort(width);
+            out.writeByte(components.length);
+            for (Component c : components) {
+                out.writeByte(c.id);
+                out.writeByte((c.h << 4) | c.v);
+                out.writeByte(c.tq);
+            }
+        }
+    }
+
+    /**
+     * 用最优哈夫曼表写出单个扫描，第一个分量用0号表，其余分量共用1号表
+     * <p>频段为[ss, se]，基线扫描为[0, 63]；渐进式的AC扫描只能包含一个分量
+     */
+    static class ScanEncoder {
+        private final Frame frame;
+        private final Component[] components;
+        private final int ss;
+        private final int se;
+        private final int[][] dcFreq = new int[2][257];
+        private final int[][] acFreq = new int[2][257];
+        private final int[][] dcCodes = new int[2][];
+        private final int[][] dcSizes = new int[2][];
+        private final int[][] acCodes = new int[2][];
+        private final int[][] acSizes = new int[2][];
+        private BitWriter out;
+
+        ScanEncoder(Frame frame, Component[] components, int ss, int se) {
+            this.frame = frame;
+            this.components = components;
+            this.ss = ss;
+            this.se = se;
+        }
+
+        void write(BitWriter out) throws IOException {
+            //表号在写出时才分配，渐进式的各个扫描共用分量
+            for (int i = 0; i < components.length; i++) {
+                components[i].dcTable = i == 0 ? 0 : 1;
+                components[i].acTable = i == 0 ? 0 : 1;
+            }
+            //第一遍统计符号频率
+            encodeBlocks();
+            int tables = components.length > 1 ? 2 : 1;
+            boolean hasDc = ss == 0;
+            boolean hasAc = se > 0;
+            out.writeMarker(MARKER_DHT);
+            int length = 2;
+            List<int[][]> specs = new ArrayList<int[][]>();
+            for (int i = 0; i < tables; i++) {
+                int[][] dc = hasDc ? optimalTable(dcFreq[i]) : null;
+                int[][] ac = hasAc ? optimalTable(acFreq[i]) : null;
+                specs.add(dc);
+                specs.add(ac);
+                if (hasDc) {
+                    length += 17 + dc[1].length;
+                    buildCodes(dc, i, true);
+                }
+                if (hasAc) {
+                    length += 17 + ac[1].length;
+                    buildCodes(ac, i, false);
+                }
+            }
+            out.writeShort(length);
+            for (int i = 0; i < tables; i++) {
+                if (hasDc) {
+                    writeTable(out, 0x00 | i, specs.get(i * 2));
+                }
+                if (hasAc) {
+                    writeTable(out, 0x10 | i, specs.get(i * 2 + 1));
+                }
+            }
+            out.writeMarker(ExifUtil.MARKER_SOS);
+            out.writeShort(6 + components.length * 2);
+            out.writeByte(components.length);
+            for (Component c : components) {
+                out.writeByte(c.id);
+                out.writeByte((c.dcTable << 4) | c.acTable);
+            }
+            out.writeByte(ss);
+            out.writeByte(se);
+            out.writeByte(0);
+            //第二遍写出
+            this.out = out;
+            encodeBlocks();
+            out.flushBits();
+        }
+
+        private void encodeBlocks() throws IOException {
+            int[] predictors = new int[components.length];
+            if (components.length == 1) {
+                Component c = components[0];
+                int blocksWide = frame.componentBlocksWide(c);
+                int blocksHigh = frame.componentBlocksHigh(c);
+                for (int y = 0; y < blocksHigh; y++) {
+                    for (int x = 0; x < blocksWide; x++) {
+                        predictors[0] = encodeBlock(c, c.offset(x, y), predictors[0]);
+                    }
+                    drain();
+                }
+                return;
+            }
+            int mcusWide = frame.mcusWide();
+            int mcusHigh = frame.mcusHigh();
+            for (int my = 0; my < mcusHigh; my++) {
+                for (int mx = 0; mx < mcusWide; mx++) {
+                    for (int i = 0; i < components.length; i++) {
+                        Component c = components[i];
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                predictors[i] = encodeBlock(c, c.offset(mx * c.h + h, my * c.v + v), predictors[i]);
+                            }
+                        }
+                    }
+                }
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            if (out != null) {
+                out.drainIfFull();
+            }
+        }
+
+        private int encodeBlock(Component c, int offset, int predictor) {
+            short[] block = c.coefficients;
+            int dc = block[offset];
+            if (ss == 0) {
+                emit(true, c.dcTable, dc - predictor, 0);
+            }
+            int run = 0;
+            //渐进式AC扫描中0x00为EOB0，即只结束当前块，与基线的EOB编码相同
+            for (int k = Math.max(ss, 1); k <= se; k++) {
+                int value = block[offset + ZIGZAG[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    emitSymbol(false, c.acTable, 0xF0);
+                    run -= 16;
+                }
+                emit(false, c.acTable, value, run);
+                run = 0;
+            }
+            if (run > 0) {
+                emitSymbol(false, c.acTable, 0x00);
+            }
+            return dc;
+        }
+
+        private void emit(boolean dc, int table, int value, int run) {
+            int magnitude = value < 0 ? -value : value;
+            int size = 0;
+            while (magnitude != 0) {
+                size++;
+                magnitude >>= 1;
+            }
+            emitSymbol(dc, table, (run << 4) | size);
+            if (size > 0 && out != null) {
+                out.writeBits(value < 0 ? value - 1 : value, size);
+            }
+        }
+
+        private void emitSymbol(boolean dc, int table, int symbol) {
+            if (out == null) {
+                (dc ? dcFreq : acFreq)[table][symbol]++;
+                return;
+            }
+            int[] codes = dc ? dcCodes[table] : acCodes[table];
+            int[] sizes = dc ? dcSizes[table] : acSizes[table];
+            out.writeBits(codes[symbol], sizes[symbol]);
+        }
+
+        private void buildCodes(int[][] spec, int table, boolean dc) {
+            int[] counts = spec[0];
+            int[] values = spec[1];
+            int[] codes = new int[256];
+            int[] sizes = new int[256];
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < counts[length]; i++) {
+                    codes[values[k]] = code++;
+                    sizes[values[k]] = length;
+                    k++;
+                }
+                code <<= 1;
+            }
+            if (dc) {
+                dcCodes[table] = codes;
+                dcSizes[table] = sizes;
+            } else {
+                acCodes[table] = codes;
+                acSizes[table] = sizes;
+            }
+        }
+
+        private static void writeTable(BitWriter out, int classAndId, int[][] spec) {
+            out.writeByte(classAndId);
+            for (int i = 1; i <= 16; i++) {
+                out.writeByte(spec[0][i]);
+            }
+            for (int value : spec[1]) {
+                out.writeByte(value);
+            }
+        }
+
+        /**
+         * 按符号频率生成码长不超过16位的最优哈夫曼表(JPEG标准附录K.2)
+         *
+         * @return {每个码长的符号数[17], 按码长排序的符号}
+         */
+        static int[][] optimalTable(int[] frequencies) {
+            int[] freq = Arrays.copyOf(frequencies, 257);
+            //保留一个符号，保证不会出现全1的码
+            freq[256] = 1;
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v) {
+                        v = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v && i != c1) {
+                        v = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            //把超过16位的码长调整到16位以内
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            //去掉保留符号
+            int i = 16;
+            while (bits[i] == 0) {
+                i--;
+            }
+            bits[i]--;
+            int[] counts = Arrays.copyOf(bits, 17);
+            int total = 0;
+            for (int length = 1; length <= 16; length++) {
+                total += counts[length];
+            }
+            int[] values = new int[total];
+            int k = 0;
+            for (int length = 1; length <= 32 && k < total; length++) {
+                for (int symbol = 0; symbol < 256 && k < total; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        values[k++] = symbol;
+                    }
+                }
+            }
+            return new int[][]{counts, values};
+        }
+    }
+
+    /**
+     * 可增长的输出缓冲，支持带0xFF填充的位写入
+     * <p>有输出流时，缓冲超过{@link #DRAIN_SIZE}后在块边界写入输出流
+     */
+    static class BitWriter {
+        static final int DRAIN_SIZE = 64 * 1024;
+        private final OutputStream sink;
+        private byte[] buffer;
+        private int size;
+        private long bits;
+        private int count;
+
+        BitWriter(int capacity, OutputStream sink) {
+            buffer = new byte[capacity];
+            this.sink = sink;
+        }
+
+        /**
+         * 把已经成形的整字节写入输出流，未满8位的部分留在位缓冲中
+         */
+        void drain() throws IOException {
+            if (sink != null && size > 0) {
+                sink.write(buffer, 0, size);
+                size = 0;
+            }
+        }
+
+        void drainIfFull() throws IOException {
+            if (size >= DRAIN_SIZE) {
+                drain();
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        void set(int pos, int value) {
+            buffer[pos] = (byte) value;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeShort(int value) {
+            writeByte(value >> 8);
+            writeByte(value);
+        }
+
+        void writeMarker(int marker) {
+            writeByte(0xFF);
+            writeByte(marker);
+        }
+
+        void writeBytes(byte[] data, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(data, offset, buffer, size, length);
+            size += length;
+        }
+
+        void writeBits(int value, int length) {
+            bits = (bits << length) | (value & ((1L << length) - 1));
+            count += length;
+            while (count >= 8) {
+                count -= 8;
+                int b = (int) (bits >>> count) & 0xFF;
+                writeByte(b);
+                if (b == 0xFF) {
+                    writeByte(0);
+                }
+            }
+        }
+
+        /**
+         * 剩余的位用1补齐到整字节
+         */
+        void flushBits() {
+            if (count > 0) {
+                writeBits((1 << (8 - count)) - 1, 8 - count);
+            }
+            bits = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static int u16(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,74 @@
+package com.sjl.camera.util;
+
+import android.hardware.Camera;
+
+/**
+ * Camera1摄像头信息缓存
+ * <p>进程内只调用一次Camera.getCameraInfo枚举摄像头，按朝向查找真实的摄像头id
+ */
+@SuppressWarnings("deprecation")
+public class LegacyCameraRegistry {
+    private static int[] facings;
+    private static int[] orientations;
+
+    private LegacyCameraRegistry() {
+    }
+
+    /**
+     * 枚举摄像头，已枚举过时直接返回
+     */
+    public static synchronized void load() {
+        if (facings != null) {
+            return;
+        }
+        int count = Camera.getNumberOfCameras();
+        int[] facingList = new int[count];
+        int[] orientationList = new int[count];
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        for (int i = 0; i < count; i++) {
+            Camera.getCameraInfo(i, cameraInfo);
+            facingList[i] = cameraInfo.facing;
+            orientationList[i] = cameraInfo.orientation;
+        }
+        orientations = orientationList;
+        facings = facingList;
+    }
+
+    /**
+     * 按朝向查找摄像头id
+     *
+     * @param facing Camera.CameraInfo.CAMERA_FACING_*
+     * @return 摄像头id，没有时返回-1
+     */
+    public static synchronized int getCameraId(int facing) {
+        load();
+        for (int i = 0; i < facings.length; i++) {
+            if (facings[i] == facing) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 摄像头朝向
+     *
+     * @param cameraId
+     * @return Camera.CameraInfo.CAMERA_FACING_*
+     */
+    public static synchronized int getFacing(int cameraId) {
+        load();
+        return facings[cameraId];
+    }
+
+    /**
+     * 传感器顺时针方向角度
+     *
+     * @param cameraId
+     * @return
+     */
+    public static synchronized int getOrientation(int cameraId) {
+        load();
+        return orientations[cameraId];
+    }
+}
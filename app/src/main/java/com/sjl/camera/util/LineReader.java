@@ -0,0 +1,368 @@
+package com.sjl.camera.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按行流式读取文本文件
+ * <p>在FileChannel上按块读取，在字节中查找换行后解码，读取缓冲和解码缓冲都复用，
+ * 内存占用只和最长的一行有关，与文件大小无关。可以选择按窗口内存映射，或者按字节范围分段并行读取。
+ * <p>以\n、\r\n或单独的\r分行，与BufferedReader.readLine一致；编码必须兼容ASCII(UTF-8、GBK等)，不支持UTF-16
+ */
+public class LineReader implements Iterator<String>, Closeable {
+    /**
+     * 行回调
+     */
+    public interface Callback {
+        /**
+         * @param line 不含换行符的一行
+         */
+        void onLine(String line);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 内存映射模式每次映射的大小
+     */
+    private static final long MAP_WINDOW = 32 * 1024 * 1024;
+    /**
+     * 并行模式分段的最小字节数，小于它的文件不分段
+     */
+    private static final int PARALLEL_BLOCK = 1024 * 1024;
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private final boolean mapped;
+    private final CharsetDecoder decoder;
+    //下一次从文件读取的位置，以及行首必须小于的位置
+    private long position;
+    private final long end;
+    private long lineStart;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean eof;
+    private String next;
+
+    /**
+     * @param file        文本文件
+     * @param charsetName 编码，兼容ASCII
+     * @throws IOException
+     */
+    public LineReader(File file, String charsetName) throws IOException {
+        this(file, Charset.forName(charsetName), false);
+    }
+
+    /**
+     * @param file    文本文件
+     * @param charset 编码，兼容ASCII
+     * @param mapped  是否按窗口内存映射读取
+     * @throws IOException
+     */
+    public LineReader(File file, Charset charset, boolean mapped) throws IOException {
+        this(file, charset, mapped, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * 只读取行首在[start, end)内的行，start不在行首时跳过所在的那一行
+     */
+    private LineReader(File file, Charset charset, boolean mapped, long start, long end) throws IOException {
+        byte[] newline = "\n".getBytes(charset);
+        if (newline.length != 1 || newline[0] != '\n')
+            throw new IllegalArgumentException("charset not ASCII compatible: " + charset);
+        this.input = new FileInputStream(file);
+        this.channel = input.getChannel();
+        this.mapped = mapped;
+        this.end = Math.min(end, channel.size());
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (start > 0) {
+            //从前一个字节开始找换行，start恰好是行首时不会跳过这一行
+            position = start - 1;
+            lineStart = position;
+            skipLine();
+        }
+    }
+
+    /**
+     * 读取一行
+     *
+     * @return 不含换行符的一行，读完返回null
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        if (next != null) {
+            String line = next;
+            next = null;
+            return line;
+        }
+        if (lineStart >= end) {
+            return null;
+        }
+        //已查找过的字节数，fill()会移动缓冲内容，所以不记绝对下标
+        int scanned = 0;
+        while (true) {
+            int i = findLineEnd(pos + scanned);
+            if (isCompleteLineEnd(i)) {
+                String line = decode(pos, i);
+                consume(i + lineEndLength(i));
+                return line;
+            }
+            //缓冲末尾的\r要再读一个字节才知道后面是不是\n，下次从\r开始查找
+            scanned = (i >= 0 ? i : limit) - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return null;
+                }
+                //最后一行没有换行符，或者以\r结尾
+                String line = decode(pos, pos + scanned);
+                consume(limit);
+                return line;
+            }
+        }
+    }
+
+    /**
+     * 逐行回调，直到读完
+     *
+     * @param callback
+     * @throws IOException
+     */
+    public void forEach(Callback callback) throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            callback.onLine(line);
+        }
+    }
+
+    /**
+     * 读取出错时抛出IllegalStateException
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readLine();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        String line = next;
+        next = null;
+        return line;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        IOUtil.close(channel);
+        IOUtil.close(input);
+    }
+
+    /**
+     * 逐行回调读取整个文件
+     *
+     * @param file     文本文件
+     * @param charset  编码，兼容ASCII
+     * @param mapped   是否按窗口内存映射读取
+     * @param callback 行回调
+     * @throws IOException
+     */
+    public static void forEachLine(File file, Charset charset, boolean mapped, Callback callback) throws IOException {
+        LineReader reader = new LineReader(file, charset, mapped);
+        try {
+            reader.forEach(callback);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 按字节范围分段，在{@link ParallelUtil}的IO线程池中并行读取
+     * <p>每行只属于行首所在的分段。回调在多个线程中同时执行，行的先后顺序只在同一分段内保证
+     *
+     * @param file     文本文件
+     * @param charset  编码，兼容ASCII
+     * @param callback 行回调，需要线程安全
+     * @throws IOException
+     */
+    public static void forEachLineParallel(final File file, final Charset charset, final Callback callback)
+            throws IOException {
+        final long size = file.length();
+        int blocks = (int) ((size + PARALLEL_BLOCK - 1) / PARALLEL_BLOCK);
+        final AtomicReference<IOException> error = new AtomicReference<IOException>();
+        ParallelUtil.forEachBlockingBand(blocks, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                LineReader reader = null;
+                try {
+                    reader = new LineReader(file, charset, false, (long) start * PARALLEL_BLOCK,
+                            Math.min(size, (long) end * PARALLEL_BLOCK));
+                    String line;
+                    while (error.get() == null && (line = reader.readLine()) != null) {
+                        callback.onLine(line);
+                    }
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    if (reader != null) {
+                        reader.close();
+                    }
+                }
+            }
+        });
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * 跳过到下一个换行符之后
+     */
+    private void skipLine() throws IOException {
+        while (true) {
+            int i = findLineEnd(pos);
+            if (isCompleteLineEnd(i)) {
+                consume(i + lineEndLength(i));
+                return;
+            }
+            //保留缓冲末尾的\r，读入下一块后再判断
+            consume(i >= 0 ? i : limit);
+            if (!fill()) {
+                consume(limit);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从from开始查找\n或\r
+     *
+     * @return 下标，没有时返回-1
+     */
+    private int findLineEnd(int from) {
+        for (int i = from; i < limit; i++) {
+            byte b = buffer[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 下标处的换行符是否已能确定长度，\r在缓冲末尾时还要看下一个字节
+     */
+    private boolean isCompleteLineEnd(int i) {
+        return i >= 0 && (buffer[i] == '\n' || i + 1 < limit);
+    }
+
+    /**
+     * \r\n算一个换行符
+     */
+    private int lineEndLength(int i) {
+        return buffer[i] == '\r' && i + 1 < limit && buffer[i + 1] == '\n' ? 2 : 1;
+    }
+
+    private void consume(int newPos) {
+        lineStart += newPos - pos;
+        pos = newPos;
+    }
+
+    /**
+     * 把未处理的字节移到缓冲开头，再读入一块，一行超过缓冲大小时扩容
+     *
+     * @return 文件已读完返回false
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        } else if (limit == buffer.length) {
+            byte[] grown = new byte[buffer.length << 1];
+            System.arraycopy(buffer, 0, grown, 0, limit);
+            buffer = grown;
+        }
+        long fileSize = channel.size();
+        int count = (int) Math.min(buffer.length - limit, fileSize - position);
+        if (count <= 0) {
+            eof = true;
+            return false;
+        }
+        if (mapped) {
+            if (window == null || position < windowStart || position + count > windowStart + window.capacity()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, fileSize - position));
+                count = Math.min(count, window.capacity());
+            }
+            window.position((int) (position - windowStart));
+            window.get(buffer, limit, count);
+        } else {
+            count = channel.read(ByteBuffer.wrap(buffer, limit, count), position);
+            if (count <= 0) {
+                eof = true;
+                return false;
+            }
+        }
+        position += count;
+        limit += count;
+        return true;
+    }
+
+    /**
+     * 解码[from, to)
+     */
+    private String decode(int from, int to) throws CharacterCodingException {
+        int length = to - from;
+        if (length == 0) {
+            return "";
+        }
+        int maxChars = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(maxChars);
+        }
+        chars.clear();
+        decoder.reset();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, from, length);
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError()) {
+            result.throwException();
+        }
+        decoder.flush(chars);
+        return new String(chars.array(), 0, chars.position());
+    }
+}
@@ -0,0 +1,97 @@
+package com.sjl.camera.util;
+
+/**
+ * 预览帧亮度测量
+ * <p>按网格采样Y平面求平均亮度，多帧平滑后按两个阈值判断是否暗光，阈值之间保持原状态，避免在边界反复切换。
+ * 只在一个线程中使用
+ */
+public class LumaMeter {
+    /**
+     * 平均亮度低于它时进入暗光状态
+     */
+    public static final int DARK_THRESHOLD = 40;
+    /**
+     * 平均亮度高于它时退出暗光状态
+     */
+    public static final int BRIGHT_THRESHOLD = 60;
+    /**
+     * 采样间隔的像素数，1080p预览每帧约3万个采样
+     */
+    private static final int SAMPLE_STEP = 8;
+    /**
+     * 平滑系数的倒数，新帧占1/4
+     */
+    private static final int SMOOTHING = 4;
+
+    private int average = -1;
+    private boolean dark;
+
+    /**
+     * 求Y平面的平均亮度
+     *
+     * @param y         Y平面，NV21的前width*height字节
+     * @param width     宽
+     * @param height    高
+     * @param rowStride 行跨度
+     * @param step      采样间隔，1为逐像素
+     * @return 0-255，没有像素时返回0
+     */
+    public static int meanLuma(byte[] y, int width, int height, int rowStride, int step) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        if ((long) (height - 1) * rowStride + width > y.length)
+            throw new IllegalArgumentException("buffer too small");
+        step = Math.max(1, step);
+        long sum = 0;
+        int count = 0;
+        //从间隔的一半开始，采样点落在网格中心
+        for (int row = step >> 1; row < height; row += step) {
+            int p = row * rowStride;
+            for (int x = step >> 1; x < width; x += step) {
+                sum += y[p + x] & 0xFF;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : (int) (sum / count);
+    }
+
+    /**
+     * 测量一帧NV21预览
+     *
+     * @param nv21   NV21数据
+     * @param width  宽
+     * @param height 高
+     * @return 暗光状态改变时返回true
+     */
+    public boolean update(byte[] nv21, int width, int height) {
+        int luma = meanLuma(nv21, width, height, width, SAMPLE_STEP);
+        average = average < 0 ? luma : average + (luma - average) / SMOOTHING;
+        boolean wasDark = dark;
+        if (average < DARK_THRESHOLD) {
+            dark = true;
+        } else if (average > BRIGHT_THRESHOLD) {
+            dark = false;
+        }
+        return dark != wasDark;
+    }
+
+    /**
+     * 平滑后的平均亮度，还没有测量时返回-1
+     */
+    public int getAverage() {
+        return average;
+    }
+
+    public boolean isDark() {
+        return dark;
+    }
+
+    /**
+     * 清除平滑状态，切换摄像头后调用
+     */
+    public void reset() {
+        average = -1;
+        dark = false;
+    }
+}
@@ -0,0 +1,182 @@
+package com.sjl.camera.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 按行分段的并行计算工具
+ * <p>共享一个按CPU核数创建的线程池，调用线程也参与计算。
+ * 读文件等会阻塞的任务用{@link #forEachBlockingBand}，在单独的IO线程池中执行，不占用计算线程
+ */
+public class ParallelUtil {
+    private static final String TAG = "ParallelUtil";
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    /**
+     * IO线程池的大小，线程大部分时间在等待读取，多于核数
+     */
+    private static final int IO_PARALLELISM = PARALLELISM * 2;
+    private static ExecutorService executor;
+    private static ExecutorService ioExecutor;
+
+    private ParallelUtil() {
+    }
+
+    /**
+     * 分段任务
+     */
+    public interface BandTask {
+        /**
+         * 处理[start, end)范围
+         */
+        void run(int start, int end);
+    }
+
+    /**
+     * 可用的并行度(CPU核数)
+     */
+    public static int getParallelism() {
+        return PARALLELISM;
+    }
+
+    /**
+     * 把[0, count)按CPU核数分段并行执行，全部完成后返回
+     * <p>在线程池的线程中嵌套调用时直接在当前线程执行全部范围，避免所有线程都在等待子任务而死锁。
+     * 某一段抛出异常时仍等待其余段结束再抛出，返回后不会再有线程访问调用方的数据
+     *
+     * @param count 总行数
+     * @param align 每段起点对齐的行数，例如YUV420按2行对齐
+     * @param task  分段任务
+     */
+    public static void forEachBand(int count, int align, BandTask task) {
+        forEachBand(count, align, PARALLELISM, getExecutor(), task);
+    }
+
+    /**
+     * 把[0, count)分段，在IO线程池中并行执行会阻塞的任务，全部完成后返回
+     * <p>嵌套调用和异常的处理与{@link #forEachBand}相同
+     *
+     * @param count 总数
+     * @param task  分段任务，例如每段读取一部分文件
+     */
+    public static void forEachBlockingBand(int count, BandTask task) {
+        forEachBand(count, 1, IO_PARALLELISM, getIoExecutor(), task);
+    }
+
+    private static void forEachBand(int count, int align, int parallelism, ExecutorService pool, final BandTask task) {
+        int bands = Math.min(parallelism, Math.max(1, count / Math.max(align, 1)));
+        if (bands <= 1 || Thread.currentThread() instanceof PoolThread) {
+            task.run(0, count);
+            return;
+        }
+        int step = (count + bands - 1) / bands;
+        step = (step + align - 1) / align * align;
+        bands = (count + step - 1) / step;
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        int submitted = 0;
+        try {
+            for (int i = 1; i < bands; i++) {
+                final int start = i * step;
+                final int end = Math.min(count, start + step);
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run(start, end);
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+                submitted++;
+            }
+            //第一段在调用线程执行
+            task.run(0, Math.min(count, step));
+        } finally {
+            //没有提交成功的段不会计数，补上
+            for (int i = submitted; i < bands - 1; i++) {
+                latch.countDown();
+            }
+            awaitUninterruptibly(latch);
+        }
+        Throwable e = error.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 等待所有段结束，中断时继续等待，返回前恢复中断状态
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 共享线程池
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createPool(PARALLELISM, TAG + "-");
+        }
+        return executor;
+    }
+
+    /**
+     * 执行文件读取等阻塞任务的共享线程池
+     */
+    public static synchronized ExecutorService getIoExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = createPool(IO_PARALLELISM, TAG + "-io-");
+        }
+        return ioExecutor;
+    }
+
+    private static ExecutorService createPool(int size, final String namePrefix) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new PoolThread(r, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * 线程池的线程，用于识别嵌套调用
+     */
+    private static class PoolThread extends Thread {
+        PoolThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+}
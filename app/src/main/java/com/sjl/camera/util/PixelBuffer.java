@@ -0,0 +1,481 @@
+package com.sjl.camera.util;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 直接内存中的像素缓冲
+ * <p>宽、高、行跨度和格式都是显式的。裁剪、缩放、旋转、镜像、格式转换都写入调用方提供的目标缓冲，
+ * 每次调用不分配内存；只在与{@link Bitmap}、{@link Image}交换数据时才复制。
+ * 连拍时大块像素数据不在Java堆上，不会增加GC压力
+ */
+public class PixelBuffer {
+    /**
+     * 像素格式
+     */
+    public enum Format {
+        /**
+         * 每像素4字节，内存顺序R、G、B、A，与ARGB_8888的Bitmap内存布局一致
+         */
+        RGBA_8888(4),
+        /**
+         * 每像素1字节灰度
+         */
+        GRAY_8(1);
+
+        final int bytesPerPixel;
+
+        Format(int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        public int getBytesPerPixel() {
+            return bytesPerPixel;
+        }
+    }
+
+    private ByteBuffer buffer;
+    //持有内存的原始缓冲，buffer可能是它的duplicate，判断两个缓冲是否共享内存时比较它
+    private ByteBuffer memory;
+    //与Bitmap交换数据时行不紧凑用的临时缓冲，复用
+    private ByteBuffer scratch;
+    private int offset;
+    private int width;
+    private int height;
+    private int stride;
+    private Format format;
+
+    private PixelBuffer(ByteBuffer buffer, ByteBuffer memory, int offset, int width, int height, int stride, Format format) {
+        this.buffer = buffer;
+        this.memory = memory;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.format = format;
+    }
+
+    /**
+     * 分配行紧凑排列的缓冲
+     *
+     * @param width
+     * @param height
+     * @param format
+     * @return
+     */
+    public static PixelBuffer allocate(int width, int height, Format format) {
+        checkSize(width, height);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * format.bytesPerPixel).order(ByteOrder.nativeOrder());
+        return new PixelBuffer(buffer, buffer, 0, width, height, width * format.bytesPerPixel, format);
+    }
+
+    /**
+     * 包装已有的缓冲，不复制
+     *
+     * @param buffer 像素数据，从下标0开始
+     * @param width
+     * @param height
+     * @param stride 每行字节数
+     * @param format
+     * @return
+     */
+    public static PixelBuffer wrap(ByteBuffer buffer, int width, int height, int stride, Format format) {
+        checkSize(width, height);
+        if (stride < width * format.bytesPerPixel)
+            throw new IllegalArgumentException("stride too small");
+        if (buffer.capacity() < (height - 1) * stride + width * format.bytesPerPixel)
+            throw new IllegalArgumentException("buffer too small");
+        return new PixelBuffer(buffer.duplicate().order(ByteOrder.nativeOrder()), buffer, 0, width, height, stride, format);
+    }
+
+    /**
+     * 改变尺寸和格式以便复用，容量够时不重新分配
+     *
+     * @param width
+     * @param height
+     * @param format
+     * @return 是否重新分配了内存
+     */
+    public boolean reset(int width, int height, Format format) {
+        checkSize(width, height);
+        int stride = width * format.bytesPerPixel;
+        boolean grown = offset != 0 || buffer.capacity() < stride * height;
+        if (grown) {
+            buffer = ByteBuffer.allocateDirect(stride * height).order(ByteOrder.nativeOrder());
+            memory = buffer;
+            offset = 0;
+        }
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.format = format;
+        return grown;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * 底层缓冲，从{@link #getOffset()}开始按行跨度排列
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * 子区域视图，与本缓冲共享内存
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @return
+     */
+    public PixelBuffer view(int x, int y, int width, int height) {
+        checkRegion(x, y, width, height);
+        return new PixelBuffer(buffer, memory, offset + y * stride + x * format.bytesPerPixel, width, height, stride, format);
+    }
+
+    /**
+     * 裁剪，目标尺寸即裁剪大小
+     *
+     * @param x   源区域左上角
+     * @param y
+     * @param dst 目标，格式与本缓冲相同
+     */
+    public void crop(int x, int y, PixelBuffer dst) {
+        checkFormat(dst);
+        checkRegion(x, y, dst.width, dst.height);
+        int rowBytes = dst.width * format.bytesPerPixel;
+        ByteBuffer src = buffer.duplicate();
+        ByteBuffer out = dst.buffer.duplicate();
+        for (int row = 0; row < dst.height; row++) {
+            int start = offset + (y + row) * stride + x * format.bytesPerPixel;
+            src.limit(start + rowBytes).position(start);
+            out.limit(dst.offset + row * dst.stride + rowBytes).position(dst.offset + row * dst.stride);
+            out.put(src);
+        }
+    }
+
+    /**
+     * 双线性缩放到目标尺寸，像素中心对齐
+     * <p>缩小超过一半时会有混叠，大倍数缩小应先用采样解码
+     *
+     * @param dst 目标，格式与本缓冲相同
+     */
+    public void scale(PixelBuffer dst) {
+        checkFormat(dst);
+        checkDistinct(dst);
+        int bpp = format.bytesPerPixel;
+        //16.16定点源坐标
+        int stepX = (int) (((long) width << 16) / dst.width);
+        int stepY = (int) (((long) height << 16) / dst.height);
+        int fy = (stepY >> 1) - 0x8000;
+        for (int y = 0; y < dst.height; y++, fy += stepY) {
+            int sy = Math.max(0, fy);
+            int y0 = Math.min(height - 1, sy >> 16);
+            int y1 = Math.min(height - 1, y0 + 1);
+            int wy = (sy >> 8) & 0xFF;
+            int row0 = offset + y0 * stride;
+            int row1 = offset + y1 * stride;
+            int out = dst.offset + y * dst.stride;
+            int fx = (stepX >> 1) - 0x8000;
+            for (int x = 0; x < dst.width; x++, fx += stepX) {
+                int sx = Math.max(0, fx);
+                int x0 = Math.min(width - 1, sx >> 16);
+                int x1 = Math.min(width - 1, x0 + 1);
+                int wx = (sx >> 8) & 0xFF;
+                for (int c = 0; c < bpp; c++) {
+                    int p00 = buffer.get(row0 + x0 * bpp + c) & 0xFF;
+                    int p01 = buffer.get(row0 + x1 * bpp + c) & 0xFF;
+                    int p10 = buffer.get(row1 + x0 * bpp + c) & 0xFF;
+                    int p11 = buffer.get(row1 + x1 * bpp + c) & 0xFF;
+                    int top = p00 * (256 - wx) + p01 * wx;
+                    int bottom = p10 * (256 - wx) + p11 * wx;
+                    dst.buffer.put(out + x * bpp + c, (byte) ((top * (256 - wy) + bottom * wy + 0x8000) >> 16));
+                }
+            }
+        }
+    }
+
+    /**
+     * 顺时针旋转
+     *
+     * @param degrees 0/90/180/270
+     * @param dst     目标，旋转90/270度时宽高互换
+     */
+    public void rotate(int degrees, PixelBuffer dst) {
+        degrees = (degrees % 360 + 360) % 360;
+        if (degrees % 90 != 0)
+            throw new IllegalArgumentException("degrees must be a multiple of 90");
+        boolean swap = degrees == 90 || degrees == 270;
+        checkFormat(dst);
+        checkDistinct(dst);
+        if ((swap ? height : width) != dst.width || (swap ? width : height) != dst.height)
+            throw new IllegalArgumentException("dst size mismatch");
+        for (int y = 0; y < dst.height; y++) {
+            for (int x = 0; x < dst.width; x++) {
+                int sx;
+                int sy;
+                switch (degrees) {
+                    case 90:
+                        sx = y;
+                        sy = height - 1 - x;
+                        break;
+                    case 180:
+                        sx = width - 1 - x;
+                        sy = height - 1 - y;
+                        break;
+                    case 270:
+                        sx = width - 1 - y;
+                        sy = x;
+                        break;
+                    default:
+                        sx = x;
+                        sy = y;
+                        break;
+                }
+                copyPixel(sx, sy, dst, x, y);
+            }
+        }
+    }
+
+    /**
+     * 镜像
+     *
+     * @param horizontal true水平镜像(左右翻转)，false垂直镜像
+     * @param dst        目标，尺寸与本缓冲相同
+     */
+    public void mirror(boolean horizontal, PixelBuffer dst) {
+        checkFormat(dst);
+        checkDistinct(dst);
+        if (width != dst.width || height != dst.height)
+            throw new IllegalArgumentException("dst size mismatch");
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (horizontal) {
+                    copyPixel(width - 1 - x, y, dst, x, y);
+                } else {
+                    copyPixel(x, height - 1 - y, dst, x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * 格式转换，RGBA转灰度按BT.601亮度计算，灰度转RGBA时不透明
+     *
+     * @param dst 目标，尺寸与本缓冲相同
+     */
+    public void convert(PixelBuffer dst) {
+        if (width != dst.width || height != dst.height)
+            throw new IllegalArgumentException("dst size mismatch");
+        if (format == dst.format) {
+            crop(0, 0, dst);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int in = offset + y * stride;
+            int out = dst.offset + y * dst.stride;
+            for (int x = 0; x < width; x++) {
+                if (format == Format.RGBA_8888) {
+                    int p = in + x * 4;
+                    int r = buffer.get(p) & 0xFF;
+                    int g = buffer.get(p + 1) & 0xFF;
+                    int b = buffer.get(p + 2) & 0xFF;
+                    dst.buffer.put(out + x, (byte) ((77 * r + 150 * g + 29 * b + 128) >> 8));
+                } else {
+                    byte gray = buffer.get(in + x);
+                    int p = out + x * 4;
+                    dst.buffer.put(p, gray);
+                    dst.buffer.put(p + 1, gray);
+                    dst.buffer.put(p + 2, gray);
+                    dst.buffer.put(p + 3, (byte) 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从Bitmap复制像素
+     * <p>RGBA_8888对应ARGB_8888，GRAY_8对应ALPHA_8，尺寸必须一致
+     *
+     * @param bitmap
+     */
+    public void copyFrom(Bitmap bitmap) {
+        checkBitmap(bitmap);
+        if (isPacked()) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            bitmap.copyPixelsToBuffer(view);
+            return;
+        }
+        //行之间有间隔时经过一块紧凑的临时缓冲
+        int rowBytes = width * format.bytesPerPixel;
+        ByteBuffer packed = obtainScratch(rowBytes * height);
+        bitmap.copyPixelsToBuffer(packed);
+        PixelBuffer.wrap(packed, width, height, rowBytes, format).crop(0, 0, this);
+    }
+
+    /**
+     * 复制像素到Bitmap
+     * <p>RGBA_8888对应ARGB_8888，GRAY_8对应ALPHA_8，尺寸必须一致，Bitmap必须可变
+     *
+     * @param bitmap
+     */
+    public void copyTo(Bitmap bitmap) {
+        checkBitmap(bitmap);
+        if (isPacked()) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            bitmap.copyPixelsFromBuffer(view);
+            return;
+        }
+        int rowBytes = width * format.bytesPerPixel;
+        ByteBuffer packed = obtainScratch(rowBytes * height);
+        crop(0, 0, PixelBuffer.wrap(packed, width, height, rowBytes, format));
+        bitmap.copyPixelsFromBuffer(packed);
+    }
+
+    /**
+     * 新建Bitmap并复制像素
+     *
+     * @return
+     */
+    public Bitmap toBitmap() {
+        Bitmap bitmap = BitmapPool.getInstance().obtain(width, height,
+                format == Format.RGBA_8888 ? Bitmap.Config.ARGB_8888 : Bitmap.Config.ALPHA_8);
+        copyTo(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * 从YUV_420_888图像复制像素，RGBA_8888时按BT.601转换，GRAY_8时只取Y平面
+     *
+     * @param image 尺寸必须一致
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void copyFrom(Image image) {
+        if (image.getFormat() != ImageFormat.YUV_420_888)
+            throw new IllegalArgumentException("image format must be YUV_420_888");
+        if (image.getWidth() != width || image.getHeight() != height)
+            throw new IllegalArgumentException("image size mismatch");
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        if (format == Format.GRAY_8) {
+            for (int row = 0; row < height; row++) {
+                int in = row * yRowStride;
+                int out = offset + row * stride;
+                for (int x = 0; x < width; x++) {
+                    buffer.put(out + x, y.get(in + x * yPixelStride));
+                }
+            }
+            return;
+        }
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height; row++) {
+            int in = row * yRowStride;
+            int uvRow = (row >> 1) * uvRowStride;
+            int out = offset + row * stride;
+            for (int x = 0; x < width; x++) {
+                int uv = uvRow + (x >> 1) * uvPixelStride;
+                int argb = YuvUtil.yuvToArgb(y.get(in + x * yPixelStride) & 0xFF, u.get(uv) & 0xFF, v.get(uv) & 0xFF);
+                int p = out + x * 4;
+                buffer.put(p, (byte) (argb >> 16));
+                buffer.put(p + 1, (byte) (argb >> 8));
+                buffer.put(p + 2, (byte) argb);
+                buffer.put(p + 3, (byte) 0xFF);
+            }
+        }
+    }
+
+    private void copyPixel(int sx, int sy, PixelBuffer dst, int dx, int dy) {
+        int in = offset + sy * stride;
+        int out = dst.offset + dy * dst.stride;
+        if (format == Format.RGBA_8888) {
+            //4个通道整体复制，与字节序无关
+            dst.buffer.putInt(out + dx * 4, buffer.getInt(in + sx * 4));
+        } else {
+            dst.buffer.put(out + dx, buffer.get(in + sx));
+        }
+    }
+
+    /**
+     * 取临时缓冲，容量不够时重新分配
+     *
+     * @param size 需要的字节数
+     * @return position为0、limit为size的缓冲
+     */
+    private ByteBuffer obtainScratch(int size) {
+        if (scratch == null || scratch.capacity() < size) {
+            scratch = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        scratch.clear();
+        scratch.limit(size);
+        return scratch;
+    }
+
+    private boolean isPacked() {
+        return stride == width * format.bytesPerPixel;
+    }
+
+    private void checkBitmap(Bitmap bitmap) {
+        Bitmap.Config config = format == Format.RGBA_8888 ? Bitmap.Config.ARGB_8888 : Bitmap.Config.ALPHA_8;
+        if (bitmap.getConfig() != config)
+            throw new IllegalArgumentException("bitmap config must be " + config);
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height)
+            throw new IllegalArgumentException("bitmap size mismatch");
+    }
+
+    private void checkFormat(PixelBuffer dst) {
+        if (dst.format != format)
+            throw new IllegalArgumentException("format mismatch: " + format + " -> " + dst.format);
+    }
+
+    /**
+     * 比较持有内存的原始缓冲，堆缓冲再比较底层数组。
+     * 对同一块直接内存分别调用slice()或duplicate()后再wrap无法识别
+     */
+    private void checkDistinct(PixelBuffer dst) {
+        if (dst.memory == memory || (memory.hasArray() && dst.memory.hasArray() && memory.array() == dst.memory.array()))
+            throw new IllegalArgumentException("dst must not share memory with src");
+    }
+
+    private void checkRegion(int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > this.width || y + height > this.height)
+            throw new IllegalArgumentException("region out of bounds");
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+    }
+}
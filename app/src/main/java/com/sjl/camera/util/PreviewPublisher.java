@@ -0,0 +1,142 @@
+package com.sjl.camera.util;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.nio.ByteBuffer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 拍照后的分级预览
+ * <p>先发布低分辨率预览(相机JPEG的1/8采样解码，或渐进式编码的DC扫描)，
+ * 保存完成后再用缩略图档位刷新。解码在单独的线程中执行，不占用保存线程，回调在主线程中执行
+ */
+public class PreviewPublisher {
+    /**
+     * 快速预览的采样率，libjpeg在1/8时只解码DC系数
+     */
+    private static final int PREVIEW_SAMPLE_SIZE = 8;
+
+    /**
+     * 预览回调，在主线程中执行
+     */
+    public interface Callback {
+        /**
+         * @param bitmap  预览图
+         * @param refined 是否为保存完成后的清晰预览
+         */
+        void onPreview(Bitmap bitmap, boolean refined);
+    }
+
+    private final Callback callback;
+    private final int maxSide;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * @param callback 预览回调
+     * @param maxSide  刷新预览的长边像素
+     */
+    public PreviewPublisher(Callback callback, int maxSide) {
+        this.callback = callback;
+        this.maxSide = maxSide;
+    }
+
+    /**
+     * 采样解码相机JPEG并发布低分辨率预览
+     *
+     * @param jpeg    相机JPEG，解码期间不能修改
+     * @param degrees 顺时针旋转角度
+     */
+    public void publish(final byte[] jpeg, final int degrees) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap sampled = BitmapUtil.decodeByteArray(jpeg, PREVIEW_SAMPLE_SIZE);
+                if (sampled == null) {
+                    return;
+                }
+                Bitmap rotated = BitmapUtil.rotate(sampled, degrees);
+                if (rotated != sampled) {
+                    BitmapPool.getInstance().put(sampled);
+                }
+                post(rotated, false);
+            }
+        });
+    }
+
+    /**
+     * 在当前线程中采样解码相机图像平面并发布低分辨率预览
+     * <p>平面只在图像关闭前有效，所以不交给解码线程，在保存线程写文件之前调用
+     *
+     * @param jpeg    相机JPEG，不改变其position
+     * @param degrees 顺时针旋转角度
+     */
+    public void publish(ByteBuffer jpeg, int degrees) {
+        Bitmap sampled = BitmapUtil.decodeByteBuffer(jpeg, PREVIEW_SAMPLE_SIZE);
+        if (sampled == null) {
+            return;
+        }
+        Bitmap rotated = BitmapUtil.rotate(sampled, degrees);
+        if (rotated != sampled) {
+            BitmapPool.getInstance().put(sampled);
+        }
+        post(rotated, false);
+    }
+
+    /**
+     * 渐进式编码的进度回调，DC扫描的预览直接发布
+     *
+     * @return
+     */
+    public JpegTransform.ProgressListener asProgressListener() {
+        return new JpegTransform.ProgressListener() {
+            @Override
+            public void onPreview(int[] argb, int width, int height) {
+                post(Bitmap.createBitmap(argb, width, height, Bitmap.Config.ARGB_8888), false);
+            }
+
+            @Override
+            public void onScan(int index, int count) {
+            }
+        };
+    }
+
+    /**
+     * 保存完成后用最接近的档位刷新预览
+     *
+     * @param path 原图路径
+     */
+    public void publishSaved(final String path) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                //只用于显示，放进解码缓存供之后浏览时复用
+                Bitmap bitmap = DecodeCache.getInstance().getBitmap(TierGenerator.findTier(path, maxSide),
+                        maxSide, maxSide);
+                if (bitmap != null) {
+                    post(bitmap, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止后台解码，未执行的任务被丢弃
+     */
+    public void release() {
+        executor.shutdownNow();
+    }
+
+    private void post(final Bitmap bitmap, final boolean refined) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPreview(bitmap, refined);
+            }
+        });
+    }
+}
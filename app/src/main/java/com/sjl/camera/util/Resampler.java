@@ -0,0 +1,386 @@
+package com.sjl.camera.util;
+
+/**
+ * 并行图像重采样
+ * <p>对ARGB的int[]和灰度的byte[]做可分离的两遍缩放(先水平再垂直)，以及90/180/270度旋转。
+ * 按行分段交给{@link ParallelUtil}的线程池执行(ForkJoinPool需要API 21)。
+ * 滤波权重和中间缓冲在实例中缓存，尺寸不变时重复调用不分配内存；实例不是线程安全的
+ */
+public class Resampler {
+    /**
+     * 滤波器
+     */
+    public enum Filter {
+        /**
+         * 区域平均，缩小时等价于盒子滤波
+         */
+        BOX(0.5),
+        /**
+         * 双线性(三角形)
+         */
+        BILINEAR(1),
+        /**
+         * Lanczos3，最锐利，有负权重
+         */
+        LANCZOS3(3);
+
+        final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        double weight(double x) {
+            x = Math.abs(x);
+            switch (this) {
+                case BOX:
+                    return x <= 0.5 ? 1 : 0;
+                case BILINEAR:
+                    return x < 1 ? 1 - x : 0;
+                default:
+                    if (x >= 3) {
+                        return 0;
+                    }
+                    if (x < 1e-8) {
+                        return 1;
+                    }
+                    double px = Math.PI * x;
+                    return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+            }
+        }
+    }
+
+    /**
+     * 权重定点数的小数位数
+     */
+    private static final int WEIGHT_BITS = 14;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int ROUND = 1 << (WEIGHT_BITS - 1);
+    /**
+     * 旋转时按块转置，块内的读写都能留在缓存中
+     */
+    private static final int ROTATE_TILE = 64;
+
+    private final Filter filter;
+    private boolean parallel = true;
+    private Weights horizontal;
+    private Weights vertical;
+    private int[] temp;
+
+    public Resampler(Filter filter) {
+        if (filter == null)
+            throw new NullPointerException("filter is null");
+        this.filter = filter;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * 是否分段并行，默认并行
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * 一维方向上每个输出像素的起始源下标和定点权重
+     */
+    static class Weights {
+        final int srcLength;
+        final int dstLength;
+        final int taps;
+        final int[] start;
+        final int[] weights;
+
+        Weights(Filter filter, int srcLength, int dstLength) {
+            this.srcLength = srcLength;
+            this.dstLength = dstLength;
+            double scale = (double) dstLength / srcLength;
+            //缩小时把滤波器展宽，避免混叠
+            double filterScale = Math.max(1, 1 / scale);
+            double support = filter.support * filterScale;
+            taps = Math.max(1, Math.min(srcLength, (int) Math.ceil(support * 2) + 1));
+            start = new int[dstLength];
+            weights = new int[dstLength * taps];
+            double[] raw = new double[taps];
+            for (int i = 0; i < dstLength; i++) {
+                double center = (i + 0.5) / scale - 0.5;
+                int first = (int) Math.floor(center - support) + 1;
+                first = Math.max(0, Math.min(first, srcLength - taps));
+                double sum = 0;
+                for (int k = 0; k < taps; k++) {
+                    int src = first + k;
+                    raw[k] = src < srcLength ? filter.weight((src - center) / filterScale) : 0;
+                    sum += raw[k];
+                }
+                if (sum == 0) {
+                    //放大时盒子滤波可能落在两个像素之间，取最近的
+                    int nearest = Math.max(first, Math.min(first + taps - 1, (int) Math.round(center)));
+                    raw[nearest - first] = 1;
+                    sum = 1;
+                }
+                //归一化，误差补到最大的权重上，保证总和精确等于1
+                int total = 0;
+                int largest = 0;
+                for (int k = 0; k < taps; k++) {
+                    int w = (int) Math.round(raw[k] / sum * WEIGHT_ONE);
+                    weights[i * taps + k] = w;
+                    total += w;
+                    if (w > weights[i * taps + largest]) {
+                        largest = k;
+                    }
+                }
+                weights[i * taps + largest] += WEIGHT_ONE - total;
+                start[i] = first;
+            }
+        }
+    }
+
+    /**
+     * 缩放ARGB像素
+     *
+     * @param src       源像素
+     * @param srcWidth
+     * @param srcHeight
+     * @param dst       目标像素，长度不小于dstWidth*dstHeight
+     * @param dstWidth
+     * @param dstHeight
+     */
+    public void resize(final int[] src, final int srcWidth, int srcHeight,
+                       final int[] dst, final int dstWidth, final int dstHeight) {
+        checkSize(src.length, srcWidth, srcHeight, dst.length, dstWidth, dstHeight);
+        prepare(srcWidth, srcHeight, dstWidth, dstHeight);
+        final int[] temp = this.temp;
+        final Weights h = horizontal;
+        final Weights v = vertical;
+        forEachBand(srcHeight, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                resizeRowsArgb(src, srcWidth, temp, dstWidth, start, end, h);
+            }
+        });
+        forEachBand(dstHeight, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                resizeColumnsArgb(temp, dst, dstWidth, start, end, v);
+            }
+        });
+    }
+
+    /**
+     * 缩放灰度像素
+     *
+     * @param src       源像素
+     * @param srcWidth
+     * @param srcHeight
+     * @param dst       目标像素，长度不小于dstWidth*dstHeight
+     * @param dstWidth
+     * @param dstHeight
+     */
+    public void resize(final byte[] src, final int srcWidth, int srcHeight,
+                       final byte[] dst, final int dstWidth, final int dstHeight) {
+        checkSize(src.length, srcWidth, srcHeight, dst.length, dstWidth, dstHeight);
+        prepare(srcWidth, srcHeight, dstWidth, dstHeight);
+        final int[] temp = this.temp;
+        final Weights h = horizontal;
+        final Weights v = vertical;
+        forEachBand(srcHeight, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                resizeRowsGray(src, srcWidth, temp, dstWidth, start, end, h);
+            }
+        });
+        forEachBand(dstHeight, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                resizeColumnsGray(temp, dst, dstWidth, start, end, v);
+            }
+        });
+    }
+
+    /**
+     * 顺时针旋转ARGB像素，按块转置
+     *
+     * @param src
+     * @param width   源宽
+     * @param height  源高
+     * @param degrees 0/90/180/270
+     * @param dst     目标像素，90/270度时宽高互换
+     */
+    public void rotate(final int[] src, final int width, final int height, int degrees, final int[] dst) {
+        final int rotation = (degrees % 360 + 360) % 360;
+        if (rotation % 90 != 0)
+            throw new IllegalArgumentException("degrees must be a multiple of 90");
+        if (src.length < width * height || dst.length < width * height)
+            throw new IllegalArgumentException("buffer too small");
+        final boolean swap = rotation == 90 || rotation == 270;
+        final int dstWidth = swap ? height : width;
+        int dstHeight = swap ? width : height;
+        int tileRows = (dstHeight + ROTATE_TILE - 1) / ROTATE_TILE;
+        forEachBand(tileRows, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                rotateTiles(src, width, height, rotation, dst, dstWidth, start, end);
+            }
+        });
+    }
+
+    static void rotateTiles(int[] src, int width, int height, int rotation, int[] dst, int dstWidth,
+                            int startTileRow, int endTileRow) {
+        int dstHeight = rotation == 90 || rotation == 270 ? width : height;
+        for (int ty = startTileRow * ROTATE_TILE; ty < Math.min(dstHeight, endTileRow * ROTATE_TILE); ty += ROTATE_TILE) {
+            int yEnd = Math.min(dstHeight, ty + ROTATE_TILE);
+            for (int tx = 0; tx < dstWidth; tx += ROTATE_TILE) {
+                int xEnd = Math.min(dstWidth, tx + ROTATE_TILE);
+                for (int y = ty; y < yEnd; y++) {
+                    int out = y * dstWidth;
+                    switch (rotation) {
+                        case 90:
+                            //目标(x, y)来自源(y, height-1-x)
+                            for (int x = tx; x < xEnd; x++) {
+                                dst[out + x] = src[(height - 1 - x) * width + y];
+                            }
+                            break;
+                        case 180:
+                            for (int x = tx, in = (height - 1 - y) * width + width - 1 - tx; x < xEnd; x++, in--) {
+                                dst[out + x] = src[in];
+                            }
+                            break;
+                        case 270:
+                            //目标(x, y)来自源(width-1-y, x)
+                            for (int x = tx; x < xEnd; x++) {
+                                dst[out + x] = src[x * width + width - 1 - y];
+                            }
+                            break;
+                        default:
+                            System.arraycopy(src, y * width + tx, dst, out + tx, xEnd - tx);
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    static void resizeRowsArgb(int[] src, int srcWidth, int[] temp, int dstWidth, int startRow, int endRow, Weights h) {
+        int taps = h.taps;
+        for (int row = startRow; row < endRow; row++) {
+            int in = row * srcWidth;
+            int out = row * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int a = ROUND;
+                int r = ROUND;
+                int g = ROUND;
+                int b = ROUND;
+                int p = in + h.start[x];
+                int w = x * taps;
+                for (int k = 0; k < taps; k++) {
+                    int weight = h.weights[w + k];
+                    int color = src[p + k];
+                    a += (color >>> 24) * weight;
+                    r += ((color >> 16) & 0xFF) * weight;
+                    g += ((color >> 8) & 0xFF) * weight;
+                    b += (color & 0xFF) * weight;
+                }
+                temp[out + x] = pack(a, r, g, b);
+            }
+        }
+    }
+
+    static void resizeColumnsArgb(int[] temp, int[] dst, int dstWidth, int startRow, int endRow, Weights v) {
+        int taps = v.taps;
+        for (int row = startRow; row < endRow; row++) {
+            int first = v.start[row] * dstWidth;
+            int w = row * taps;
+            int out = row * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int a = ROUND;
+                int r = ROUND;
+                int g = ROUND;
+                int b = ROUND;
+                for (int k = 0, p = first + x; k < taps; k++, p += dstWidth) {
+                    int weight = v.weights[w + k];
+                    int color = temp[p];
+                    a += (color >>> 24) * weight;
+                    r += ((color >> 16) & 0xFF) * weight;
+                    g += ((color >> 8) & 0xFF) * weight;
+                    b += (color & 0xFF) * weight;
+                }
+                dst[out + x] = pack(a, r, g, b);
+            }
+        }
+    }
+
+    static void resizeRowsGray(byte[] src, int srcWidth, int[] temp, int dstWidth, int startRow, int endRow, Weights h) {
+        int taps = h.taps;
+        for (int row = startRow; row < endRow; row++) {
+            int in = row * srcWidth;
+            int out = row * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int sum = ROUND;
+                int p = in + h.start[x];
+                int w = x * taps;
+                for (int k = 0; k < taps; k++) {
+                    sum += (src[p + k] & 0xFF) * h.weights[w + k];
+                }
+                temp[out + x] = clamp(sum >> WEIGHT_BITS);
+            }
+        }
+    }
+
+    static void resizeColumnsGray(int[] temp, byte[] dst, int dstWidth, int startRow, int endRow, Weights v) {
+        int taps = v.taps;
+        for (int row = startRow; row < endRow; row++) {
+            int first = v.start[row] * dstWidth;
+            int w = row * taps;
+            int out = row * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int sum = ROUND;
+                for (int k = 0, p = first + x; k < taps; k++, p += dstWidth) {
+                    sum += temp[p] * v.weights[w + k];
+                }
+                dst[out + x] = (byte) clamp(sum >> WEIGHT_BITS);
+            }
+        }
+    }
+
+    private static int pack(int a, int r, int g, int b) {
+        return (clamp(a >> WEIGHT_BITS) << 24) | (clamp(r >> WEIGHT_BITS) << 16)
+                | (clamp(g >> WEIGHT_BITS) << 8) | clamp(b >> WEIGHT_BITS);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    /**
+     * 按尺寸准备权重和中间缓冲，尺寸不变时复用
+     */
+    private void prepare(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (horizontal == null || horizontal.srcLength != srcWidth || horizontal.dstLength != dstWidth) {
+            horizontal = new Weights(filter, srcWidth, dstWidth);
+        }
+        if (vertical == null || vertical.srcLength != srcHeight || vertical.dstLength != dstHeight) {
+            vertical = new Weights(filter, srcHeight, dstHeight);
+        }
+        if (temp == null || temp.length < dstWidth * srcHeight) {
+            temp = new int[dstWidth * srcHeight];
+        }
+    }
+
+    private void forEachBand(int count, ParallelUtil.BandTask task) {
+        if (parallel) {
+            ParallelUtil.forEachBand(count, 1, task);
+        } else {
+            task.run(0, count);
+        }
+    }
+
+    private static void checkSize(int srcLength, int srcWidth, int srcHeight, int dstLength, int dstWidth, int dstHeight) {
+        if (srcWidth <= 0 || srcHeight <= 0 || dstWidth <= 0 || dstHeight <= 0)
+            throw new IllegalArgumentException("invalid size");
+        if (srcLength < srcWidth * srcHeight || dstLength < dstWidth * dstHeight)
+            throw new IllegalArgumentException("buffer too small");
+    }
+}
@@ -0,0 +1,304 @@
+package com.sjl.camera.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台保存调度器
+ * <p>固定数量的工作线程加固定容量的等待队列，队列满时按{@link OverflowPolicy}处理，
+ * 保证连拍时同时驻留内存的照片数量有上限
+ */
+public class SaveScheduler {
+    private static final String TAG = "SaveScheduler";
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private static SaveScheduler defaultScheduler;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞提交线程(快门)，直到有空位
+         */
+        BLOCK,
+        /**
+         * 丢弃最早排队的任务
+         */
+        DROP_OLDEST,
+        /**
+         * 在提交线程上把数据落盘释放内存，不支持落盘的任务退化为BLOCK
+         */
+        SPILL
+    }
+
+    /**
+     * 保存回调，在工作线程中执行
+     */
+    public interface OnSaveListener {
+        void onSaved(SaveJob job);
+
+        void onFailed(SaveJob job, Exception e);
+
+        void onDropped(SaveJob job);
+    }
+
+    /**
+     * 保存任务
+     */
+    public static abstract class SaveJob {
+        private final String path;
+
+        public SaveJob(String path) {
+            this.path = path;
+        }
+
+        /**
+         * 目标文件路径
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * 执行保存，在工作线程中调用
+         *
+         * @throws IOException
+         */
+        protected abstract void save() throws IOException;
+
+        /**
+         * 队列满时把数据写入落盘目录以释放内存，在提交线程中调用
+         *
+         * @param spillDir 落盘目录
+         * @return 落盘后剩余工作的任务，不支持落盘返回null
+         * @throws IOException
+         */
+        protected SaveJob spill(File spillDir) throws IOException {
+            return null;
+        }
+
+        /**
+         * 任务被丢弃时释放资源
+         */
+        protected void discard() {
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+    private final ArrayDeque<Task> pending = new ArrayDeque<Task>();
+    private final OverflowPolicy policy;
+    private final File spillDir;
+
+    /**
+     * @param threads  工作线程数
+     * @param capacity 等待队列容量
+     * @param policy   队列满时的处理策略
+     * @param spillDir 落盘目录，仅{@link OverflowPolicy#SPILL}使用
+     */
+    public SaveScheduler(int threads, int capacity, OverflowPolicy policy, File spillDir) {
+        if (threads <= 0 || capacity < 0)
+            throw new IllegalArgumentException("threads must be > 0 and capacity >= 0");
+        if (policy == OverflowPolicy.SPILL && spillDir == null)
+            throw new NullPointerException("spillDir is null");
+        this.policy = policy;
+        this.spillDir = spillDir;
+        //落盘后的任务不占用内存，不计入slots，所以队列本身不设上限
+        this.slots = new Semaphore(threads + capacity);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG + "-" + count.incrementAndGet());
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 进程共享的调度器，队列满时阻塞快门
+     */
+    public static synchronized SaveScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new SaveScheduler(DEFAULT_THREADS, DEFAULT_CAPACITY, OverflowPolicy.BLOCK, null);
+        }
+        return defaultScheduler;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 提交保存任务
+     *
+     * @param job      保存任务
+     * @param listener 保存回调，可为null
+     * @return 任务已进入队列返回true；被中断或调度器已关闭返回false
+     */
+    public boolean submit(SaveJob job, OnSaveListener listener) {
+        if (job == null)
+            throw new NullPointerException("job is null");
+        if (executor.isShutdown()) {
+            job.discard();
+            return false;
+        }
+        if (slots.tryAcquire()) {
+            return enqueue(new Task(job, listener, true));
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                Task oldest;
+                synchronized (pending) {
+                    oldest = pending.peekFirst();
+                    if (oldest != null && executor.remove(oldest)) {
+                        pending.remove(oldest);
+                    } else {
+                        oldest = null;
+                    }
+                }
+                if (oldest != null) {
+                    //被丢弃任务的名额直接转给新任务
+                    oldest.drop();
+                    return enqueue(new Task(job, listener, true));
+                }
+                break;
+            case SPILL:
+                try {
+                    SaveJob spilled = job.spill(spillDir);
+                    if (spilled != null) {
+                        return enqueue(new Task(spilled, listener, false));
+                    }
+                } catch (IOException e) {
+                    if (listener != null) {
+                        listener.onFailed(job, e);
+                    }
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.discard();
+            return false;
+        }
+        return enqueue(new Task(job, listener, true));
+    }
+
+    /**
+     * 是否还有空位，有空位时{@link #submit}不会阻塞也不会触发溢出策略
+     */
+    public boolean hasFreeSlot() {
+        return slots.availablePermits() > 0;
+    }
+
+    /**
+     * 等待中的任务数
+     */
+    public int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * 关闭调度器，已提交的任务继续执行
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private boolean enqueue(Task task) {
+        synchronized (pending) {
+            pending.offerLast(task);
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RuntimeException e) {
+            synchronized (pending) {
+                pending.remove(task);
+            }
+            if (task.holdsSlot) {
+                slots.release();
+            }
+            task.drop();
+            return false;
+        }
+    }
+
+    private class Task implements Runnable {
+        private final SaveJob job;
+        private final OnSaveListener listener;
+        private final boolean holdsSlot;
+
+        Task(SaveJob job, OnSaveListener listener, boolean holdsSlot) {
+            this.job = job;
+            this.listener = listener;
+            this.holdsSlot = holdsSlot;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pending) {
+                pending.remove(this);
+            }
+            Exception error = null;
+            try {
+                job.save();
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = e;
+            } finally {
+                //先释放名额再回调，回调中检查hasFreeSlot()能看到这个空位
+                if (holdsSlot) {
+                    slots.release();
+                }
+            }
+            if (listener == null) {
+                return;
+            }
+            //回调抛出的异常不能让工作线程退出
+            try {
+                if (error == null) {
+                    listener.onSaved(job);
+                } else {
+                    listener.onFailed(job, error);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 丢弃任务，名额由调用方处理
+         */
+        void drop() {
+            job.discard();
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.onDropped(job);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.sjl.camera.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 相机输出尺寸选择
+ * <p>拍照尺寸取JPEG输出中最大的尺寸；预览尺寸按屏幕大小、拍照宽高比和帧率选择，
+ * 不依赖Android类，可以在JVM上测试
+ */
+public class SizeSelector {
+    /**
+     * 30fps对应的帧间隔(纳秒)
+     */
+    public static final long FRAME_DURATION_30FPS = 1000000000L / 30;
+    /**
+     * Camera2保证预览流支持的最大尺寸
+     */
+    public static final int MAX_PREVIEW_LONG_SIDE = 1920;
+    public static final int MAX_PREVIEW_SHORT_SIDE = 1080;
+    /**
+     * 宽高比容差
+     */
+    private static final float ASPECT_TOLERANCE = 0.01f;
+
+    private SizeSelector() {
+    }
+
+    /**
+     * 输出尺寸
+     */
+    public static class Option {
+        public final int width;
+        public final int height;
+        /**
+         * 最小帧间隔(纳秒)，0表示未知
+         */
+        public final long minFrameDuration;
+
+        public Option(int width, int height, long minFrameDuration) {
+            this.width = width;
+            this.height = height;
+            this.minFrameDuration = minFrameDuration;
+        }
+
+        public Option(int width, int height) {
+            this(width, height, 0);
+        }
+
+        public long area() {
+            return (long) width * height;
+        }
+
+        int longSide() {
+            return Math.max(width, height);
+        }
+
+        int shortSide() {
+            return Math.min(width, height);
+        }
+
+        float aspect() {
+            return (float) longSide() / shortSide();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Option))
+                return false;
+            Option other = (Option) o;
+            return width == other.width && height == other.height;
+        }
+
+        @Override
+        public int hashCode() {
+            return width * 31 + height;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height;
+        }
+    }
+
+    /**
+     * 选择拍照尺寸：面积最大的JPEG输出尺寸
+     *
+     * @param jpegSizes JPEG输出尺寸
+     * @return 没有可选尺寸时返回null
+     */
+    public static Option chooseStillSize(List<Option> jpegSizes) {
+        Option max = null;
+        if (jpegSizes != null) {
+            for (Option option : jpegSizes) {
+                if (max == null || option.area() > max.area()) {
+                    max = option;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 选择预览尺寸，默认要求达到30fps
+     *
+     * @see #choosePreviewSize(List, int, int, Option, long)
+     */
+    public static Option choosePreviewSize(List<Option> previewSizes, int displayWidth, int displayHeight, Option stillSize) {
+        return choosePreviewSize(previewSizes, displayWidth, displayHeight, stillSize, FRAME_DURATION_30FPS);
+    }
+
+    /**
+     * 选择预览尺寸
+     * <p>依次按帧率、预览上限、与拍照尺寸的宽高比过滤，再取能铺满屏幕的最小尺寸；
+     * 都不能铺满屏幕时取最大尺寸。某一步过滤后为空时忽略该条件
+     *
+     * @param previewSizes     预览输出尺寸
+     * @param displayWidth     屏幕宽
+     * @param displayHeight    屏幕高
+     * @param stillSize        拍照尺寸，为null时不限宽高比
+     * @param maxFrameDuration 允许的最大帧间隔(纳秒)，0表示不限
+     * @return 没有可选尺寸时返回null
+     */
+    public static Option choosePreviewSize(List<Option> previewSizes, int displayWidth, int displayHeight,
+                                           Option stillSize, long maxFrameDuration) {
+        if (previewSizes == null || previewSizes.isEmpty()) {
+            return null;
+        }
+        List<Option> candidates = new ArrayList<Option>();
+        for (Option option : previewSizes) {
+            if (maxFrameDuration <= 0 || option.minFrameDuration <= maxFrameDuration) {
+                candidates.add(option);
+            }
+        }
+        candidates = orAll(candidates, previewSizes);
+
+        List<Option> bounded = new ArrayList<Option>();
+        for (Option option : candidates) {
+            if (option.longSide() <= MAX_PREVIEW_LONG_SIDE && option.shortSide() <= MAX_PREVIEW_SHORT_SIDE) {
+                bounded.add(option);
+            }
+        }
+        candidates = orAll(bounded, candidates);
+
+        if (stillSize != null) {
+            float target = stillSize.aspect();
+            float bestDiff = Float.MAX_VALUE;
+            for (Option option : candidates) {
+                bestDiff = Math.min(bestDiff, Math.abs(option.aspect() - target));
+            }
+            List<Option> matched = new ArrayList<Option>();
+            for (Option option : candidates) {
+                if (Math.abs(option.aspect() - target) <= bestDiff + ASPECT_TOLERANCE) {
+                    matched.add(option);
+                }
+            }
+            candidates = matched;
+        }
+
+        //传感器输出是横向的，屏幕按长边短边比较
+        int displayLong = Math.max(displayWidth, displayHeight);
+        int displayShort = Math.min(displayWidth, displayHeight);
+        Option cover = null;
+        Option max = null;
+        for (Option option : candidates) {
+            if (option.longSide() >= displayLong && option.shortSide() >= displayShort
+                    && (cover == null || option.area() < cover.area())) {
+                cover = option;
+            }
+            if (max == null || option.area() > max.area()) {
+                max = option;
+            }
+        }
+        return cover != null ? cover : max;
+    }
+
+    private static List<Option> orAll(List<Option> filtered, List<Option> all) {
+        return filtered.isEmpty() ? new ArrayList<Option>(all) : filtered;
+    }
+}
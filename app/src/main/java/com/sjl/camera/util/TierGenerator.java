@@ -0,0 +1,292 @@
+package com.sjl.camera.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 多尺寸图片生成器
+ * <p>保存原图时一次性生成缩略图、屏幕图等小尺寸版本，与原图放在同一目录，并写入清单文件。
+ * 只解码一次，按尺寸从大到小逐级缩放，每一级都从上一级生成
+ */
+public class TierGenerator {
+    public static final String TIER_FULL = "full";
+    public static final String TIER_SCREEN = "screen";
+    public static final String TIER_THUMB = "thumb";
+
+    public static final int THUMB_SIZE = 256;
+    private static final String MANIFEST_EXTENSION = "json";
+
+    /**
+     * 尺寸档位
+     */
+    public static class Tier {
+        final String name;
+        final int maxSide;
+        final ImageEncoder encoder;
+
+        /**
+         * @param name    档位名，用作文件名后缀
+         * @param maxSide 长边最大像素
+         * @param encoder 编码器
+         */
+        public Tier(String name, int maxSide, ImageEncoder encoder) {
+            if (maxSide <= 0)
+                throw new IllegalArgumentException("maxSide must be positive");
+            this.name = name;
+            this.maxSide = maxSide;
+            this.encoder = encoder;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMaxSide() {
+            return maxSide;
+        }
+    }
+
+    private final List<Tier> tiers;
+
+    /**
+     * @param tiers 小尺寸档位，不含原图
+     */
+    public TierGenerator(List<Tier> tiers) {
+        this.tiers = new ArrayList<Tier>(tiers);
+        //从大到小生成
+        Collections.sort(this.tiers, new Comparator<Tier>() {
+            @Override
+            public int compare(Tier lhs, Tier rhs) {
+                return rhs.maxSide - lhs.maxSide;
+            }
+        });
+    }
+
+    /**
+     * 默认档位：屏幕图和缩略图
+     *
+     * @param screenSide 屏幕长边像素
+     * @return
+     */
+    public static TierGenerator createDefault(int screenSide) {
+        List<Tier> tiers = new ArrayList<Tier>(2);
+        tiers.add(new Tier(TIER_SCREEN, screenSide, new ImageEncoder(ImageEncoder.Format.JPEG, 90)));
+        tiers.add(new Tier(TIER_THUMB, THUMB_SIZE, new ImageEncoder(ImageEncoder.Format.JPEG, 80)));
+        return new TierGenerator(tiers);
+    }
+
+    /**
+     * 档位文件路径：原图目录/原图名_档位名.扩展名
+     *
+     * @param originalPath 原图路径
+     * @param tier
+     * @return
+     */
+    public static String getTierPath(String originalPath, Tier tier) {
+        return siblingPath(originalPath, "_" + tier.name + "." + tier.encoder.getFormat().getExtension());
+    }
+
+    /**
+     * 清单文件路径：原图目录/原图名.json
+     *
+     * @param originalPath 原图路径
+     * @return
+     */
+    public static String getManifestPath(String originalPath) {
+        return siblingPath(originalPath, "." + MANIFEST_EXTENSION);
+    }
+
+    /**
+     * 由已解码并旋转好的原图生成各档位
+     *
+     * @param full         原图，不会被回收
+     * @param originalPath 原图路径
+     * @throws IOException
+     */
+    public void generate(Bitmap full, String originalPath) throws IOException {
+        generate(full, 0, full.getWidth(), full.getHeight(), 0, originalPath);
+    }
+
+    /**
+     * 由相机JPEG生成各档位，只按最大档位采样解码一次
+     *
+     * @param jpeg         JPEG数据
+     * @param degrees      顺时针旋转角度
+     * @param originalPath 原图路径
+     * @throws IOException
+     */
+    public void generate(byte[] jpeg, int degrees, String originalPath) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        BitmapUtil.readBounds(jpeg, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("decode bounds failed: " + originalPath);
+        }
+        Bitmap source = BitmapUtil.decodeByteArray(jpeg, sampleSize(options));
+        generateSampled(source, degrees, options, originalPath);
+    }
+
+    /**
+     * 由已保存的原图文件生成各档位
+     *
+     * @param originalPath 原图路径
+     * @param degrees      顺时针旋转角度，解码不会应用EXIF方向
+     * @throws IOException
+     */
+    public void generate(String originalPath, int degrees) throws IOException {
+        ImageHeaderParser.Header header = DecodeCache.getInstance().getHeader(originalPath);
+        if (header == null) {
+            throw new IOException("decode bounds failed: " + originalPath);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.outWidth = header.width;
+        options.outHeight = header.height;
+        Bitmap source = BitmapUtil.decodeFile(originalPath, sampleSize(options));
+        generateSampled(source, degrees, options, originalPath);
+    }
+
+    /**
+     * 查找长边不小于reqSide的最小档位，没有清单或档位都太小时返回原图
+     *
+     * @param originalPath 原图路径
+     * @param reqSide      需要的长边像素
+     * @return 图片路径
+     */
+    public static String findTier(String originalPath, int reqSide) {
+        String manifestPath = getManifestPath(originalPath);
+        if (!FileUtil.isFileExist(manifestPath)) {
+            return originalPath;
+        }
+        try {
+            JSONArray array = new JSONObject(FileUtil.readFile(manifestPath)).getJSONArray("tiers");
+            String bestFile = null;
+            int bestSide = Integer.MAX_VALUE;
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject tier = array.getJSONObject(i);
+                int side = Math.max(tier.getInt("width"), tier.getInt("height"));
+                if (side >= reqSide && side < bestSide) {
+                    bestSide = side;
+                    bestFile = tier.getString("file");
+                }
+            }
+            if (bestFile == null) {
+                return originalPath;
+            }
+            return new File(new File(originalPath).getParentFile(), bestFile).getAbsolutePath();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return originalPath;
+    }
+
+    private void generateSampled(Bitmap source, int degrees, BitmapFactory.Options options, String originalPath) throws IOException {
+        if (source == null) {
+            throw new IOException("decode failed: " + originalPath);
+        }
+        try {
+            generate(source, degrees, options.outWidth, options.outHeight, degrees, originalPath);
+        } finally {
+            BitmapPool.getInstance().put(source);
+        }
+    }
+
+    /**
+     * @param source      解码后的图片，可能已采样
+     * @param degrees     生成时需要应用的旋转角度
+     * @param fullWidth   原图宽，旋转前
+     * @param fullHeight  原图高，旋转前
+     * @param orientation 原图记录的旋转角度，写入清单
+     */
+    private void generate(Bitmap source, int degrees, int fullWidth, int fullHeight, int orientation,
+                          String originalPath) throws IOException {
+        boolean swap = degrees % 180 != 0;
+        JSONArray tierArray = new JSONArray();
+        Bitmap current = source;
+        try {
+            tierArray.put(tierJson(TIER_FULL, FileUtil.getFileName(originalPath),
+                    swap ? fullHeight : fullWidth, swap ? fullWidth : fullHeight));
+            boolean rotated = false;
+            for (Tier tier : tiers) {
+                int longSide = Math.max(current.getWidth(), current.getHeight());
+                float scale = (float) tier.maxSide / longSide;
+                if (scale >= 1 && (rotated || degrees == 0)) {
+                    //原图比该档位还小，直接用原图
+                    continue;
+                }
+                Matrix matrix = new Matrix();
+                if (scale < 1) {
+                    matrix.setScale(scale, scale);
+                }
+                if (!rotated) {
+                    //第一级缩放时顺便旋转
+                    matrix.postRotate(degrees);
+                    rotated = true;
+                }
+                Bitmap scaled = Bitmap.createBitmap(current, 0, 0, current.getWidth(), current.getHeight(), matrix, true);
+                String tierPath = getTierPath(originalPath, tier);
+                //档位可以从原图重新生成，原子替换但不落盘
+                if (!tier.encoder.encode(scaled, tierPath, DurableWriter.Durability.NONE)) {
+                    throw new IOException("encode failed: " + tierPath);
+                }
+                tierArray.put(tierJson(tier.name, FileUtil.getFileName(tierPath), scaled.getWidth(), scaled.getHeight()));
+                if (current != source && current != scaled) {
+                    BitmapPool.getInstance().put(current);
+                }
+                current = scaled;
+            }
+            JSONObject manifest = new JSONObject();
+            manifest.put("original", FileUtil.getFileName(originalPath));
+            manifest.put("orientation", orientation);
+            manifest.put("tiers", tierArray);
+            FileUtil.writeFileAtomic(new File(getManifestPath(originalPath)), manifest.toString().getBytes(),
+                    DurableWriter.Durability.NONE);
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            if (current != source) {
+                BitmapPool.getInstance().put(current);
+            }
+        }
+    }
+
+    /**
+     * 采样后长边仍不小于最大档位的最大2的幂采样率
+     */
+    private int sampleSize(BitmapFactory.Options options) {
+        int longSide = Math.max(options.outWidth, options.outHeight);
+        int reqSide = tiers.isEmpty() ? longSide : tiers.get(0).maxSide;
+        int sampleSize = 1;
+        while (longSide / (sampleSize * 2) >= reqSide) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static JSONObject tierJson(String name, String file, int width, int height) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("name", name);
+        json.put("file", file);
+        json.put("width", width);
+        json.put("height", height);
+        return json;
+    }
+
+    private static String siblingPath(String originalPath, String suffix) {
+        File original = new File(originalPath);
+        String name = FileUtil.getFileNameWithoutExtension(originalPath);
+        return new File(original.getParentFile(), name + suffix).getAbsolutePath();
+    }
+}
@@ -0,0 +1,198 @@
+package com.sjl.camera.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV转换工具类
+ * <p>纯Java实现，NV21(Camera1预览)和YUV_420_888(Camera2平面)转ARGB或灰度。
+ * 输出写入调用方提供的数组，不分配内存；parallel版本按行分段在多核上执行
+ */
+public class YuvUtil {
+
+    private YuvUtil() {
+    }
+
+    /**
+     * NV21转ARGB
+     *
+     * @param nv21   NV21数据，长度至少width*height*3/2
+     * @param width  宽，偶数
+     * @param height 高，偶数
+     * @param out    输出，长度至少width*height
+     */
+    public static void nv21ToArgb(byte[] nv21, int width, int height, int[] out) {
+        checkSize(nv21.length, width * height * 3 / 2, out.length, width * height);
+        nv21ToArgbRows(nv21, width, height, 0, height, out);
+    }
+
+    /**
+     * 多线程NV21转ARGB
+     *
+     * @see #nv21ToArgb(byte[], int, int, int[])
+     */
+    public static void nv21ToArgbParallel(final byte[] nv21, final int width, final int height, final int[] out) {
+        checkSize(nv21.length, width * height * 3 / 2, out.length, width * height);
+        ParallelUtil.forEachBand(height, 2, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                nv21ToArgbRows(nv21, width, height, start, end, out);
+            }
+        });
+    }
+
+    /**
+     * NV21转灰度，直接取Y平面
+     *
+     * @param nv21
+     * @param width
+     * @param height
+     * @param out    输出，长度至少width*height
+     */
+    public static void nv21ToGray(byte[] nv21, int width, int height, byte[] out) {
+        checkSize(nv21.length, width * height, out.length, width * height);
+        System.arraycopy(nv21, 0, out, 0, width * height);
+    }
+
+    /**
+     * YUV_420_888转ARGB
+     *
+     * @param y             Y平面
+     * @param u             U平面
+     * @param v             V平面
+     * @param yRowStride    Y平面行跨度
+     * @param uvRowStride   UV平面行跨度
+     * @param uvPixelStride UV平面像素跨度，1为平面格式，2为半平面格式
+     * @param width         宽
+     * @param height        高
+     * @param out           输出，长度至少width*height
+     */
+    public static void yuv420ToArgb(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride,
+                                    int uvPixelStride, int width, int height, int[] out) {
+        checkPlanes(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, height, out.length);
+        yuv420ToArgbRows(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, 0, height, out);
+    }
+
+    /**
+     * 多线程YUV_420_888转ARGB
+     *
+     * @see #yuv420ToArgb(ByteBuffer, ByteBuffer, ByteBuffer, int, int, int, int, int, int[])
+     */
+    public static void yuv420ToArgbParallel(final ByteBuffer y, final ByteBuffer u, final ByteBuffer v, final int yRowStride,
+                                            final int uvRowStride, final int uvPixelStride, final int width, int height, final int[] out) {
+        checkPlanes(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, height, out.length);
+        ParallelUtil.forEachBand(height, 2, new ParallelUtil.BandTask() {
+            @Override
+            public void run(int start, int end) {
+                yuv420ToArgbRows(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, start, end, out);
+            }
+        });
+    }
+
+    /**
+     * YUV_420_888转灰度，按行跨度复制Y平面
+     *
+     * @param y          Y平面
+     * @param yRowStride Y平面行跨度
+     * @param width
+     * @param height
+     * @param out        输出，长度至少width*height
+     */
+    public static void yuv420ToGray(ByteBuffer y, int yRowStride, int width, int height, byte[] out) {
+        checkSize(y.limit(), planeSize(yRowStride, 1, width, height), out.length, width * height);
+        ByteBuffer src = y.duplicate();
+        for (int row = 0; row < height; row++) {
+            src.position(row * yRowStride);
+            src.get(out, row * width, width);
+        }
+    }
+
+    /**
+     * 单个像素YUV转ARGB(BT.601)
+     *
+     * @param y 0-255
+     * @param u 0-255
+     * @param v 0-255
+     * @return ARGB
+     */
+    public static int yuvToArgb(int y, int u, int v) {
+        int y1192 = 1192 * Math.max(0, y - 16);
+        u -= 128;
+        v -= 128;
+        return pack(y1192 + 1634 * v, y1192 - 833 * v - 400 * u, y1192 + 2066 * u);
+    }
+
+    static void nv21ToArgbRows(byte[] nv21, int width, int height, int startRow, int endRow, int[] out) {
+        //NV21中VU交错平面紧跟在Y平面之后
+        int uvStart = width * height;
+        for (int row = startRow; row < endRow; row++) {
+            int yp = row * width;
+            int uvp = uvStart + (row >> 1) * width;
+            for (int x = 0; x < width; x += 2) {
+                int v = (nv21[uvp + x] & 0xFF) - 128;
+                int u = (nv21[uvp + x + 1] & 0xFF) - 128;
+                int rv = 1634 * v;
+                int guv = -833 * v - 400 * u;
+                int bu = 2066 * u;
+                int y0 = 1192 * Math.max(0, (nv21[yp + x] & 0xFF) - 16);
+                int y1 = 1192 * Math.max(0, (nv21[yp + x + 1] & 0xFF) - 16);
+                out[yp + x] = pack(y0 + rv, y0 + guv, y0 + bu);
+                out[yp + x + 1] = pack(y1 + rv, y1 + guv, y1 + bu);
+            }
+        }
+    }
+
+    static void yuv420ToArgbRows(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane, int yRowStride, int uvRowStride,
+                                 int uvPixelStride, int width, int startRow, int endRow, int[] out) {
+        for (int row = startRow; row < endRow; row++) {
+            int yp = row * yRowStride;
+            int uvp = (row >> 1) * uvRowStride;
+            int op = row * width;
+            for (int x = 0; x < width; x++) {
+                int uvOffset = uvp + (x >> 1) * uvPixelStride;
+                int u = (uPlane.get(uvOffset) & 0xFF) - 128;
+                int v = (vPlane.get(uvOffset) & 0xFF) - 128;
+                int y1192 = 1192 * Math.max(0, (yPlane.get(yp + x) & 0xFF) - 16);
+                out[op + x] = pack(y1192 + 1634 * v, y1192 - 833 * v - 400 * u, y1192 + 2066 * u);
+            }
+        }
+    }
+
+    /**
+     * 定点数RGB(放大1024倍)截断后打包成ARGB
+     */
+    private static int pack(int r, int g, int b) {
+        r = r < 0 ? 0 : (r > 262143 ? 262143 : r);
+        g = g < 0 ? 0 : (g > 262143 ? 262143 : g);
+        b = b < 0 ? 0 : (b > 262143 ? 262143 : b);
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    /**
+     * 检查三个平面和输出的大小。平面按绝对下标从0读取，所以和limit比较
+     */
+    private static void checkPlanes(ByteBuffer y, ByteBuffer u, ByteBuffer v, int yRowStride, int uvRowStride,
+                                    int uvPixelStride, int width, int height, int outLength) {
+        checkSize(y.limit(), planeSize(yRowStride, 1, width, height), outLength, width * height);
+        long uvSize = planeSize(uvRowStride, uvPixelStride, (width + 1) >> 1, (height + 1) >> 1);
+        checkSize(Math.min(u.limit(), v.limit()), uvSize, outLength, width * height);
+    }
+
+    /**
+     * 平面至少需要的字节数，最后一行不要求有完整的行跨度
+     */
+    private static long planeSize(int rowStride, int pixelStride, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        if (rowStride < 1 || pixelStride < 1) {
+            throw new IllegalArgumentException("invalid stride");
+        }
+        return (long) (height - 1) * rowStride + (long) (width - 1) * pixelStride + 1;
+    }
+
+    private static void checkSize(long srcLength, long srcRequired, int outLength, int outRequired) {
+        if (srcLength < srcRequired || outLength < outRequired) {
+            throw new IllegalArgumentException("buffer too small");
+        }
+    }
+}
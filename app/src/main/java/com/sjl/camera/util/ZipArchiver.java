@@ -0,0 +1,510 @@
+package com.sjl.camera.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 多文件zip打包
+ * <p>各条目在每次打包单独创建的线程池中压缩到各自的内存缓冲，由调用线程按顺序写出；
+ * 已压缩的格式(jpg/png/webp等)直接存储，工作线程只计算CRC。
+ * 同时准备的条目按内存缓冲的字节预算限制，不按条目数。
+ * <p>超过{@link #MAX_BUFFERED_SIZE}的文件不进内存，由调用线程边压缩边写，写完回填本地文件头。
+ * 这些文件是串行压缩的，期间工作线程只能继续准备后面的小文件；大文件为主的目录打包耗时接近单线程。
+ * 不支持zip64，单个文件和整个压缩包都不能超过4GB
+ */
+public class ZipArchiver {
+    /**
+     * 进度回调，在调用线程中执行，每写完一个条目回调一次
+     */
+    public interface ProgressListener {
+        /**
+         * @param entries        已写出的条目数
+         * @param entryCount     总条目数
+         * @param bytes          已处理的原始字节数
+         * @param totalBytes     总原始字节数
+         * @param bytesPerSecond 从开始到现在的平均速度，按原始字节计
+         */
+        void onProgress(int entries, int entryCount, long bytes, long totalBytes, long bytesPerSecond);
+    }
+
+    /**
+     * 超过这个大小的文件不在工作线程中压缩到内存
+     */
+    public static final long MAX_BUFFERED_SIZE = 8 * 1024 * 1024;
+    /**
+     * 同时准备的条目占用的内存缓冲上限，至少放得下一个条目
+     */
+    private static final long WINDOW_BYTES = Math.min(32L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+    private static final long MAX_ZIP_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final Set<String> STORED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "jpg", "jpeg", "png", "webp", "gif", "mp4", "3gp", "zip"));
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    //文件名为UTF-8
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CRC_OFFSET = 14;
+
+    private static class Entry {
+        final File file;
+        final byte[] name;
+        final long length;
+        int method;
+        long crc;
+        long compressedSize;
+        long offset;
+        int dosTime;
+        int dosDate;
+        //工作线程压缩的结果，写出后释放
+        ByteArrayOutputStream data;
+
+        Entry(File file, String name) {
+            this.file = file;
+            this.name = name.getBytes(UTF_8);
+            this.length = file.length();
+        }
+    }
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int threads = ParallelUtil.getParallelism();
+    private ProgressListener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * @param level Deflater的压缩级别
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * @param threads 同时准备的条目数，默认CPU核数
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public void setListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 取消正在进行的打包，当前条目结束后抛出{@link InterruptedIOException}，未完成的压缩包被删除
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * 打包目录，条目名为相对目录的路径
+     *
+     * @param dir 源目录
+     * @param zip 目标文件，已存在时覆盖
+     * @throws IOException
+     */
+    public void zipDirectory(File dir, File zip) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("not a directory: " + dir);
+        List<Entry> entries = new ArrayList<Entry>();
+        collect(dir, "", entries);
+        write(entries, zip);
+    }
+
+    /**
+     * 打包文件列表，条目名为文件名
+     *
+     * @param files 源文件
+     * @param zip   目标文件，已存在时覆盖
+     * @throws IOException
+     */
+    public void zip(List<File> files, File zip) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>(files.size());
+        for (File file : files) {
+            if (!file.isFile())
+                throw new IOException("not a file: " + file);
+            entries.add(new Entry(file, file.getName()));
+        }
+        write(entries, zip);
+    }
+
+    private static void collect(File dir, String prefix, List<Entry> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, prefix + file.getName() + '/', entries);
+            } else {
+                entries.add(new Entry(file, prefix + file.getName()));
+            }
+        }
+    }
+
+    private void write(List<Entry> entries, File zip) throws IOException {
+        if (entries.size() > MAX_ENTRIES)
+            throw new IOException("too many entries: " + entries.size());
+        long totalBytes = 0;
+        for (Entry entry : entries) {
+            if (entry.length > MAX_ZIP_SIZE)
+                throw new IOException("file too large: " + entry.file);
+            totalBytes += entry.length;
+        }
+        cancelled = false;
+        long startTime = System.currentTimeMillis();
+        //读文件会阻塞，不占用ParallelUtil的计算线程池
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        //条目数多于线程数一个，写出时下一个已经在准备
+        int window = threads + 1;
+        ArrayDeque<Future<Entry>> pending = new ArrayDeque<Future<Entry>>(window);
+        long windowBytes = 0;
+        FileOutputStream fileOut = null;
+        CountingOutputStream out = null;
+        boolean completed = false;
+        int next = 0;
+        try {
+            FileUtil.makeDirs(zip.getAbsoluteFile().getParentFile());
+            fileOut = new FileOutputStream(zip);
+            out = new CountingOutputStream(new BufferedOutputStream(fileOut, BufferPool.MAX_BUFFER_SIZE));
+            long bytes = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                while (next < entries.size() && pending.size() < window) {
+                    long cost = bufferCost(entries.get(next));
+                    if (!pending.isEmpty() && windowBytes + cost > WINDOW_BYTES) {
+                        break;
+                    }
+                    windowBytes += cost;
+                    pending.add(executor.submit(prepare(entries.get(next++))));
+                }
+                Entry entry = await(pending.poll());
+                windowBytes -= bufferCost(entry);
+                if (cancelled)
+                    throw new InterruptedIOException("zip cancelled");
+                writeEntry(entry, out, fileOut);
+                bytes += entry.length;
+                if (out.count > MAX_ZIP_SIZE)
+                    throw new IOException("zip too large: " + zip);
+                if (listener != null) {
+                    long elapsed = System.currentTimeMillis() - startTime;
+                    listener.onProgress(i + 1, entries.size(), bytes, totalBytes,
+                            elapsed <= 0 ? bytes * 1000 : bytes * 1000 / elapsed);
+                }
+            }
+            writeCentralDirectory(entries, out);
+            out.flush();
+            completed = true;
+        } finally {
+            executor.shutdownNow();
+            IOUtil.close(out);
+            IOUtil.close(fileOut);
+            if (!completed) {
+                zip.delete();
+            }
+        }
+    }
+
+    /**
+     * 准备条目时最多占用的内存：压缩结果不小于原大小时才停止，ByteArrayOutputStream扩容后容量可能接近原大小的两倍
+     */
+    private static long bufferCost(Entry entry) {
+        if (entry.length > MAX_BUFFERED_SIZE || isStored(entry.file.getName())) {
+            return 0;
+        }
+        return entry.length * 2;
+    }
+
+    private static Entry await(Future<Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("zip interrupted");
+        }
+    }
+
+    /**
+     * 工作线程中的准备：已压缩格式只算CRC，其余压缩到内存，压缩后不变小的改为存储
+     */
+    private Callable<Entry> prepare(final Entry entry) {
+        return new Callable<Entry>() {
+            @Override
+            public Entry call() throws IOException {
+                if (cancelled) {
+                    return entry;
+                }
+                setDosTime(entry, entry.file.lastModified());
+                if (isStored(entry.file.getName())) {
+                    entry.method = METHOD_STORED;
+                    entry.crc = crc(entry.file);
+                    entry.compressedSize = entry.length;
+                } else if (entry.length <= MAX_BUFFERED_SIZE) {
+                    ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.max(entry.length / 2, 64));
+                    CRC32 crc = new CRC32();
+                    long size = deflate(entry.file, data, crc, entry.length);
+                    entry.crc = crc.getValue();
+                    if (size < 0) {
+                        entry.method = METHOD_STORED;
+                        entry.compressedSize = entry.length;
+                    } else {
+                        entry.method = METHOD_DEFLATED;
+                        entry.compressedSize = size;
+                        entry.data = data;
+                    }
+                } else {
+                    //在写出时压缩
+                    entry.method = METHOD_DEFLATED;
+                }
+                return entry;
+            }
+        };
+    }
+
+    private void writeEntry(Entry entry, CountingOutputStream out, FileOutputStream fileOut) throws IOException {
+        entry.offset = out.count;
+        writeLocalHeader(entry, out);
+        if (entry.data != null) {
+            entry.data.writeTo(out);
+            entry.data = null;
+        } else if (entry.method == METHOD_STORED) {
+            copyStored(entry, out);
+        } else {
+            //大文件边压缩边写，写完回填CRC和大小
+            long start = out.count;
+            CRC32 crc = new CRC32();
+            deflate(entry.file, out, crc, -1);
+            entry.crc = crc.getValue();
+            entry.compressedSize = out.count - start;
+            out.flush();
+            ByteBuffer patch = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            patch.putInt((int) entry.crc).putInt((int) entry.compressedSize).putInt((int) entry.length);
+            patch.flip();
+            fileOut.getChannel().write(patch, entry.offset + CRC_OFFSET);
+        }
+    }
+
+    private static void writeLocalHeader(Entry entry, OutputStream out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) VERSION);
+        header.putShort((short) FLAG_UTF8);
+        header.putShort((short) entry.method);
+        header.putShort((short) entry.dosTime);
+        header.putShort((short) entry.dosDate);
+        header.putInt((int) entry.crc);
+        header.putInt((int) entry.compressedSize);
+        header.putInt((int) entry.length);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) 0);
+        out.write(header.array());
+        out.write(entry.name);
+    }
+
+    private static void writeCentralDirectory(List<Entry> entries, CountingOutputStream out) throws IOException {
+        long start = out.count;
+        for (Entry entry : entries) {
+            ByteBuffer header = ByteBuffer.allocate(46).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort((short) VERSION);
+            header.putShort((short) VERSION);
+            header.putShort((short) FLAG_UTF8);
+            header.putShort((short) entry.method);
+            header.putShort((short) entry.dosTime);
+            header.putShort((short) entry.dosDate);
+            header.putInt((int) entry.crc);
+            header.putInt((int) entry.compressedSize);
+            header.putInt((int) entry.length);
+            header.putShort((short) entry.name.length);
+            //扩展字段、注释、磁盘号、内部属性、外部属性
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) entry.offset);
+            out.write(header.array());
+            out.write(entry.name);
+        }
+        long size = out.count - start;
+        if (out.count > MAX_ZIP_SIZE)
+            throw new IOException("zip too large");
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) entries.size());
+        end.putShort((short) entries.size());
+        end.putInt((int) size);
+        end.putInt((int) start);
+        end.putShort((short) 0);
+        out.write(end.array());
+    }
+
+    private static long crc(File file) throws IOException {
+        InputStream in = null;
+        byte[] buffer = BufferPool.obtain(file.length());
+        try {
+            in = new FileInputStream(file);
+            CRC32 crc = new CRC32();
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, len);
+            }
+            return crc.getValue();
+        } finally {
+            BufferPool.release(buffer);
+            IOUtil.close(in);
+        }
+    }
+
+    private static void copyStored(Entry entry, OutputStream out) throws IOException {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(entry.file);
+            if (IOUtil.copy(in, out, entry.length) != entry.length)
+                throw new IOException("file changed while zipping: " + entry.file);
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * 原始deflate压缩，同时计算CRC
+     *
+     * @param limit 压缩结果超过这个大小时停止并返回-1，不限制时传-1
+     * @return 压缩后的字节数
+     */
+    private long deflate(File file, OutputStream out, CRC32 crc, long limit) throws IOException {
+        InputStream in = null;
+        Deflater deflater = new Deflater(level, true);
+        byte[] buffer = BufferPool.obtain(file.length());
+        //同一线程中第二次obtain得到新的缓冲
+        byte[] output = BufferPool.obtain(file.length());
+        try {
+            in = new FileInputStream(file);
+            long size = 0;
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, len);
+                deflater.setInput(buffer, 0, len);
+                while (!deflater.needsInput()) {
+                    size += drain(deflater, output, out);
+                }
+                if (limit >= 0 && size >= limit) {
+                    return -1;
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                size += drain(deflater, output, out);
+            }
+            return limit >= 0 && size >= limit ? -1 : size;
+        } finally {
+            deflater.end();
+            BufferPool.release(output);
+            BufferPool.release(buffer);
+            IOUtil.close(in);
+        }
+    }
+
+    private static int drain(Deflater deflater, byte[] output, OutputStream out) throws IOException {
+        int count = deflater.deflate(output);
+        if (count > 0) {
+            out.write(output, 0, count);
+        }
+        return count;
+    }
+
+    static boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    private static void setDosTime(Entry entry, long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            //DOS时间从1980年开始
+            entry.dosDate = (1 << 5) | 1;
+            entry.dosTime = 0;
+            return;
+        }
+        entry.dosDate = ((year - 1980) << 9) | ((calendar.get(Calendar.MONTH) + 1) << 5)
+                | calendar.get(Calendar.DAY_OF_MONTH);
+        entry.dosTime = (calendar.get(Calendar.HOUR_OF_DAY) << 11) | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    /**
+     * 记录已写出字节数，用于条目偏移
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
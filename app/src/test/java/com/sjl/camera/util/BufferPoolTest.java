@@ -0,0 +1,128 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缓冲池测试，每个测试在新线程中执行，线程缓冲互不影响
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizeIsPowerOfTwoWithinBounds() {
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, BufferPool.bufferSize(0));
+        assertEquals(BufferPool.MIN_BUFFER_SIZE, BufferPool.bufferSize(BufferPool.MIN_BUFFER_SIZE));
+        assertEquals(BufferPool.MIN_BUFFER_SIZE * 2, BufferPool.bufferSize(BufferPool.MIN_BUFFER_SIZE + 1));
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, BufferPool.bufferSize(-1));
+        assertEquals(BufferPool.MAX_BUFFER_SIZE, BufferPool.bufferSize(Long.MAX_VALUE));
+        for (long length = 1; length < BufferPool.MAX_BUFFER_SIZE * 4L; length = length * 3 + 1) {
+            int size = BufferPool.bufferSize(length);
+            assertEquals(Integer.bitCount(size), 1);
+            assertTrue(size >= BufferPool.MIN_BUFFER_SIZE && size <= BufferPool.MAX_BUFFER_SIZE);
+            assertTrue(size >= Math.min(length, BufferPool.MAX_BUFFER_SIZE));
+        }
+    }
+
+    @Test
+    public void maxSizeFollowsHeap() {
+        assertEquals(16 * 1024, BufferPool.maxBufferSize(64L * 1024 * 1024));
+        assertEquals(64 * 1024, BufferPool.maxBufferSize(128L * 1024 * 1024));
+        assertEquals(128 * 1024, BufferPool.maxBufferSize(512L * 1024 * 1024));
+    }
+
+    @Test
+    public void releasedBufferIsReusedAndCapped() throws Throwable {
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] large = BufferPool.obtain(Long.MAX_VALUE);
+                assertEquals(BufferPool.MAX_BUFFER_SIZE, large.length);
+                BufferPool.release(large);
+                //归还后再取同一个缓冲，不再按请求长度增长
+                for (long length : new long[]{1, BufferPool.MAX_BUFFER_SIZE * 100L, -1}) {
+                    byte[] buffer = BufferPool.obtain(length);
+                    assertSame(large, buffer);
+                    BufferPool.release(buffer);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void smallBufferGrowsOnlyToRequest() throws Throwable {
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] small = BufferPool.obtain(10);
+                assertEquals(BufferPool.MIN_BUFFER_SIZE, small.length);
+                BufferPool.release(small);
+                byte[] grown = BufferPool.obtain(BufferPool.MIN_BUFFER_SIZE * 2);
+                assertNotSame(small, grown);
+                assertEquals(BufferPool.MIN_BUFFER_SIZE * 2, grown.length);
+                BufferPool.release(grown);
+                assertSame(grown, BufferPool.obtain(10));
+            }
+        });
+    }
+
+    @Test
+    public void nestedObtainGetsNewBuffer() throws Throwable {
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] outer = BufferPool.obtain(100);
+                byte[] inner = BufferPool.obtain(100);
+                assertNotSame(outer, inner);
+                //归还嵌套的缓冲不会释放外层的缓冲
+                BufferPool.release(inner);
+                assertNotSame(outer, BufferPool.obtain(100));
+                BufferPool.release(outer);
+                assertSame(outer, BufferPool.obtain(100));
+            }
+        });
+    }
+
+    @Test
+    public void threadsHaveSeparateBuffers() throws Throwable {
+        final AtomicReference<byte[]> other = new AtomicReference<byte[]>();
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                other.set(BufferPool.obtain(100));
+            }
+        });
+        runInNewThread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = BufferPool.obtain(100);
+                assertNotSame(other.get(), buffer);
+                //归还其他线程的缓冲没有影响
+                BufferPool.release(other.get());
+                assertNotSame(buffer, BufferPool.obtain(100));
+            }
+        });
+    }
+
+    private static void runInNewThread(Runnable runnable) throws Throwable {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Runnable target = runnable;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    target.run();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.sjl.camera.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 原子写文件测试，组提交窗口内的多个文件合并为一批提交
+ */
+public class DurableWriterTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("durable", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void asyncWritesShareBatches() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        writer.setBatchWindow(200, 64);
+        final int count = 20;
+        final CountDownLatch committed = new CountDownLatch(count);
+        final AtomicInteger failed = new AtomicInteger();
+        DurableWriter.CommitCallback callback = new DurableWriter.CommitCallback() {
+            @Override
+            public void onCommitted(File target) {
+                committed.countDown();
+            }
+
+            @Override
+            public void onFailed(File target, IOException e) {
+                failed.incrementAndGet();
+                committed.countDown();
+            }
+        };
+        for (int i = 0; i < count; i++) {
+            assertTrue(writer.writeAsync(new File(dir, i + ".jpg"), content(i), callback));
+        }
+        writer.flush();
+        assertEquals(0, committed.getCount());
+        assertEquals(0, failed.get());
+        //每个文件仍各落盘一次，但提交批数少于文件数
+        assertEquals(count, writer.getSyncCount());
+        assertTrue("batches: " + writer.getBatchCount(), writer.getBatchCount() < count);
+        for (int i = 0; i < count; i++) {
+            assertContent(new File(dir, i + ".jpg"), i);
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void maxBatchLimitsBatchSize() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        writer.setBatchWindow(10000, 4);
+        for (int i = 0; i < 8; i++) {
+            writer.writeAsync(new File(dir, i + ".jpg"), content(i), null);
+        }
+        //攒够一批不等窗口结束
+        long start = System.currentTimeMillis();
+        writer.flush();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue("batches: " + writer.getBatchCount(), writer.getBatchCount() >= 2);
+        for (int i = 0; i < 8; i++) {
+            assertContent(new File(dir, i + ".jpg"), i);
+        }
+    }
+
+    @Test
+    public void blockingWriteReturnsAfterCommit() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        writer.setBatchWindow(10000, 64);
+        File target = new File(dir, "a.jpg");
+        long start = System.currentTimeMillis();
+        assertTrue(writer.write(target, content(7)));
+        //没有其他线程在写时不等窗口
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertContent(target, 7);
+        assertEquals(1, writer.getSyncCount());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void replacesExistingFile() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        File target = new File(dir, "a.jpg");
+        writer.write(target, DurableWriter.Durability.ALWAYS, content(1));
+        writer.write(target, DurableWriter.Durability.ALWAYS, content(2));
+        assertContent(target, 2);
+        assertEquals(2, writer.getSyncCount());
+        assertEquals(0, writer.getBatchCount());
+    }
+
+    @Test
+    public void noneSkipsSync() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        File target = new File(dir, "a.jpg");
+        final AtomicInteger committed = new AtomicInteger();
+        writer.setDurability(DurableWriter.Durability.NONE);
+        writer.writeAsync(target, content(3), new DurableWriter.CommitCallback() {
+            @Override
+            public void onCommitted(File target) {
+                committed.incrementAndGet();
+            }
+
+            @Override
+            public void onFailed(File target, IOException e) {
+            }
+        });
+        //非组提交时在当前线程中提交
+        assertEquals(1, committed.get());
+        assertContent(target, 3);
+        assertEquals(0, writer.getSyncCount());
+    }
+
+    @Test
+    public void failedTaskKeepsOriginal() throws Exception {
+        DurableWriter writer = new DurableWriter();
+        File target = new File(dir, "a.jpg");
+        writer.write(target, content(1));
+        assertFalse(writer.write(target, new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                out.write(new byte[]{9, 9, 9});
+                return false;
+            }
+        }));
+        try {
+            writer.writeAsync(target, new DurableWriter.WriteTask() {
+                @Override
+                public boolean write(FileOutputStream out) throws IOException {
+                    out.write(new byte[]{9, 9, 9});
+                    throw new IOException("disk full");
+                }
+            }, null);
+            fail();
+        } catch (IOException expected) {
+        }
+        writer.flush();
+        assertContent(target, 1);
+        assertNoTempFiles();
+    }
+
+    /**
+     * 第i个文件的内容为i+1个字节，值都是i
+     */
+    private static DurableWriter.WriteTask content(final int i) {
+        return new DurableWriter.WriteTask() {
+            @Override
+            public boolean write(FileOutputStream out) throws IOException {
+                for (int n = 0; n <= i; n++) {
+                    out.write(i);
+                }
+                return true;
+            }
+        };
+    }
+
+    private static void assertContent(File file, int i) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        byte[] data = new byte[(int) in.length()];
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        assertEquals(file.getName(), i + 1, data.length);
+        for (byte b : data) {
+            assertEquals(i, b);
+        }
+    }
+
+    private void assertNoTempFiles() {
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+    }
+}
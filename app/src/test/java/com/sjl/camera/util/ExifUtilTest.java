@@ -0,0 +1,169 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * EXIF方向拼接测试，JPEG只构造文件头和几个字节的扫描数据，不需要能解码
+ */
+public class ExifUtilTest {
+    private static final byte[] SCAN = {(byte) 0xFF, (byte) 0xDA, 0, 2, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void degreesRoundTrip() {
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertEquals(degrees, ExifUtil.orientationToDegrees(ExifUtil.degreesToOrientation(degrees)));
+        }
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_270, ExifUtil.degreesToOrientation(-90));
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_90, ExifUtil.degreesToOrientation(450));
+    }
+
+    @Test
+    public void insertsApp1WithoutExif() {
+        byte[] jpeg = jpeg(null);
+        byte[] out = splice(jpeg, ExifUtil.ORIENTATION_ROTATE_90);
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_90, ExifUtil.getOrientation(ByteBuffer.wrap(out)));
+        assertEquals(1, countApp1(out));
+        //原数据SOI之后的部分原样保留
+        assertArrayEquals(Arrays.copyOfRange(jpeg, 2, jpeg.length),
+                Arrays.copyOfRange(out, out.length - jpeg.length + 2, out.length));
+    }
+
+    @Test
+    public void rewritesShortInPlace() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] jpeg = jpeg(exif(order, ExifUtil.TYPE_SHORT, ExifUtil.ORIENTATION_NORMAL));
+            assertEquals(ExifUtil.ORIENTATION_NORMAL, ExifUtil.getOrientation(ByteBuffer.wrap(jpeg)));
+            byte[] out = splice(jpeg, ExifUtil.ORIENTATION_ROTATE_180);
+            assertEquals(jpeg.length, out.length);
+            assertEquals(1, countApp1(out));
+            assertEquals(ExifUtil.ORIENTATION_ROTATE_180, ExifUtil.getOrientation(ByteBuffer.wrap(out)));
+        }
+    }
+
+    @Test
+    public void rewritesNonShortOrientation() {
+        //有的编码器把方向写成LONG，不能再插入第二个APP1
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] jpeg = jpeg(exif(order, 4, ExifUtil.ORIENTATION_ROTATE_90));
+            byte[] out = splice(jpeg, ExifUtil.ORIENTATION_ROTATE_270);
+            assertEquals(jpeg.length, out.length);
+            assertEquals(1, countApp1(out));
+            assertEquals(ExifUtil.ORIENTATION_ROTATE_270, ExifUtil.getOrientation(ByteBuffer.wrap(out)));
+        }
+    }
+
+    @Test
+    public void honorsPosition() {
+        byte[] jpeg = jpeg(exif(ByteOrder.BIG_ENDIAN, ExifUtil.TYPE_SHORT, ExifUtil.ORIENTATION_ROTATE_90));
+        byte[] padded = new byte[jpeg.length + 5];
+        System.arraycopy(jpeg, 0, padded, 5, jpeg.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(5);
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_90, ExifUtil.getOrientation(buffer));
+        ExifUtil.Splice splice = ExifUtil.orientationSplice(buffer, ExifUtil.ORIENTATION_ROTATE_180);
+        assertEquals(5, buffer.position());
+        assertEquals(jpeg.length, splice.header.length + jpeg.length - splice.skip);
+    }
+
+    @Test
+    public void truncatedSegmentIsNotFound() {
+        byte[] jpeg = jpeg(exif(ByteOrder.BIG_ENDIAN, ExifUtil.TYPE_SHORT, ExifUtil.ORIENTATION_ROTATE_90));
+        //截断在APP1段中间
+        for (int length = 4; length < 30; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(jpeg, length));
+            assertEquals(-1, ExifUtil.findTiff(truncated));
+            assertEquals(ExifUtil.ORIENTATION_NORMAL, ExifUtil.getOrientation(truncated));
+            ExifUtil.Splice splice = ExifUtil.orientationSplice(truncated, ExifUtil.ORIENTATION_ROTATE_90);
+            assertEquals(2, splice.skip);
+        }
+    }
+
+    @Test
+    public void segmentLengthPastEndIsNotFound() {
+        byte[] jpeg = jpeg(exif(ByteOrder.BIG_ENDIAN, ExifUtil.TYPE_SHORT, ExifUtil.ORIENTATION_ROTATE_90));
+        //APP1长度声明超过整个文件
+        jpeg[4] = (byte) 0x7F;
+        assertEquals(-1, ExifUtil.findTiff(ByteBuffer.wrap(jpeg)));
+        assertEquals(ExifUtil.ORIENTATION_NORMAL, ExifUtil.getOrientation(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void badIfdOffsetIsNotFound() {
+        byte[] app1 = exif(ByteOrder.BIG_ENDIAN, ExifUtil.TYPE_SHORT, ExifUtil.ORIENTATION_ROTATE_90);
+        //IFD0偏移指向很远的位置
+        ByteBuffer.wrap(app1).putInt(4 + 6 + 4, 0x7FFFFFF0);
+        assertEquals(ExifUtil.ORIENTATION_NORMAL, ExifUtil.getOrientation(ByteBuffer.wrap(jpeg(app1))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonJpeg() {
+        ExifUtil.orientationSplice(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}), ExifUtil.ORIENTATION_ROTATE_90);
+    }
+
+    private static byte[] splice(byte[] jpeg, int orientation) {
+        ExifUtil.Splice splice = ExifUtil.orientationSplice(ByteBuffer.wrap(jpeg), orientation);
+        byte[] out = new byte[splice.header.length + jpeg.length - splice.skip];
+        System.arraycopy(splice.header, 0, out, 0, splice.header.length);
+        System.arraycopy(jpeg, splice.skip, out, splice.header.length, jpeg.length - splice.skip);
+        return out;
+    }
+
+    /**
+     * SOI + 可选的APP1 + 一个APP0 + 扫描数据
+     */
+    private static byte[] jpeg(byte[] app1) {
+        byte[] app0 = {(byte) 0xFF, (byte) 0xE0, 0, 6, 'J', 'F', 'I', 'F'};
+        int app1Length = app1 == null ? 0 : app1.length;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + app1Length + app0.length + SCAN.length);
+        buffer.put((byte) 0xFF).put((byte) 0xD8);
+        if (app1 != null) {
+            buffer.put(app1);
+        }
+        buffer.put(app0).put(SCAN);
+        return buffer.array();
+    }
+
+    /**
+     * IFD0中依次是ImageWidth(LONG)和方向两个条目
+     *
+     * @param type  方向标签的类型，3为SHORT，4为LONG
+     * @param value 方向值
+     */
+    private static byte[] exif(ByteOrder order, int type, int value) {
+        int length = 2 + 6 + 8 + 2 + 2 * 12 + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + length);
+        buffer.put((byte) 0xFF).put((byte) 0xE1).putShort((short) length);
+        buffer.put(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        buffer.order(order);
+        byte mark = (byte) (order == ByteOrder.LITTLE_ENDIAN ? 'I' : 'M');
+        buffer.put(mark).put(mark).putShort((short) 0x2A).putInt(8);
+        buffer.putShort((short) 2);
+        buffer.putShort((short) 0x0100).putShort((short) 4).putInt(1).putInt(640);
+        buffer.putShort((short) ExifUtil.TAG_ORIENTATION).putShort((short) type).putInt(1);
+        if (type == ExifUtil.TYPE_SHORT) {
+            buffer.putShort((short) value).putShort((short) 0);
+        } else {
+            buffer.putInt(value);
+        }
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    private static int countApp1(byte[] jpeg) {
+        int count = 0;
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos + 1] & 0xFF) != 0xDA) {
+            if ((jpeg[pos + 1] & 0xFF) == 0xE1) {
+                count++;
+            }
+            pos += 2 + (((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF));
+        }
+        return count;
+    }
+}
@@ -0,0 +1,174 @@
+package com.sjl.camera.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 文件复制测试，每块8MB，用跨块边界的文件逐字节比较
+ */
+public class FileCopierTest {
+    private static final int CHUNK = 8 * 1024 * 1024;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("copier", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    @Test
+    public void transferAcrossChunkBoundary() throws IOException {
+        assertCopy(FileCopier.Mode.TRANSFER, CHUNK * 2 + 13);
+    }
+
+    @Test
+    public void mappedAcrossChunkBoundary() throws IOException {
+        assertCopy(FileCopier.Mode.MAPPED, CHUNK + 1);
+    }
+
+    @Test
+    public void autoSmallAndEmptyFiles() throws IOException {
+        assertCopy(FileCopier.Mode.AUTO, 1);
+        assertCopy(FileCopier.Mode.AUTO, 0);
+        assertCopy(FileCopier.Mode.AUTO, 100 * 1024 + 3);
+    }
+
+    @Test
+    public void overwritesLongerTarget() throws IOException {
+        File in = write(new File(dir, "in"), random(1000, 1));
+        File out = write(new File(dir, "out"), random(5000, 2));
+        new FileCopier().copy(in, out);
+        assertArrayEquals(read(in), read(out));
+    }
+
+    @Test
+    public void progressReachesTotal() throws IOException {
+        File in = write(new File(dir, "in"), random(CHUNK + 100, 3));
+        final long[] last = new long[2];
+        final int[] calls = new int[1];
+        FileCopier copier = new FileCopier();
+        copier.setListener(new FileCopier.ProgressListener() {
+            @Override
+            public void onProgress(long copiedBytes, long totalBytes, long bytesPerSecond) {
+                assertTrue(copiedBytes > last[0]);
+                last[0] = copiedBytes;
+                last[1] = totalBytes;
+                calls[0]++;
+            }
+        });
+        copier.copy(in, new File(dir, "out"));
+        assertEquals(in.length(), last[0]);
+        assertEquals(in.length(), last[1]);
+        assertEquals(in.length(), copier.getCopiedBytes());
+        //按块回调
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void cancelDeletesTarget() throws IOException {
+        File in = write(new File(dir, "in"), random(CHUNK * 2, 4));
+        File out = new File(dir, "out");
+        final FileCopier copier = new FileCopier();
+        copier.setListener(new FileCopier.ProgressListener() {
+            @Override
+            public void onProgress(long copiedBytes, long totalBytes, long bytesPerSecond) {
+                copier.cancel();
+            }
+        });
+        try {
+            copier.copy(in, out);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        assertFalse(out.exists());
+        assertTrue(copier.isCancelled());
+    }
+
+    @Test
+    public void copyDirectoryRecursively() throws IOException {
+        File src = new File(dir, "src");
+        byte[][] contents = {random(10, 5), random(CHUNK + 7, 6), random(0, 7), random(4096, 8)};
+        String[] names = {"a", "big", "sub/empty", "sub/deeper/c"};
+        for (int i = 0; i < names.length; i++) {
+            write(new File(src, names[i]), contents[i]);
+        }
+        File dst = new File(dir, "dst");
+        FileCopier copier = new FileCopier();
+        copier.copyDirectory(src, dst, 2);
+        for (int i = 0; i < names.length; i++) {
+            assertArrayEquals(names[i], contents[i], read(new File(dst, names[i])));
+        }
+        assertEquals(CHUNK + 7 + 10 + 4096, copier.getCopiedBytes());
+    }
+
+    @Test(expected = IOException.class)
+    public void copyDirectoryRejectsFile() throws IOException {
+        File file = write(new File(dir, "file"), random(10, 9));
+        new FileCopier().copyDirectory(file, new File(dir, "dst"));
+    }
+
+    private void assertCopy(FileCopier.Mode mode, int length) throws IOException {
+        File in = write(new File(dir, "in" + length), random(length, length));
+        File out = new File(dir, "out" + length);
+        FileCopier copier = new FileCopier();
+        copier.setMode(mode);
+        copier.copy(in, out);
+        assertEquals(length, out.length());
+        assertTrue(Arrays.equals(read(in), read(out)));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static File write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
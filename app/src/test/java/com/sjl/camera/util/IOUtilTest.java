@@ -0,0 +1,93 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流复制测试，输入流每次只返回一部分数据，检查缓冲边界
+ */
+public class IOUtilTest {
+
+    @Test
+    public void copyAcrossBufferBoundary() throws IOException {
+        for (int length : new int[]{0, 1, BufferPool.MAX_BUFFER_SIZE, BufferPool.MAX_BUFFER_SIZE * 3 + 5}) {
+            byte[] data = random(length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(length, IOUtil.copy(new TrickleInputStream(data), out, -1));
+            assertArrayEquals(data, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void copyWithWrongLengthHintCopiesEverything() throws IOException {
+        byte[] data = random(BufferPool.MIN_BUFFER_SIZE * 5 + 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        //长度只用于选择缓冲大小
+        assertEquals(data.length, IOUtil.copy(new TrickleInputStream(data), out, 10));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void streamToByteArrayWithKnownLength() throws IOException {
+        byte[] data = random(100000);
+        assertArrayEquals(data, IOUtil.streamToByteArray(new TrickleInputStream(data), data.length));
+        //长度偏小或偏大时仍然读到流结束
+        assertArrayEquals(data, IOUtil.streamToByteArray(new TrickleInputStream(data), 10));
+        assertArrayEquals(data, IOUtil.streamToByteArray(new TrickleInputStream(data), data.length + 10));
+    }
+
+    @Test
+    public void streamToByteArrayWithUnknownLength() throws IOException {
+        for (int length : new int[]{0, 1, BufferPool.MIN_BUFFER_SIZE, BufferPool.MIN_BUFFER_SIZE * 9 + 3}) {
+            byte[] data = random(length);
+            assertArrayEquals(data, IOUtil.streamToByteArray(new TrickleInputStream(data)));
+        }
+    }
+
+    @Test
+    public void streamToByteArrayClosesStream() throws IOException {
+        TrickleInputStream in = new TrickleInputStream(random(10));
+        IOUtil.streamToByteArray(in);
+        assertTrue(in.closed);
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * 每次最多返回1000字节，available()返回0
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+        boolean closed;
+
+        TrickleInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
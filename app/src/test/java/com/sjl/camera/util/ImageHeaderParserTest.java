@@ -0,0 +1,280 @@
+package com.sjl.camera.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 图片头解析测试，各格式只构造解析需要的文件头，不需要能解码
+ */
+public class ImageHeaderParserTest {
+    private static final String DATE = "2017:06:05 14:30:15";
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("headers", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void jpegFrameAndExif() throws Exception {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(jpeg(0xC0)));
+        assertNotNull(header);
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_90, header.orientation);
+        assertEquals(ImageHeaderParser.MIME_JPEG, header.mimeType);
+        assertEquals(new SimpleDateFormat("yyyy:MM:dd HH:mm:ss", Locale.US).parse(DATE).getTime(), header.dateTaken);
+    }
+
+    @Test
+    public void progressiveJpeg() {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(jpeg(0xC2)));
+        assertNotNull(header);
+        assertEquals(640, header.width);
+        assertEquals(480, header.height);
+    }
+
+    @Test
+    public void jpegWithoutFrameIsNull() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2, 0, (byte) 0xFF, (byte) 0xD9};
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void png() {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(png(1920, 1080)));
+        assertNotNull(header);
+        assertEquals(1920, header.width);
+        assertEquals(1080, header.height);
+        assertEquals(ImageHeaderParser.MIME_PNG, header.mimeType);
+        assertEquals(ExifUtil.ORIENTATION_NORMAL, header.orientation);
+        assertEquals(-1, header.dateTaken);
+    }
+
+    @Test
+    public void webpLossy() {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(webpVp8(1000, 750)));
+        assertNotNull(header);
+        assertEquals(1000, header.width);
+        assertEquals(750, header.height);
+        assertEquals(ImageHeaderParser.MIME_WEBP, header.mimeType);
+    }
+
+    @Test
+    public void webpLossless() {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(webpVp8l(16383, 1)));
+        assertNotNull(header);
+        assertEquals(16383, header.width);
+        assertEquals(1, header.height);
+    }
+
+    @Test
+    public void webpExtendedWithExif() {
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(webpVp8x(5000, 3000)));
+        assertNotNull(header);
+        assertEquals(5000, header.width);
+        assertEquals(3000, header.height);
+        assertEquals(ExifUtil.ORIENTATION_ROTATE_270, header.orientation);
+    }
+
+    @Test
+    public void fileMatchesBuffer() throws IOException {
+        byte[][] images = {jpeg(0xC0), png(3, 2), webpVp8(7, 5), webpVp8l(9, 4), webpVp8x(11, 6)};
+        for (int i = 0; i < images.length; i++) {
+            File file = write("image" + i, images[i]);
+            assertEquals(ImageHeaderParser.parse(ByteBuffer.wrap(images[i])).toString(),
+                    ImageHeaderParser.parse(file.getAbsolutePath()).toString());
+        }
+    }
+
+    @Test
+    public void respectsBufferPosition() {
+        byte[] png = png(12, 34);
+        byte[] padded = new byte[png.length + 3];
+        System.arraycopy(png, 0, padded, 3, png.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(3);
+        ImageHeaderParser.Header header = ImageHeaderParser.parse(buffer);
+        assertNotNull(header);
+        assertEquals(12, header.width);
+        assertEquals(3, buffer.position());
+    }
+
+    @Test
+    public void truncatedInputNeverThrows() {
+        byte[][] images = {jpeg(0xC0), png(3, 2), webpVp8(7, 5), webpVp8l(9, 4), webpVp8x(11, 6)};
+        for (byte[] image : images) {
+            for (int length = 0; length < image.length; length++) {
+                ImageHeaderParser.Header header = ImageHeaderParser.parse(ByteBuffer.wrap(Arrays.copyOf(image, length)));
+                if (length < 24) {
+                    assertNull("length " + length, header);
+                }
+            }
+        }
+        //截断在帧头之前
+        byte[] jpeg = jpeg(0xC0);
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(Arrays.copyOf(jpeg, jpeg.length - 20))));
+    }
+
+    @Test
+    public void garbageIsNull() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] data = new byte[random.nextInt(256)];
+            random.nextBytes(data);
+            assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(data)));
+        }
+        assertNull(ImageHeaderParser.parse(write("text.txt", "hello world".getBytes()).getAbsolutePath()));
+        assertNull(ImageHeaderParser.parse(write("empty", new byte[0]).getAbsolutePath()));
+    }
+
+    @Test
+    public void corruptJpegSegmentsAreNull() {
+        byte[] jpeg = jpeg(0xC0);
+        //APP1长度指向文件之外
+        byte[] longSegment = jpeg.clone();
+        longSegment[4] = (byte) 0xFF;
+        longSegment[5] = (byte) 0xFF;
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(longSegment)));
+        //段之间不是标记
+        byte[] noMarker = jpeg.clone();
+        noMarker[2] = 0x12;
+        assertNull(ImageHeaderParser.parse(ByteBuffer.wrap(noMarker)));
+    }
+
+    @Test
+    public void scanDirectorySkipsUnknownFiles() throws IOException {
+        write("b.png", png(3, 2));
+        write("a.jpg", jpeg(0xC0));
+        write("c.txt", "not an image".getBytes());
+        assertTrue(new File(dir, "sub").mkdir());
+        Map<String, ImageHeaderParser.Header> headers = ImageHeaderParser.scanDirectory(dir);
+        assertEquals(Arrays.asList(new File(dir, "a.jpg").getAbsolutePath(), new File(dir, "b.png").getAbsolutePath()),
+                Arrays.asList(headers.keySet().toArray()));
+        new File(dir, "sub").delete();
+    }
+
+    /**
+     * SOI + APP1(大端EXIF：方向、Exif IFD中的拍摄时间) + APP0 + SOFn(640x480) + SOS
+     */
+    private static byte[] jpeg(int sof) {
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 2 * 12 + 4 + 2 + 12 + 4 + 20);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 0x2A).putInt(8);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) ExifUtil.TAG_ORIENTATION).putShort((short) ExifUtil.TYPE_SHORT).putInt(1)
+                .putShort((short) ExifUtil.ORIENTATION_ROTATE_90).putShort((short) 0);
+        int exifIfd = 8 + 2 + 2 * 12 + 4;
+        tiff.putShort((short) 0x8769).putShort((short) 4).putInt(1).putInt(exifIfd);
+        tiff.putInt(0);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x9003).putShort((short) 2).putInt(20).putInt(exifIfd + 2 + 12 + 4);
+        tiff.putInt(0);
+        tiff.put(DATE.getBytes()).put((byte) 0);
+
+        ByteBuffer out = ByteBuffer.allocate(512);
+        out.put((byte) 0xFF).put((byte) 0xD8);
+        out.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + 6 + tiff.capacity()));
+        out.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+        out.put((byte) 0xFF).put((byte) 0xE0).putShort((short) 16).put(new byte[14]);
+        out.put((byte) 0xFF).put((byte) sof).putShort((short) 17).put((byte) 8)
+                .putShort((short) 480).putShort((short) 640).put((byte) 3).put(new byte[9]);
+        out.put((byte) 0xFF).put((byte) 0xDA).putShort((short) 2).put((byte) 0).put((byte) 0xFF).put((byte) 0xD9);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static byte[] png(int width, int height) {
+        ByteBuffer out = ByteBuffer.allocate(33);
+        out.put(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        out.putInt(13).put("IHDR".getBytes()).putInt(width).putInt(height);
+        out.put(new byte[]{8, 6, 0, 0, 0}).putInt(0);
+        return out.array();
+    }
+
+    private static byte[] webpVp8(int width, int height) {
+        ByteBuffer chunk = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put(new byte[]{0, 0, 0}).put((byte) 0x9D).put((byte) 0x01).put((byte) 0x2A);
+        //高两位是缩放标志
+        chunk.putShort((short) (width | 0x4000)).putShort((short) (height | 0x8000));
+        return riff(chunk("VP8 ", chunk.array()));
+    }
+
+    private static byte[] webpVp8l(int width, int height) {
+        ByteBuffer chunk = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put((byte) 0x2F).putInt((width - 1) | ((height - 1) << 14));
+        return riff(chunk("VP8L", chunk.array()));
+    }
+
+    /**
+     * VP8X + 奇数长度的ICCP块(验证补齐) + 小端EXIF块
+     */
+    private static byte[] webpVp8x(int width, int height) {
+        ByteBuffer vp8x = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        vp8x.put((byte) 0x08).put(new byte[3]);
+        vp8x.put((byte) (width - 1)).put((byte) ((width - 1) >> 8)).put((byte) ((width - 1) >> 16));
+        vp8x.put((byte) (height - 1)).put((byte) ((height - 1) >> 8)).put((byte) ((height - 1) >> 16));
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 2 + 12 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 0x2A).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) ExifUtil.TAG_ORIENTATION).putShort((short) ExifUtil.TYPE_SHORT).putInt(1)
+                .putShort((short) ExifUtil.ORIENTATION_ROTATE_270).putShort((short) 0);
+        tiff.putInt(0);
+        return riff(chunk("VP8X", vp8x.array()), chunk("ICCP", new byte[5]), chunk("EXIF", tiff.array()));
+    }
+
+    private static byte[] chunk(String fourCc, byte[] data) {
+        ByteBuffer out = ByteBuffer.allocate(8 + data.length + (data.length & 1)).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(fourCc.getBytes()).putInt(data.length).put(data);
+        return out.array();
+    }
+
+    private static byte[] riff(byte[]... chunks) {
+        int size = 4;
+        for (byte[] chunk : chunks) {
+            size += chunk.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(8 + size).order(ByteOrder.LITTLE_ENDIAN);
+        out.put("RIFF".getBytes()).putInt(size).put("WEBP".getBytes());
+        for (byte[] chunk : chunks) {
+            out.put(chunk);
+        }
+        return out.array();
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,320 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * JPEG无损变换测试，参考图由ImageIO编码，变换结果与像素域变换后的参考图比较
+ */
+public class JpegTransformTest {
+    /**
+     * 系数域变换后解码与像素域变换只差IDCT舍入和色度上采样的误差
+     */
+    private static final int TOLERANCE = 6;
+
+    @Test
+    public void rotate90MatchesPixelRotation() throws IOException {
+        assertMatchesReference(createImage(64, 48, BufferedImage.TYPE_INT_RGB), JpegTransform.Op.ROTATE_90, 0);
+    }
+
+    @Test
+    public void everyOpMatchesPixelTransform() throws IOException {
+        BufferedImage image = createImage(48, 32, BufferedImage.TYPE_INT_RGB);
+        for (JpegTransform.Op op : JpegTransform.Op.values()) {
+            assertMatchesReference(image, op, 0);
+        }
+    }
+
+    @Test
+    public void grayscaleOps() throws IOException {
+        BufferedImage image = createImage(40, 24, BufferedImage.TYPE_BYTE_GRAY);
+        for (JpegTransform.Op op : JpegTransform.Op.values()) {
+            assertMatchesReference(image, op, 0);
+        }
+    }
+
+    @Test
+    public void restartMarkers() throws IOException {
+        BufferedImage image = createImage(80, 64, BufferedImage.TYPE_INT_RGB);
+        assertTrue("reference has no DRI", indexOfMarker(encode(image, 3), 0xDD) > 0);
+        assertMatchesReference(image, JpegTransform.Op.ROTATE_270, 3);
+    }
+
+    @Test
+    public void fourRotationsAreIdentity() throws IOException {
+        byte[] original = encode(createImage(64, 32, BufferedImage.TYPE_INT_RGB), 0);
+        byte[] jpeg = original;
+        for (int i = 0; i < 4; i++) {
+            jpeg = JpegTransform.transform(jpeg, JpegTransform.Op.ROTATE_90);
+        }
+        assertPixelsEqual(decode(original), decode(jpeg), 0);
+    }
+
+    @Test
+    public void partialMcusAreTrimmedOnFlippedEdges() throws IOException {
+        //4:2:0的MCU为16x16
+        byte[] jpeg = encode(createImage(70, 50, BufferedImage.TYPE_INT_RGB), 0);
+        BufferedImage rotated = decode(JpegTransform.transform(jpeg, JpegTransform.Op.ROTATE_90));
+        //高度被翻转到左边，裁到48；宽度不受影响
+        assertEquals(48, rotated.getWidth());
+        assertEquals(70, rotated.getHeight());
+        BufferedImage transposed = decode(JpegTransform.transform(jpeg, JpegTransform.Op.TRANSPOSE));
+        assertEquals(50, transposed.getWidth());
+        assertEquals(70, transposed.getHeight());
+        BufferedImage rotated180 = decode(JpegTransform.transform(jpeg, JpegTransform.Op.ROTATE_180));
+        assertEquals(64, rotated180.getWidth());
+        assertEquals(48, rotated180.getHeight());
+    }
+
+    @Test
+    public void normalizeResetsExifOrientation() throws IOException {
+        byte[] jpeg = withOrientation(encode(createImage(64, 32, BufferedImage.TYPE_INT_RGB), 0),
+                ExifUtil.ORIENTATION_ROTATE_90);
+        byte[] normalized = JpegTransform.normalize(jpeg);
+        assertEquals(ExifUtil.ORIENTATION_NORMAL, ExifUtil.getOrientation(ByteBuffer.wrap(normalized)));
+        BufferedImage image = decode(normalized);
+        assertEquals(32, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertSame(normalized, JpegTransform.normalize(normalized));
+    }
+
+    @Test
+    public void rotationForFrontCamera() {
+        assertEquals(JpegTransform.Op.ROTATE_90, JpegTransform.forRotation(90, false));
+        assertEquals(JpegTransform.Op.TRANSPOSE, JpegTransform.forRotation(90, true));
+        assertEquals(JpegTransform.Op.TRANSVERSE, JpegTransform.forRotation(-90, true));
+        assertEquals(JpegTransform.Op.NONE, JpegTransform.forRotation(360, false));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsProgressive() throws IOException {
+        JpegTransform.transform(encodeProgressive(createImage(32, 32, BufferedImage.TYPE_INT_RGB)),
+                JpegTransform.Op.ROTATE_90);
+    }
+
+    @Test
+    public void optimalTableCodeLengthsAreLimited() {
+        int[] freq = new int[257];
+        //斐波那契频率会让不限长的哈夫曼码超过16位
+        int a = 1;
+        int b = 1;
+        for (int i = 0; i < 30; i++) {
+            freq[i] = a;
+            int c = a + b;
+            a = b;
+            b = c;
+        }
+        int[][] table = JpegTransform.ScanEncoder.optimalTable(freq);
+        int total = 0;
+        long kraft = 0;
+        for (int length = 1; length <= 16; length++) {
+            total += table[0][length];
+            kraft += (long) table[0][length] << (16 - length);
+        }
+        assertEquals(30, total);
+        //保留了一个全1的码不用
+        assertTrue(kraft < 1 << 16);
+    }
+
+    @Test
+    public void progressiveMatchesBaseline() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            byte[] jpeg = encode(createImage(72, 40, type), 2);
+            for (JpegTransform.Op op : new JpegTransform.Op[]{JpegTransform.Op.NONE, JpegTransform.Op.ROTATE_90}) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                JpegTransform.transformProgressive(jpeg, op, output, null);
+                byte[] progressive = output.toByteArray();
+                assertTrue("not progressive", indexOfMarker(progressive, 0xC2) > 0);
+                assertPixelsEqual(decode(JpegTransform.transform(jpeg, op)), decode(progressive), 0);
+            }
+        }
+    }
+
+    @Test
+    public void progressivePublishesPreviewBeforeScans() throws IOException {
+        BufferedImage image = createImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final int[] scans = new int[2];
+        final BufferedImage[] preview = new BufferedImage[1];
+        JpegTransform.transformProgressive(encode(image, 0), JpegTransform.Op.ROTATE_90, output,
+                new JpegTransform.ProgressListener() {
+                    @Override
+                    public void onPreview(int[] argb, int width, int height) {
+                        assertEquals(0, output.size());
+                        preview[0] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                        preview[0].setRGB(0, 0, width, height, argb, 0, width);
+                    }
+
+                    @Override
+                    public void onScan(int index, int count) {
+                        assertEquals(scans[0] + 1, index);
+                        assertTrue(output.size() > 0);
+                        scans[0] = index;
+                        scans[1] = count;
+                    }
+                });
+        //DC、亮度AC两段、两个色度AC
+        assertEquals(5, scans[1]);
+        assertEquals(scans[1], scans[0]);
+        assertNotNull(preview[0]);
+        assertEquals(6, preview[0].getWidth());
+        assertEquals(8, preview[0].getHeight());
+        //预览的亮度是8x8块的亮度均值，色度按16x16取均值，只比较亮度
+        BufferedImage full = decode(output.toByteArray());
+        for (int y = 0; y < preview[0].getHeight(); y++) {
+            for (int x = 0; x < preview[0].getWidth(); x++) {
+                int mean = 0;
+                for (int i = 0; i < 64; i++) {
+                    mean += luma(full.getRGB(x * 8 + i % 8, y * 8 + i / 8));
+                }
+                int diff = Math.abs(mean / 64 - luma(preview[0].getRGB(x, y)));
+                assertTrue("preview " + x + "," + y + " differs by " + diff, diff <= 3);
+            }
+        }
+    }
+
+    @Test
+    public void baselineDetection() throws IOException {
+        BufferedImage image = createImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        assertTrue(JpegTransform.isBaseline(encode(image, 0)));
+        assertFalse(JpegTransform.isBaseline(encodeProgressive(image)));
+        assertFalse(JpegTransform.isBaseline(new byte[]{1, 2, 3, 4}));
+    }
+
+    private static void assertMatchesReference(BufferedImage image, JpegTransform.Op op, int restartInterval)
+            throws IOException {
+        byte[] jpeg = encode(image, restartInterval);
+        BufferedImage expected = transformPixels(decode(jpeg), op);
+        BufferedImage actual = decode(JpegTransform.transform(jpeg, op));
+        assertPixelsEqual(expected, actual, TOLERANCE);
+    }
+
+    private static void assertPixelsEqual(BufferedImage expected, BufferedImage actual, int tolerance) {
+        assertEquals("width", expected.getWidth(), actual.getWidth());
+        assertEquals("height", expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int e = expected.getRGB(x, y);
+                int a = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int diff = Math.abs(((e >> shift) & 0xFF) - ((a >> shift) & 0xFF));
+                    if (diff > tolerance) {
+                        fail("pixel " + x + "," + y + " differs by " + diff);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 像素域的参考变换
+     */
+    private static BufferedImage transformPixels(BufferedImage src, JpegTransform.Op op) {
+        int width = op.transpose ? src.getHeight() : src.getWidth();
+        int height = op.transpose ? src.getWidth() : src.getHeight();
+        BufferedImage dst = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int x0 = op.flipX ? width - 1 - x : x;
+                int y0 = op.flipY ? height - 1 - y : y;
+                dst.setRGB(x, y, op.transpose ? src.getRGB(y0, x0) : src.getRGB(x0, y0));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * 平滑渐变加几个色块，尺寸为MCU整数倍时不会触发裁边
+     */
+    private static BufferedImage createImage(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = (x < width / 2) == (y < height / 2) ? 200 : 60;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] encode(BufferedImage image, int restartInterval) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        if (restartInterval > 0) {
+            Node root = metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+            Node markers = root.getLastChild();
+            Element dri = new javax.imageio.metadata.IIOMetadataNode("dri");
+            dri.setAttribute("interval", String.valueOf(restartInterval));
+            markers.insertBefore(dri, markers.getFirstChild());
+            metadata.setFromTree("javax_imageio_jpeg_image_1.0", root);
+        }
+        return write(writer, image, metadata, param);
+    }
+
+    private static byte[] encodeProgressive(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        return write(writer, image, null, param);
+    }
+
+    private static byte[] write(ImageWriter writer, BufferedImage image, IIOMetadata metadata, ImageWriteParam param)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream output = new MemoryCacheImageOutputStream(bytes);
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, metadata), param);
+        output.close();
+        writer.dispose();
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull("decode failed", image);
+        return image;
+    }
+
+    private static int luma(int rgb) {
+        return (77 * ((rgb >> 16) & 0xFF) + 150 * ((rgb >> 8) & 0xFF) + 29 * (rgb & 0xFF)) >> 8;
+    }
+
+    private static int indexOfMarker(byte[] jpeg, int marker) {
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xFF) == 0xFF && (jpeg[i + 1] & 0xFF) == marker) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        ExifUtil.Splice splice = ExifUtil.orientationSplice(ByteBuffer.wrap(jpeg), orientation);
+        byte[] result = new byte[splice.header.length + jpeg.length - splice.skip];
+        System.arraycopy(splice.header, 0, result, 0, splice.header.length);
+        System.arraycopy(jpeg, splice.skip, result, splice.header.length, jpeg.length - splice.skip);
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+package com.sjl.camera.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 按行读取测试，结果与BufferedReader.readLine比较；读取缓冲为64K，边界用例按这个大小构造
+ */
+public class LineReaderTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("lines", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void lineFeed() throws IOException {
+        assertLines("a\nbb\n\nccc\n", "a", "bb", "", "ccc");
+    }
+
+    @Test
+    public void crLf() throws IOException {
+        assertLines("a\r\nbb\r\n\r\nccc\r\n", "a", "bb", "", "ccc");
+    }
+
+    @Test
+    public void loneCr() throws IOException {
+        assertLines("a\rbb\r\rccc\r", "a", "bb", "", "ccc");
+        assertLines("a\r\n\rb\n\r", "a", "", "b", "");
+    }
+
+    @Test
+    public void missingFinalNewline() throws IOException {
+        assertLines("a\nbb", "a", "bb");
+        assertLines("only", "only");
+        assertLines("");
+        assertLines("\n", "");
+    }
+
+    @Test
+    public void crLfAcrossBufferBoundary() throws IOException {
+        //\r是第一块的最后一个字节，\n在第二块
+        String first = repeat('x', BUFFER_SIZE - 1);
+        assertLines(first + "\r\nnext\n", first, "next");
+    }
+
+    @Test
+    public void loneCrAtBufferBoundary() throws IOException {
+        String first = repeat('x', BUFFER_SIZE - 1);
+        assertLines(first + "\rnext", first, "next");
+        //文件恰好以缓冲末尾的\r结束
+        assertLines(first + "\r", first);
+    }
+
+    @Test
+    public void lineLongerThanBuffer() throws IOException {
+        String longLine = repeat('y', BUFFER_SIZE * 3 + 17);
+        assertLines("a\n" + longLine + "\r\nb", "a", longLine, "b");
+    }
+
+    @Test
+    public void multiByteCharacters() throws IOException {
+        assertLines("中文\r\n第二行\n", "中文", "第二行");
+    }
+
+    @Test
+    public void mappedMatchesStreaming() throws IOException {
+        String text = mixedText(200000);
+        write(text);
+        List<String> lines = new ArrayList<String>();
+        LineReader reader = new LineReader(file, UTF_8, true);
+        try {
+            while (reader.hasNext()) {
+                lines.add(reader.next());
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(expected(text), lines);
+    }
+
+    @Test
+    public void parallelReadsEveryLineOnce() throws IOException {
+        //超过并行分段大小，分段边界会落在行中间和\r\n之间
+        String text = mixedText(3 * 1024 * 1024 + 123);
+        write(text);
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        LineReader.forEachLineParallel(file, UTF_8, new LineReader.Callback() {
+            @Override
+            public void onLine(String line) {
+                lines.add(line);
+            }
+        });
+        List<String> expected = expected(text);
+        List<String> actual = new ArrayList<String>(lines);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    private void assertLines(String text, String... lines) throws IOException {
+        write(text);
+        assertEquals(Arrays.asList(lines), expected(text));
+        List<String> actual = new ArrayList<String>();
+        LineReader reader = new LineReader(file, "UTF-8");
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                actual.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(Arrays.asList(lines), actual);
+    }
+
+    private void write(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes(UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> expected(String text) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new StringReader(text));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * 不同长度的行，换行符轮流使用\n、\r\n和\r
+     */
+    private static String mixedText(int length) {
+        String[] endings = {"\n", "\r\n", "\r"};
+        StringBuilder builder = new StringBuilder(length + 100);
+        int i = 0;
+        while (builder.length() < length) {
+            builder.append("line").append(i).append(repeat('z', i * 31 % 97)).append(endings[i % 3]);
+            i++;
+        }
+        return builder.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
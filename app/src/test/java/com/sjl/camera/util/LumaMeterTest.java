@@ -0,0 +1,84 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * 亮度测量测试，预览帧为均匀亮度或左右两半不同亮度的NV21
+ */
+public class LumaMeterTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void meanOfUniformFrame() {
+        assertEquals(100, LumaMeter.meanLuma(frame(100), WIDTH, HEIGHT, WIDTH, 8));
+        assertEquals(255, LumaMeter.meanLuma(frame(255), WIDTH, HEIGHT, WIDTH, 1));
+    }
+
+    @Test
+    public void meanSamplesWholeFrame() {
+        byte[] nv21 = frame(0);
+        for (int row = 0; row < HEIGHT; row++) {
+            Arrays.fill(nv21, row * WIDTH + WIDTH / 2, (row + 1) * WIDTH, (byte) 200);
+        }
+        assertEquals(100, LumaMeter.meanLuma(nv21, WIDTH, HEIGHT, WIDTH, 8));
+        assertEquals(100, LumaMeter.meanLuma(nv21, WIDTH, HEIGHT, WIDTH, 1));
+    }
+
+    @Test
+    public void honorsRowStride() {
+        int stride = WIDTH + 16;
+        byte[] y = new byte[(HEIGHT - 1) * stride + WIDTH];
+        Arrays.fill(y, (byte) 255);
+        for (int row = 0; row < HEIGHT; row++) {
+            Arrays.fill(y, row * stride, row * stride + WIDTH, (byte) 30);
+        }
+        assertEquals(30, LumaMeter.meanLuma(y, WIDTH, HEIGHT, stride, 4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortBuffer() {
+        LumaMeter.meanLuma(new byte[WIDTH * HEIGHT - 1], WIDTH, HEIGHT, WIDTH, 8);
+    }
+
+    @Test
+    public void hysteresis() {
+        LumaMeter meter = new LumaMeter();
+        assertEquals(-1, meter.getAverage());
+        assertTrue(meter.update(frame(10), WIDTH, HEIGHT));
+        assertTrue(meter.isDark());
+        //两个阈值之间保持暗光状态
+        for (int i = 0; i < 20; i++) {
+            assertFalse(meter.update(frame(50), WIDTH, HEIGHT));
+        }
+        assertTrue(meter.isDark());
+        boolean changed = false;
+        for (int i = 0; i < 20 && !changed; i++) {
+            changed = meter.update(frame(200), WIDTH, HEIGHT);
+        }
+        assertTrue(changed);
+        assertFalse(meter.isDark());
+        assertTrue(meter.getAverage() > LumaMeter.BRIGHT_THRESHOLD);
+    }
+
+    @Test
+    public void singleDarkFrameIsSmoothed() {
+        LumaMeter meter = new LumaMeter();
+        meter.update(frame(200), WIDTH, HEIGHT);
+        assertFalse(meter.update(frame(0), WIDTH, HEIGHT));
+        assertFalse(meter.isDark());
+        meter.reset();
+        assertEquals(-1, meter.getAverage());
+    }
+
+    private static byte[] frame(int luma) {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) luma);
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        return nv21;
+    }
+}
@@ -0,0 +1,249 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 像素缓冲变换测试，源图每个像素的通道值由坐标算出，变换结果按坐标映射逐像素比较
+ */
+public class PixelBufferTest {
+
+    @Test
+    public void cropCopiesRegion() {
+        PixelBuffer src = createRgba(8, 6);
+        PixelBuffer dst = PixelBuffer.allocate(3, 2, PixelBuffer.Format.RGBA_8888);
+        src.crop(4, 3, dst);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertPixel(dst, x, y, rgba(x + 4, y + 3));
+            }
+        }
+    }
+
+    @Test
+    public void cropFromViewIntoStridedBuffer() {
+        PixelBuffer src = createRgba(8, 6).view(2, 1, 5, 4);
+        //行跨度比行宽多8字节
+        PixelBuffer dst = PixelBuffer.wrap(ByteBuffer.allocate(4 * 28 + 12), 3, 4, 28, PixelBuffer.Format.RGBA_8888);
+        src.crop(1, 0, dst);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertPixel(dst, x, y, rgba(x + 3, y + 1));
+            }
+        }
+    }
+
+    @Test
+    public void scaleSameSizeIsCopy() {
+        PixelBuffer src = createRgba(7, 5);
+        PixelBuffer dst = PixelBuffer.allocate(7, 5, PixelBuffer.Format.RGBA_8888);
+        src.scale(dst);
+        assertSameRgba(src, dst);
+    }
+
+    @Test
+    public void scaleUpInterpolatesBetweenPixelCenters() {
+        PixelBuffer src = PixelBuffer.allocate(2, 1, PixelBuffer.Format.GRAY_8);
+        src.getBuffer().put(0, (byte) 0).put(1, (byte) 200);
+        PixelBuffer dst = PixelBuffer.allocate(4, 1, PixelBuffer.Format.GRAY_8);
+        src.scale(dst);
+        assertArrayEquals(new int[]{0, 50, 150, 200}, grayRow(dst, 0));
+    }
+
+    @Test
+    public void scaleDownKeepsUniformColor() {
+        PixelBuffer src = PixelBuffer.allocate(16, 12, PixelBuffer.Format.RGBA_8888);
+        for (int i = 0; i < 16 * 12; i++) {
+            src.getBuffer().putInt(i * 4, 0x11223344);
+        }
+        PixelBuffer dst = PixelBuffer.allocate(5, 7, PixelBuffer.Format.RGBA_8888);
+        src.scale(dst);
+        for (int i = 0; i < 5 * 7; i++) {
+            assertEquals(0x11223344, dst.getBuffer().getInt(i * 4));
+        }
+    }
+
+    @Test
+    public void rotateMapsCorners() {
+        PixelBuffer src = createRgba(4, 3);
+        PixelBuffer rotated = PixelBuffer.allocate(3, 4, PixelBuffer.Format.RGBA_8888);
+        src.rotate(90, rotated);
+        //顺时针90度：左上角到右上角，左下角到左上角
+        assertPixel(rotated, 2, 0, rgba(0, 0));
+        assertPixel(rotated, 0, 0, rgba(0, 2));
+        assertPixel(rotated, 0, 3, rgba(3, 2));
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 3; x++) {
+                assertPixel(rotated, x, y, rgba(y, 2 - x));
+            }
+        }
+    }
+
+    @Test
+    public void fourRotationsAreIdentity() {
+        PixelBuffer src = createRgba(5, 3);
+        PixelBuffer a = PixelBuffer.allocate(3, 5, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer b = PixelBuffer.allocate(5, 3, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer c = PixelBuffer.allocate(3, 5, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer result = PixelBuffer.allocate(5, 3, PixelBuffer.Format.RGBA_8888);
+        src.rotate(90, a);
+        a.rotate(90, b);
+        b.rotate(90, c);
+        c.rotate(90, result);
+        assertSameRgba(src, result);
+    }
+
+    @Test
+    public void negativeAndLargeDegreesAreNormalized() {
+        PixelBuffer src = createRgba(5, 3);
+        PixelBuffer expected = PixelBuffer.allocate(3, 5, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer actual = PixelBuffer.allocate(3, 5, PixelBuffer.Format.RGBA_8888);
+        src.rotate(270, expected);
+        src.rotate(-90, actual);
+        assertSameRgba(expected, actual);
+        src.rotate(630, actual);
+        assertSameRgba(expected, actual);
+    }
+
+    @Test
+    public void rotate180EqualsBothMirrors() {
+        PixelBuffer src = createRgba(6, 4);
+        PixelBuffer rotated = PixelBuffer.allocate(6, 4, PixelBuffer.Format.RGBA_8888);
+        src.rotate(180, rotated);
+        PixelBuffer horizontal = PixelBuffer.allocate(6, 4, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer both = PixelBuffer.allocate(6, 4, PixelBuffer.Format.RGBA_8888);
+        src.mirror(true, horizontal);
+        horizontal.mirror(false, both);
+        assertSameRgba(rotated, both);
+    }
+
+    @Test
+    public void mirror() {
+        PixelBuffer src = createRgba(5, 3);
+        PixelBuffer dst = PixelBuffer.allocate(5, 3, PixelBuffer.Format.RGBA_8888);
+        src.mirror(true, dst);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 5; x++) {
+                assertPixel(dst, x, y, rgba(4 - x, y));
+            }
+        }
+        src.mirror(false, dst);
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 5; x++) {
+                assertPixel(dst, x, y, rgba(x, 2 - y));
+            }
+        }
+    }
+
+    @Test
+    public void convertRgbaToGray() {
+        PixelBuffer src = PixelBuffer.allocate(4, 1, PixelBuffer.Format.RGBA_8888);
+        int[][] colors = {{255, 255, 255}, {255, 0, 0}, {0, 255, 0}, {0, 0, 255}};
+        for (int i = 0; i < colors.length; i++) {
+            src.getBuffer().put(i * 4, (byte) colors[i][0]).put(i * 4 + 1, (byte) colors[i][1])
+                    .put(i * 4 + 2, (byte) colors[i][2]).put(i * 4 + 3, (byte) 0xFF);
+        }
+        PixelBuffer dst = PixelBuffer.allocate(4, 1, PixelBuffer.Format.GRAY_8);
+        src.convert(dst);
+        //BT.601定点系数77/150/29(和为256)
+        assertArrayEquals(new int[]{255, 77, 149, 29}, grayRow(dst, 0));
+    }
+
+    @Test
+    public void convertGrayToOpaqueRgba() {
+        PixelBuffer src = PixelBuffer.allocate(3, 2, PixelBuffer.Format.GRAY_8);
+        for (int i = 0; i < 6; i++) {
+            src.getBuffer().put(i, (byte) (i * 40));
+        }
+        PixelBuffer dst = PixelBuffer.allocate(3, 2, PixelBuffer.Format.RGBA_8888);
+        src.convert(dst);
+        for (int i = 0; i < 6; i++) {
+            int gray = i * 40;
+            assertPixel(dst, i % 3, i / 3, new int[]{gray, gray, gray, 255});
+        }
+    }
+
+    @Test
+    public void convertSameFormatCopies() {
+        PixelBuffer src = createRgba(4, 4);
+        PixelBuffer dst = PixelBuffer.allocate(4, 4, PixelBuffer.Format.RGBA_8888);
+        src.convert(dst);
+        assertSameRgba(src, dst);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDstWrappingSameMemory() {
+        ByteBuffer memory = ByteBuffer.allocate(4 * 4 * 4);
+        PixelBuffer src = PixelBuffer.wrap(memory, 4, 4, 16, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer dst = PixelBuffer.wrap(memory, 4, 4, 16, PixelBuffer.Format.RGBA_8888);
+        src.mirror(true, dst);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDstSharingHeapArray() {
+        byte[] array = new byte[4 * 4 * 4];
+        PixelBuffer src = PixelBuffer.wrap(ByteBuffer.wrap(array), 4, 4, 16, PixelBuffer.Format.RGBA_8888);
+        PixelBuffer dst = PixelBuffer.wrap(ByteBuffer.wrap(array), 4, 4, 16, PixelBuffer.Format.RGBA_8888);
+        src.rotate(180, dst);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDstViewOfSrc() {
+        PixelBuffer src = createRgba(8, 8);
+        src.scale(src.view(4, 4, 4, 4));
+    }
+
+    /**
+     * 像素(x, y)的通道为(x, y, x + y, 255)
+     */
+    private static PixelBuffer createRgba(int width, int height) {
+        PixelBuffer buffer = PixelBuffer.allocate(width, height, PixelBuffer.Format.RGBA_8888);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] p = rgba(x, y);
+                int i = (y * width + x) * 4;
+                for (int c = 0; c < 4; c++) {
+                    buffer.getBuffer().put(i + c, (byte) p[c]);
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private static int[] rgba(int x, int y) {
+        return new int[]{x, y, x + y, 255};
+    }
+
+    private static void assertPixel(PixelBuffer buffer, int x, int y, int[] expected) {
+        int p = buffer.getOffset() + y * buffer.getStride() + x * 4;
+        for (int c = 0; c < 4; c++) {
+            assertEquals("(" + x + ", " + y + ") channel " + c, expected[c], buffer.getBuffer().get(p + c) & 0xFF);
+        }
+    }
+
+    private static void assertSameRgba(PixelBuffer expected, PixelBuffer actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int p = expected.getOffset() + y * expected.getStride() + x * 4;
+                int[] pixel = new int[4];
+                for (int c = 0; c < 4; c++) {
+                    pixel[c] = expected.getBuffer().get(p + c) & 0xFF;
+                }
+                assertPixel(actual, x, y, pixel);
+            }
+        }
+    }
+
+    private static int[] grayRow(PixelBuffer buffer, int y) {
+        int[] row = new int[buffer.getWidth()];
+        for (int x = 0; x < row.length; x++) {
+            row[x] = buffer.getBuffer().get(buffer.getOffset() + y * buffer.getStride() + x) & 0xFF;
+        }
+        return row;
+    }
+}
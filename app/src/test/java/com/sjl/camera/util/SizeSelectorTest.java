@@ -0,0 +1,105 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 预览/拍照尺寸选择测试，尺寸表按真实机型的输出配置整理
+ */
+public class SizeSelectorTest {
+    private static final long FPS_30 = 33333333L;
+    private static final long FPS_20 = 50000000L;
+    private static final long FPS_15 = 66666666L;
+
+    /**
+     * 12MP 4:3后置摄像头，所有预览尺寸都支持30fps
+     */
+    private static final int[][] FLAGSHIP_12MP = {
+            {4032, 3024}, {4000, 3000}, {4032, 2268}, {3840, 2160}, {3264, 2448}, {2592, 1944},
+            {2048, 1536}, {1920, 1080}, {1600, 1200}, {1440, 1080}, {1280, 960}, {1280, 720},
+            {640, 480}, {320, 240}};
+
+    /**
+     * 13MP中端机，大尺寸预览达不到30fps
+     */
+    private static final int[][] MIDRANGE_13MP_PREVIEW = {
+            {4160, 3120, (int) FPS_15}, {1920, 1080, (int) FPS_30}, {1440, 1080, (int) FPS_20},
+            {1280, 960, (int) FPS_30}, {1280, 720, (int) FPS_30}, {960, 720, (int) FPS_30}, {640, 480, (int) FPS_30}};
+
+    /**
+     * 16:9最大输出的16MP摄像头
+     */
+    private static final int[][] WIDE_16MP_PREVIEW = {
+            {1920, 1080}, {1440, 1080}, {1280, 720}, {1056, 864}, {960, 720}, {720, 480}, {640, 480}};
+
+    /**
+     * 5MP老机型
+     */
+    private static final int[][] LEGACY_5MP_PREVIEW = {
+            {1280, 960}, {1280, 720}, {800, 600}, {800, 480}, {640, 480}, {320, 240}};
+
+    private static List<SizeSelector.Option> sizes(int[][] table, long defaultDuration) {
+        List<SizeSelector.Option> list = new ArrayList<SizeSelector.Option>();
+        for (int[] row : table) {
+            list.add(new SizeSelector.Option(row[0], row[1], row.length > 2 ? row[2] : defaultDuration));
+        }
+        return list;
+    }
+
+    @Test
+    public void stillSize_isLargestArea() throws Exception {
+        SizeSelector.Option still = SizeSelector.chooseStillSize(sizes(FLAGSHIP_12MP, 0));
+        assertEquals(new SizeSelector.Option(4032, 3024), still);
+    }
+
+    @Test
+    public void stillSize_emptyIsNull() throws Exception {
+        assertNull(SizeSelector.chooseStillSize(new ArrayList<SizeSelector.Option>()));
+        assertNull(SizeSelector.chooseStillSize(null));
+    }
+
+    @Test
+    public void preview_flagshipMatchesStillAspectWithinPreviewLimit() throws Exception {
+        SizeSelector.Option still = new SizeSelector.Option(4032, 3024);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(FLAGSHIP_12MP, FPS_30), 1080, 1920, still);
+        assertEquals(new SizeSelector.Option(1440, 1080), preview);
+    }
+
+    @Test
+    public void preview_midRangeSkipsSizesBelow30fps() throws Exception {
+        SizeSelector.Option still = new SizeSelector.Option(4160, 3120);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(MIDRANGE_13MP_PREVIEW, 0), 720, 1280, still);
+        assertEquals(new SizeSelector.Option(1280, 960), preview);
+    }
+
+    @Test
+    public void preview_wideSensorKeeps16by9() throws Exception {
+        SizeSelector.Option still = new SizeSelector.Option(5312, 2988);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(WIDE_16MP_PREVIEW, FPS_30), 1440, 2560, still);
+        assertEquals(new SizeSelector.Option(1920, 1080), preview);
+    }
+
+    @Test
+    public void preview_smallDisplayTakesSmallestCoveringSize() throws Exception {
+        SizeSelector.Option still = new SizeSelector.Option(2592, 1944);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(LEGACY_5MP_PREVIEW, FPS_30), 480, 800, still);
+        assertEquals(new SizeSelector.Option(800, 600), preview);
+    }
+
+    @Test
+    public void preview_fallsBackWhenNothingReaches30fps() throws Exception {
+        SizeSelector.Option still = new SizeSelector.Option(2592, 1944);
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(LEGACY_5MP_PREVIEW, FPS_15), 480, 800, still);
+        assertEquals(new SizeSelector.Option(800, 600), preview);
+    }
+
+    @Test
+    public void preview_withoutStillSizeCoversDisplay() throws Exception {
+        SizeSelector.Option preview = SizeSelector.choosePreviewSize(sizes(LEGACY_5MP_PREVIEW, FPS_30), 720, 1280, null);
+        assertEquals(new SizeSelector.Option(1280, 720), preview);
+    }
+}
@@ -0,0 +1,153 @@
+package com.sjl.camera.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * YUV转换测试，YUV_420_888按Camera2的平面布局构造，结果与NV21转换逐像素比较
+ */
+public class YuvUtilTest {
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void nv21UsesSharedChroma() {
+        byte[] nv21 = createNv21(WIDTH, HEIGHT);
+        int[] out = new int[WIDTH * HEIGHT];
+        YuvUtil.nv21ToArgb(nv21, WIDTH, HEIGHT, out);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int uv = WIDTH * HEIGHT + (row / 2) * WIDTH + (x / 2) * 2;
+                int expected = YuvUtil.yuvToArgb(nv21[row * WIDTH + x] & 0xFF, nv21[uv + 1] & 0xFF, nv21[uv] & 0xFF);
+                assertEquals("(" + x + ", " + row + ")", expected, out[row * WIDTH + x]);
+            }
+        }
+    }
+
+    @Test
+    public void blackAndWhite() {
+        assertEquals(0xff000000, YuvUtil.yuvToArgb(16, 128, 128));
+        assertEquals(0xff000000, YuvUtil.yuvToArgb(0, 128, 128));
+        assertEquals(0xffffffff, YuvUtil.yuvToArgb(255, 128, 128));
+    }
+
+    @Test
+    public void semiPlanarMatchesNv21() {
+        byte[] nv21 = createNv21(WIDTH, HEIGHT);
+        int[] expected = new int[WIDTH * HEIGHT];
+        YuvUtil.nv21ToArgb(nv21, WIDTH, HEIGHT, expected);
+        //行跨度带填充，UV像素跨度为2，和设备上的布局一样最后一行没有填充
+        ByteBuffer[] planes = toPlanes(nv21, WIDTH, HEIGHT, 8, 8, 2);
+        int[] out = new int[WIDTH * HEIGHT];
+        YuvUtil.yuv420ToArgb(planes[0], planes[1], planes[2], 8, 8, 2, WIDTH, HEIGHT, out);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void planarMatchesNv21() {
+        byte[] nv21 = createNv21(WIDTH, HEIGHT);
+        int[] expected = new int[WIDTH * HEIGHT];
+        YuvUtil.nv21ToArgb(nv21, WIDTH, HEIGHT, expected);
+        ByteBuffer[] planes = toPlanes(nv21, WIDTH, HEIGHT, WIDTH, WIDTH / 2, 1);
+        int[] out = new int[WIDTH * HEIGHT];
+        YuvUtil.yuv420ToArgb(planes[0], planes[1], planes[2], WIDTH, WIDTH / 2, 1, WIDTH, HEIGHT, out);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = createNv21(width, height);
+        ByteBuffer[] planes = toPlanes(nv21, width, height, 80, 80, 2);
+        int[] serial = new int[width * height];
+        int[] parallel = new int[width * height];
+        YuvUtil.yuv420ToArgb(planes[0], planes[1], planes[2], 80, 80, 2, width, height, serial);
+        YuvUtil.yuv420ToArgbParallel(planes[0], planes[1], planes[2], 80, 80, 2, width, height, parallel);
+        assertArrayEquals(serial, parallel);
+        YuvUtil.nv21ToArgbParallel(nv21, width, height, parallel);
+        assertArrayEquals(serial, parallel);
+    }
+
+    @Test
+    public void grayCopiesRowsWithoutPadding() {
+        byte[] nv21 = createNv21(WIDTH, HEIGHT);
+        ByteBuffer[] planes = toPlanes(nv21, WIDTH, HEIGHT, 8, 8, 2);
+        byte[] out = new byte[WIDTH * HEIGHT];
+        YuvUtil.yuv420ToGray(planes[0], 8, WIDTH, HEIGHT, out);
+        byte[] expected = new byte[WIDTH * HEIGHT];
+        YuvUtil.nv21ToGray(nv21, WIDTH, HEIGHT, expected);
+        assertArrayEquals(expected, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortYPlane() {
+        ByteBuffer[] planes = toPlanes(createNv21(WIDTH, HEIGHT), WIDTH, HEIGHT, 8, 8, 2);
+        planes[0].limit(planes[0].limit() - 1);
+        YuvUtil.yuv420ToArgb(planes[0], planes[1], planes[2], 8, 8, 2, WIDTH, HEIGHT, new int[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortChromaPlane() {
+        ByteBuffer[] planes = toPlanes(createNv21(WIDTH, HEIGHT), WIDTH, HEIGHT, 8, 8, 2);
+        planes[2].limit(planes[2].limit() - 1);
+        YuvUtil.yuv420ToArgbParallel(planes[0], planes[1], planes[2], 8, 8, 2, WIDTH, HEIGHT, new int[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStrideLargerThanPlane() {
+        ByteBuffer[] planes = toPlanes(createNv21(WIDTH, HEIGHT), WIDTH, HEIGHT, 8, 8, 2);
+        YuvUtil.yuv420ToGray(planes[0], 16, WIDTH, HEIGHT, new byte[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortOutput() {
+        ByteBuffer[] planes = toPlanes(createNv21(WIDTH, HEIGHT), WIDTH, HEIGHT, 8, 8, 2);
+        YuvUtil.yuv420ToArgb(planes[0], planes[1], planes[2], 8, 8, 2, WIDTH, HEIGHT, new int[WIDTH * HEIGHT - 1]);
+    }
+
+    /**
+     * Y值由坐标算出，V/U交错在Y平面之后
+     */
+    private static byte[] createNv21(int width, int height) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) (16 + i * 7 % 220);
+        }
+        for (int i = width * height; i < nv21.length; i++) {
+            nv21[i] = (byte) (40 + i * 13 % 180);
+        }
+        return nv21;
+    }
+
+    /**
+     * 按YUV_420_888的布局拆成Y、U、V三个平面，每个平面只保留到最后一个样本
+     *
+     * @return {y, u, v}
+     */
+    private static ByteBuffer[] toPlanes(byte[] nv21, int width, int height, int yRowStride, int uvRowStride,
+                                         int uvPixelStride) {
+        ByteBuffer y = ByteBuffer.allocate((height - 1) * yRowStride + width);
+        for (int row = 0; row < height; row++) {
+            for (int x = 0; x < width; x++) {
+                y.put(row * yRowStride + x, nv21[row * width + x]);
+            }
+        }
+        int uvWidth = width / 2;
+        int uvHeight = height / 2;
+        int uvSize = (uvHeight - 1) * uvRowStride + (uvWidth - 1) * uvPixelStride + 1;
+        ByteBuffer u = ByteBuffer.allocate(uvSize);
+        ByteBuffer v = ByteBuffer.allocate(uvSize);
+        for (int row = 0; row < uvHeight; row++) {
+            for (int x = 0; x < uvWidth; x++) {
+                int src = width * height + row * width + x * 2;
+                v.put(row * uvRowStride + x * uvPixelStride, nv21[src]);
+                u.put(row * uvRowStride + x * uvPixelStride, nv21[src + 1]);
+            }
+        }
+        return new ByteBuffer[]{y, u, v};
+    }
+}
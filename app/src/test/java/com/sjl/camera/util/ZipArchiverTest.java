@@ -0,0 +1,237 @@
+package com.sjl.camera.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * zip打包测试，用java.util.zip读回压缩包逐字节比较；包含超过{@link ZipArchiver#MAX_BUFFERED_SIZE}的文件，
+ * 走边压缩边写再回填文件头的路径。不支持zip64，不测试4GB以上
+ */
+public class ZipArchiverTest {
+    private File dir;
+    private File zip;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("zipsrc", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+        zip = File.createTempFile("archive", ".zip");
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+        zip.delete();
+    }
+
+    @Test
+    public void directoryRoundTrip() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        files.put("a.txt", text(1000, 1));
+        files.put("empty.txt", new byte[0]);
+        files.put("photo.jpg", random(200 * 1024, 2));
+        files.put("random.bin", random(64 * 1024, 3));
+        files.put("sub/b.txt", text(5000, 4));
+        //JVM的文件名编码不是UTF-8时中文文件名在磁盘上就已经变了
+        if (canStoreName("中文.txt")) {
+            files.put("sub/中文.txt", text(700, 10));
+        }
+        files.put("sub/deeper/b.log", text(300 * 1024, 5));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            write(new File(dir, file.getKey()), file.getValue());
+        }
+        ZipArchiver archiver = new ZipArchiver();
+        archiver.setThreads(3);
+        archiver.zipDirectory(dir, zip);
+        assertZip(files);
+    }
+
+    @Test
+    public void largeFilesRoundTrip() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        files.put("big.txt", text((int) ZipArchiver.MAX_BUFFERED_SIZE + 1024 * 1024 + 7, 6));
+        files.put("big.jpg", random((int) ZipArchiver.MAX_BUFFERED_SIZE + 3, 7));
+        files.put("small.txt", text(100, 8));
+        List<File> list = new ArrayList<File>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            File f = new File(dir, file.getKey());
+            write(f, file.getValue());
+            list.add(f);
+        }
+        final int[] progress = new int[2];
+        ZipArchiver archiver = new ZipArchiver();
+        archiver.setListener(new ZipArchiver.ProgressListener() {
+            @Override
+            public void onProgress(int entries, int entryCount, long bytes, long totalBytes, long bytesPerSecond) {
+                progress[0] = entries;
+                progress[1] = entryCount;
+            }
+        });
+        archiver.zip(list, zip);
+        assertArrayEquals(new int[]{3, 3}, progress);
+        assertZip(files);
+        //回填后的本地文件头与中央目录一致
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            ZipEntry big = zipFile.getEntry("big.txt");
+            assertEquals(ZipEntry.DEFLATED, big.getMethod());
+            assertTrue(big.getCompressedSize() < big.getSize());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("big.jpg").getMethod());
+        } finally {
+            zipFile.close();
+        }
+        assertLocalHeaderCrc("big.txt", files.get("big.txt"));
+    }
+
+    @Test
+    public void incompressibleTextIsStored() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        files.put("noise.txt", random(100 * 1024, 9));
+        write(new File(dir, "noise.txt"), files.get("noise.txt"));
+        new ZipArchiver().zipDirectory(dir, zip);
+        assertZip(files);
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("noise.txt").getMethod());
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    @Test
+    public void missingDirectoryFailsWithoutArchive() throws IOException {
+        zip.delete();
+        try {
+            new ZipArchiver().zipDirectory(new File(dir, "missing"), zip);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(zip.exists());
+    }
+
+    private void assertZip(Map<String, byte[]> files) throws IOException {
+        ZipFile zipFile = new ZipFile(zip);
+        try {
+            List<String> names = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                names.add(entry.getName());
+                byte[] expected = files.get(entry.getName());
+                assertNotNull(entry.getName(), expected);
+                assertEquals(entry.getName(), expected.length, entry.getSize());
+                //ZipFile读取时校验CRC
+                assertArrayEquals(entry.getName(), expected, read(zipFile.getInputStream(entry)));
+            }
+            List<String> expectedNames = new ArrayList<String>(files.keySet());
+            Collections.sort(expectedNames);
+            Collections.sort(names);
+            assertEquals(expectedNames, names);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * 第一个条目的本地文件头中的CRC
+     */
+    private void assertLocalHeaderCrc(String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        RandomAccessFile file = new RandomAccessFile(zip, "r");
+        try {
+            byte[] header = new byte[30 + name.length()];
+            file.readFully(header);
+            assertEquals(name, new String(header, 30, name.length(), "UTF-8"));
+            long stored = (header[14] & 0xFFL) | (header[15] & 0xFFL) << 8 | (header[16] & 0xFFL) << 16
+                    | (header[17] & 0xFFL) << 24;
+            assertEquals(crc.getValue(), stored);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * 可压缩的文本
+     */
+    private static byte[] text(int length, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"camera ", "preview ", "burst ", "jpeg ", "exif ", "save\n"};
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 16);
+        while (out.size() < length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            out.write(word, 0, Math.min(word.length, length - out.size()));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private boolean canStoreName(String name) throws IOException {
+        File probe = new File(dir, name);
+        write(probe, new byte[0]);
+        boolean stored = Arrays.asList(dir.list()).contains(name);
+        probe.delete();
+        return stored;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
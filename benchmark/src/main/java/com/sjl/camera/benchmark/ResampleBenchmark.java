@@ -0,0 +1,145 @@
+package com.sjl.camera.benchmark;
+
+import com.sjl.camera.util.Resampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缩小到1/4和旋转90度的耗时，单位毫秒/张
+ * <p>JVM上没有Skia，matrixBilinear/matrixRotate按Bitmap.createBitmap(Matrix, filter)的做法
+ * 逐个目标像素反算源坐标，单线程，作为现有实现的对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class ResampleBenchmark {
+    @Param({"1920x1080", "4000x3000", "8000x6000"})
+    public String size;
+
+    private int width;
+    private int height;
+    private int dstWidth;
+    private int dstHeight;
+    private int[] src;
+    private int[] dst;
+    private int[] rotated;
+    private Resampler box;
+    private Resampler bilinear;
+    private Resampler bilinearSerial;
+    private Resampler lanczos;
+
+    @Setup
+    public void setup() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        dstWidth = width / 4;
+        dstHeight = height / 4;
+        src = new int[width * height];
+        Random random = new Random(1);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt() | 0xFF000000;
+        }
+        dst = new int[dstWidth * dstHeight];
+        rotated = new int[width * height];
+        box = new Resampler(Resampler.Filter.BOX);
+        bilinear = new Resampler(Resampler.Filter.BILINEAR);
+        bilinearSerial = new Resampler(Resampler.Filter.BILINEAR);
+        bilinearSerial.setParallel(false);
+        lanczos = new Resampler(Resampler.Filter.LANCZOS3);
+    }
+
+    @Benchmark
+    public int[] matrixBilinear() {
+        float scaleX = (float) width / dstWidth;
+        float scaleY = (float) height / dstHeight;
+        for (int y = 0; y < dstHeight; y++) {
+            float sy = Math.max(0, Math.min(height - 1, (y + 0.5f) * scaleY - 0.5f));
+            int y0 = (int) sy;
+            int y1 = Math.min(height - 1, y0 + 1);
+            int fy = (int) ((sy - y0) * 256);
+            for (int x = 0; x < dstWidth; x++) {
+                float sx = Math.max(0, Math.min(width - 1, (x + 0.5f) * scaleX - 0.5f));
+                int x0 = (int) sx;
+                int x1 = Math.min(width - 1, x0 + 1);
+                int fx = (int) ((sx - x0) * 256);
+                dst[y * dstWidth + x] = lerp(
+                        lerp(src[y0 * width + x0], src[y0 * width + x1], fx),
+                        lerp(src[y1 * width + x0], src[y1 * width + x1], fx), fy);
+            }
+        }
+        return dst;
+    }
+
+    @Benchmark
+    public int[] resizeBox() {
+        box.resize(src, width, height, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] resizeBilinear() {
+        bilinear.resize(src, width, height, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] resizeBilinearSerial() {
+        bilinearSerial.resize(src, width, height, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] resizeLanczos() {
+        lanczos.resize(src, width, height, dst, dstWidth, dstHeight);
+        return dst;
+    }
+
+    @Benchmark
+    public int[] matrixRotate() {
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                rotated[y * height + x] = src[(height - 1 - x) * width + y];
+            }
+        }
+        return rotated;
+    }
+
+    @Benchmark
+    public int[] rotate() {
+        bilinear.rotate(src, width, height, 90, rotated);
+        return rotated;
+    }
+
+    @Benchmark
+    public int[] rotateSerial() {
+        bilinearSerial.rotate(src, width, height, 90, rotated);
+        return rotated;
+    }
+
+    private static int lerp(int c0, int c1, int f) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int v0 = (c0 >>> shift) & 0xFF;
+            int v1 = (c1 >>> shift) & 0xFF;
+            result |= (v0 + (((v1 - v0) * f) >> 8)) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,124 @@
+package com.sjl.camera.benchmark;
+
+import com.sjl.camera.util.IOUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件到文件复制、文件读入字节数组的耗时，单位毫秒/次
+ * <p>loop1k/toByteArray1k是改动前IOUtil和FileUtil中1KB缓冲的写法，作为对照
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StreamCopyBenchmark {
+    /**
+     * 缩略图、普通照片、高像素照片
+     */
+    @Param({"262144", "4194304", "12582912"})
+    public int length;
+
+    private File source;
+    private File target;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] data = new byte[length];
+        new Random(1).nextBytes(data);
+        source = File.createTempFile("copy-src", ".bin");
+        target = File.createTempFile("copy-dst", ".bin");
+        FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public long loop1k() throws IOException {
+        InputStream in = new FileInputStream(source);
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] data = new byte[1024];
+            long total = 0;
+            int len;
+            while ((len = in.read(data)) != -1) {
+                out.write(data, 0, len);
+                total += len;
+            }
+            return total;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public long pooled() throws IOException {
+        InputStream in = new FileInputStream(source);
+        OutputStream out = new FileOutputStream(target);
+        try {
+            return IOUtil.copy(in, out, source.length());
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] toByteArray1k() throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[1024];
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, len);
+            }
+            return baos.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] toByteArrayPresized() throws IOException {
+        return IOUtil.streamToByteArray(new FileInputStream(source), source.length());
+    }
+
+    @Benchmark
+    public byte[] toByteArrayAvailable() throws IOException {
+        return IOUtil.streamToByteArray(new FileInputStream(source));
+    }
+}
@@ -0,0 +1,92 @@
+package com.sjl.camera.benchmark;
+
+import com.sjl.camera.util.YuvUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV转换耗时，单位毫秒/帧
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class YuvBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private int[] argb;
+    private byte[] gray;
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+
+    @Setup
+    public void setup() {
+        String[] parts = size.split("x");
+        width = Integer.parseInt(parts[0]);
+        height = Integer.parseInt(parts[1]);
+        nv21 = new byte[width * height * 3 / 2];
+        new Random(1).nextBytes(nv21);
+        argb = new int[width * height];
+        gray = new byte[width * height];
+        //用NV21模拟Camera2的半平面YUV_420_888
+        ByteBuffer frame = ByteBuffer.allocateDirect(nv21.length);
+        frame.put(nv21);
+        frame.position(0).limit(width * height);
+        y = frame.slice();
+        frame.clear().position(width * height);
+        v = frame.slice();
+        frame.position(width * height + 1);
+        u = frame.slice();
+    }
+
+    @Benchmark
+    public int[] nv21ToArgb() {
+        YuvUtil.nv21ToArgb(nv21, width, height, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] nv21ToArgbParallel() {
+        YuvUtil.nv21ToArgbParallel(nv21, width, height, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public byte[] nv21ToGray() {
+        YuvUtil.nv21ToGray(nv21, width, height, gray);
+        return gray;
+    }
+
+    @Benchmark
+    public int[] yuv420ToArgb() {
+        YuvUtil.yuv420ToArgb(y, u, v, width, width, 2, width, height, argb);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] yuv420ToArgbParallel() {
+        YuvUtil.yuv420ToArgbParallel(y, u, v, width, width, 2, width, height, argb);
+        return argb;
+    }
+}